@@ -0,0 +1,84 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.parser.ColumnarTapFile;
+import dev.amir.trip_matcher.reader.service.CsvReadingService;
+import dev.amir.trip_matcher.reader.service.TapReaderType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CsvReadingBenchmark extends SyntheticTapState {
+
+    private Path tapsCsv;
+    private Path tapsColumnar;
+    private CsvReadingService csvReadingService;
+    private CsvReadingService fastReadingService;
+    private CsvReadingService parallelReadingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tapsCsv = Files.createTempFile("taps-benchmark", ".csv");
+        SyntheticTapGenerator.writeCsv(generateTaps(), tapsCsv);
+        csvReadingService = new CsvReadingService(tapsCsv.toString(), TapReaderType.OPENCSV);
+        fastReadingService = new CsvReadingService(tapsCsv.toString(), TapReaderType.FAST);
+        parallelReadingService = new CsvReadingService(tapsCsv.toString(), TapReaderType.PARALLEL);
+        tapsColumnar = Files.createTempFile("taps-benchmark", ".tmc");
+        ColumnarTapFile.write(tapsColumnar, generateTaps());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(tapsCsv);
+        Files.deleteIfExists(tapsColumnar);
+    }
+
+    @Benchmark
+    public List<TapModel> readTapsCsv() throws IOException {
+        return csvReadingService.readTapsCsv();
+    }
+
+    @Benchmark
+    public long streamTapsCsv(Blackhole blackhole) throws IOException {
+        return csvReadingService.readTapsCsv(blackhole::consume);
+    }
+
+    @Benchmark
+    public List<TapModel> fastReadTapsCsv() throws IOException {
+        return fastReadingService.readTapsCsv();
+    }
+
+    @Benchmark
+    public long fastStreamTapsCsv(Blackhole blackhole) throws IOException {
+        return fastReadingService.readTapsCsv(blackhole::consume);
+    }
+
+    @Benchmark
+    public List<TapModel> parallelReadTapsCsv() throws IOException {
+        return parallelReadingService.readTapsCsv();
+    }
+
+    @Benchmark
+    public long columnarStreamTaps(Blackhole blackhole) throws IOException {
+        return ColumnarTapFile.open(tapsColumnar).forEach(blackhole::consume);
+    }
+}
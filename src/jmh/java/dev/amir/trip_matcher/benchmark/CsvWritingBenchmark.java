@@ -0,0 +1,55 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.service.CsvWritingService;
+import dev.amir.trip_matcher.writer.service.TripWriterType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CsvWritingBenchmark extends SyntheticTapState {
+
+    @Param({"OPENCSV", "FAST"})
+    public TripWriterType writerType;
+
+    private Path tripsCsv;
+    private List<TripModel> trips;
+    private CsvWritingService csvWritingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tripsCsv = Files.createTempFile("trips-benchmark", ".csv");
+        trips = new TapProcessor(loadFares()).tripMaker(generateTaps());
+        csvWritingService = new CsvWritingService(tripsCsv.toString(), writerType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(tripsCsv);
+    }
+
+    @Benchmark
+    public void writeTripsToCsv() throws IOException {
+        csvWritingService.writeTripsToCsv(trips);
+    }
+}
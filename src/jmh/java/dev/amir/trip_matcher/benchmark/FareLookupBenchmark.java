@@ -0,0 +1,71 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.datastore.FareTable;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FareLookupBenchmark {
+
+    // Completed, cancelled, incomplete and missing routes
+    private static final String[][] ROUTES = {
+            {"Stop1", "Stop2"}, {"Stop3", "Stop1"}, {"Stop2", "Stop2"}, {"Stop1", "UNKNOWN"}, {"Stop1", "StopX"}
+    };
+
+    private TripFareManager tripFareManager;
+    private FareTable fareTable;
+    private int[][] routeCodes;
+    private int route;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tripFareManager = SyntheticTapState.loadFares();
+        fareTable = tripFareManager.getFareTable();
+        routeCodes = new int[ROUTES.length][];
+        for (int i = 0; i < ROUTES.length; i++) {
+            routeCodes[i] = new int[]{IdDictionary.STOPS.encode(ROUTES[i][0]), IdDictionary.STOPS.encode(ROUTES[i][1])};
+        }
+    }
+
+    @Benchmark
+    public BigDecimal getPrice() {
+        String[] next = ROUTES[route++ % ROUTES.length];
+        return tripFareManager.getPrice(next[0], next[1]);
+    }
+
+    @Benchmark
+    public BigDecimal getPriceByStopCode() {
+        int[] next = routeCodes[route++ % routeCodes.length];
+        return tripFareManager.getPrice(next[0], next[1]);
+    }
+
+    @Benchmark
+    public long getPriceInCents() {
+        int[] next = routeCodes[route++ % routeCodes.length];
+        return fareTable.getPriceInCents(next[0], next[1]);
+    }
+
+    @Benchmark
+    public BigDecimal getPriceMiss() {
+        return tripFareManager.getPrice("Stop1", "StopX");
+    }
+}
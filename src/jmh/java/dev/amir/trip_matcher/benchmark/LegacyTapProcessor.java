@@ -0,0 +1,60 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.writer.model.TripModel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Copy of the original double groupingBy TapProcessor, kept only as the baseline for {@link TapGroupingBenchmark}.
+ */
+class LegacyTapProcessor {
+
+    private static final String UNKNOWN = "UNKNOWN";
+    private final BackToBackTapRuleEngine ruleEngine;
+
+    LegacyTapProcessor(TripFareManager tripFareManager) {
+        this.ruleEngine = new BackToBackTapRuleEngine(tripFareManager);
+    }
+
+    List<TripModel> tripMaker(List<TapModel> taps) {
+        return taps.parallelStream()
+                .collect(Collectors.groupingBy(
+                        tap -> new GroupKey(tap.getCompanyId(), tap.getBusId(), tap.getPan()),
+                        Collectors.toList()))
+                .values().stream()
+                .flatMap(group -> group.parallelStream().sorted(Comparator.comparingLong(TapModel::getEpochSecond)))
+                .collect(Collectors.groupingBy(tap -> new GroupKey(tap.getCompanyId(), tap.getBusId(), tap.getPan())))
+                .values().stream()
+                .flatMap(group -> {
+                    List<TripModel> trips = new ArrayList<>();
+                    TapModel previousTap = addHeadAndTail(group);
+
+                    for (TapModel currentTap : group) {
+                        ruleEngine.processBackToBackTaps(previousTap, currentTap, trips);
+                        previousTap = currentTap;
+                    }
+                    return trips.stream();
+                }).toList();
+    }
+
+    private static TapModel addHeadAndTail(List<TapModel> group) {
+        group.add(new TapModel(0, null, "GROUP_TAIL", UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN));
+        TapModel previousTap = new TapModel(0, null, "GROUP_HEAD", UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+        group.add(0, previousTap);
+        return previousTap;
+    }
+
+    private record GroupKey(String companyId, String busId, String pan) {
+        @Override
+        public int hashCode() {
+            return Objects.hash(companyId, busId, pan);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.procesor.service.StreamingTapProcessor;
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.reader.service.CsvReadingService;
+import dev.amir.trip_matcher.writer.service.CsvWritingService;
+import dev.amir.trip_matcher.writer.service.TripWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * taps.csv to trips.csv end to end, the way TripMatcherApplication runs each processing mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PipelineBenchmark extends SyntheticTapState {
+
+    private Path tapsCsv;
+    private Path tripsCsv;
+    private TripFareManager tripFareManager;
+    private CsvReadingService csvReadingService;
+    private CsvWritingService csvWritingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tapsCsv = Files.createTempFile("taps-benchmark", ".csv");
+        tripsCsv = Files.createTempFile("trips-benchmark", ".csv");
+        SyntheticTapGenerator.writeCsv(generateTaps(), tapsCsv);
+
+        tripFareManager = loadFares();
+        csvReadingService = new CsvReadingService(tapsCsv.toString());
+        csvWritingService = new CsvWritingService(tripsCsv.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(tapsCsv);
+        Files.deleteIfExists(tripsCsv);
+    }
+
+    @Benchmark
+    public void batch() throws IOException {
+        csvWritingService.writeTripsToCsv(new TapProcessor(tripFareManager).tripMaker(csvReadingService.readTapsCsv()));
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        StreamingTapProcessor tapProcessor = new StreamingTapProcessor(tripFareManager);
+        try (TripWriter writer = csvWritingService.openTripWriter()) {
+            csvReadingService.readTapsCsv(tap -> tapProcessor.accept(tap, writer::write));
+            tapProcessor.finish(writer::write);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_HEAD_TAP;
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_TAIL_TAP;
+
+/**
+ * Throughput of a single back-to-back tap pair, cycling over every pair the processor would feed the engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RuleEngineBenchmark extends SyntheticTapState {
+
+    private TapModel[] previousTaps;
+    private TapModel[] currentTaps;
+    private BackToBackTapRuleEngine ruleEngine;
+    private final TripBuffer trips = new TripBuffer();
+    private int pair;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, List<TapModel>> groups = new LinkedHashMap<>();
+        for (TapModel tap : generateTaps()) {
+            groups.computeIfAbsent(tap.getCompanyId() + tap.getBusId() + tap.getPan(), key -> new ArrayList<>()).add(tap);
+        }
+
+        List<TapModel> previous = new ArrayList<>();
+        List<TapModel> current = new ArrayList<>();
+        for (List<TapModel> group : groups.values()) {
+            group.sort(Comparator.comparingLong(TapModel::getEpochSecond));
+            TapModel previousTap = GROUP_HEAD_TAP;
+            for (TapModel currentTap : group) {
+                previous.add(previousTap);
+                current.add(currentTap);
+                previousTap = currentTap;
+            }
+            previous.add(previousTap);
+            current.add(GROUP_TAIL_TAP);
+        }
+
+        previousTaps = previous.toArray(TapModel[]::new);
+        currentTaps = current.toArray(TapModel[]::new);
+        ruleEngine = new BackToBackTapRuleEngine(loadFares());
+    }
+
+    @Benchmark
+    public int processBackToBackTaps() {
+        if (++pair == previousTaps.length) {
+            pair = 0;
+            trips.clear();
+        }
+        ruleEngine.processBackToBackTaps(previousTaps[pair], currentTaps[pair], trips);
+        return trips.size();
+    }
+}
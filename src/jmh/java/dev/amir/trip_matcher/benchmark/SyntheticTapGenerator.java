@@ -0,0 +1,94 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Generates time ordered taps for benchmarks. Every PAN alternates ON and OFF over the default fare stops on a
+ * fixed bus; PANs are interleaved so consecutive taps mostly belong to different groups.
+ * <p>
+ * A share of the taps ({@code dirtyRatio}) is made dirty the way real exports are: a missing tap-off, an
+ * immediate double tap, an unknown stop without a fare, or a timestamp that arrives out of order.
+ */
+public class SyntheticTapGenerator {
+
+    private static final String[] STOPS = {"Stop1", "Stop2", "Stop3"};
+    private static final String UNKNOWN_STOP = "StopX";
+    private static final String[] COMPANIES = {"Company1", "Company2", "Company3", "Company4"};
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+    private static final DateTimeFormatter CSV_DATE_TIME = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private final int panCount;
+    private final int tapsPerPan;
+    private final String[] buses;
+    private final double dirtyRatio;
+    private final long seed;
+
+    public SyntheticTapGenerator(int panCount, int tapsPerPan, int busCount, double dirtyRatio, long seed) {
+        this.panCount = panCount;
+        this.tapsPerPan = tapsPerPan;
+        this.buses = IntStream.rangeClosed(1, busCount).mapToObj(bus -> "Bus" + bus).toArray(String[]::new);
+        this.dirtyRatio = dirtyRatio;
+        this.seed = seed;
+    }
+
+    public List<TapModel> generate() {
+        Random random = new Random(seed);
+        String[] pans = IntStream.range(0, panCount).mapToObj(pan -> "PAN" + pan).toArray(String[]::new);
+        boolean[] onBoard = new boolean[panCount];
+        List<TapModel> taps = new ArrayList<>(panCount * tapsPerPan);
+
+        long second = 0;
+        for (int round = 0; round < tapsPerPan; round++) {
+            for (int pan = 0; pan < panCount; pan++) {
+                String bus = buses[pan % buses.length];
+                String company = COMPANIES[pan % buses.length % COMPANIES.length];
+                String stop = STOPS[random.nextInt(STOPS.length)];
+                String tapType = onBoard[pan] ? "OFF" : "ON";
+                long tapSecond = second++;
+
+                if (random.nextDouble() < dirtyRatio) {
+                    switch (random.nextInt(4)) {
+                        // Missing tap-off: the passenger taps ON again
+                        case 0 -> tapType = "ON";
+                        // Immediate double tap at the same stop
+                        case 1 -> taps.add(new TapModel(taps.size() + 1, START.plusSeconds(tapSecond), tapType, stop, company, bus, pans[pan]));
+                        // Stop without a fare rule
+                        case 2 -> stop = UNKNOWN_STOP;
+                        // Late reader upload
+                        default -> tapSecond = Math.max(0, tapSecond - random.nextInt(300));
+                    }
+                }
+
+                onBoard[pan] = "ON".equals(tapType);
+                taps.add(new TapModel(taps.size() + 1, START.plusSeconds(tapSecond), tapType, stop, company, bus, pans[pan]));
+            }
+        }
+        return taps;
+    }
+
+    /**
+     * Writes the taps in the taps.csv input layout.
+     */
+    public static void writeCsv(List<TapModel> taps, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN");
+            writer.newLine();
+            for (TapModel tap : taps) {
+                writer.write(tap.getId() + ", " + CSV_DATE_TIME.format(tap.getDateTimeUTC()) + ", " + tap.getTapType() + ", "
+                             + tap.getStopId() + ", " + tap.getCompanyId() + ", " + tap.getBusId() + ", " + tap.getPan());
+                writer.newLine();
+            }
+        }
+    }
+}
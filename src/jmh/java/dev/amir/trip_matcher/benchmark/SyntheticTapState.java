@@ -0,0 +1,39 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Shared generator parameters; override any of them from the command line, e.g. {@code -p panCount=100000}.
+ */
+@State(Scope.Benchmark)
+public abstract class SyntheticTapState {
+
+    @Param("10000")
+    protected int panCount;
+
+    @Param("20")
+    protected int tapsPerPan;
+
+    @Param("32")
+    protected int busCount;
+
+    @Param("0.05")
+    protected double dirtyRatio;
+
+    protected List<TapModel> generateTaps() {
+        return new SyntheticTapGenerator(panCount, tapsPerPan, busCount, dirtyRatio, 42).generate();
+    }
+
+    protected static TripFareManager loadFares() {
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        return tripFareManager;
+    }
+}
@@ -0,0 +1,64 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Original double groupingBy TapProcessor against the single pass version, on 10M taps by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TapGroupingBenchmark {
+
+    @Param("100000")
+    private int panCount;
+
+    @Param("100")
+    private int tapsPerPan;
+
+    private List<TapModel> taps;
+    private LegacyTapProcessor legacyTapProcessor;
+    private TapProcessor tapProcessor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+
+        taps = new SyntheticTapGenerator(panCount, tapsPerPan, 32, 0, 42).generate();
+        legacyTapProcessor = new LegacyTapProcessor(tripFareManager);
+        tapProcessor = new TapProcessor(tripFareManager);
+    }
+
+    @Benchmark
+    public List<TripModel> legacyDoubleGroupingBy() {
+        return legacyTapProcessor.tripMaker(taps);
+    }
+
+    @Benchmark
+    public List<TripModel> singlePassGrouping() {
+        return tapProcessor.tripMaker(taps);
+    }
+}
@@ -0,0 +1,76 @@
+package dev.amir.trip_matcher.benchmark;
+
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.procesor.service.SortedTapProcessor;
+import dev.amir.trip_matcher.procesor.service.StreamingTapProcessor;
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TapProcessorBenchmark extends SyntheticTapState {
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private List<TapModel> taps;
+    private List<TapModel> sortedTaps;
+    private TripFareManager tripFareManager;
+    private TapProcessor tapProcessor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        taps = generateTaps();
+        sortedTaps = taps.stream()
+                .sorted(Comparator.comparing(TapModel::getCompanyId)
+                        .thenComparing(TapModel::getBusId)
+                        .thenComparing(TapModel::getPan)
+                        .thenComparingLong(TapModel::getEpochSecond))
+                .toList();
+        tripFareManager = loadFares();
+        tapProcessor = new TapProcessor(tripFareManager, TapTraceSampler.DISABLED, workers);
+    }
+
+    @Benchmark
+    public List<TripModel> tripMaker() {
+        return tapProcessor.tripMaker(taps);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) {
+        StreamingTapProcessor streamingTapProcessor = new StreamingTapProcessor(tripFareManager);
+        for (TapModel tap : taps) {
+            streamingTapProcessor.accept(tap, blackhole::consume);
+        }
+        streamingTapProcessor.finish(blackhole::consume);
+    }
+
+    @Benchmark
+    public void sorted(Blackhole blackhole) {
+        SortedTapProcessor sortedTapProcessor = new SortedTapProcessor(tripFareManager);
+        for (TapModel tap : sortedTaps) {
+            sortedTapProcessor.accept(tap, blackhole::consume);
+        }
+        sortedTapProcessor.finish(blackhole::consume);
+    }
+}
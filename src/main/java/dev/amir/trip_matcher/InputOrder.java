@@ -0,0 +1,11 @@
+package dev.amir.trip_matcher;
+
+public enum InputOrder {
+    // No assumption: taps are grouped by companyId/busId/pan and sorted by time in memory
+    UNSORTED,
+    // Taps are sorted by companyId, busId, pan and time: one pass without grouping or sorting; input that breaks
+    // the order fails the run
+    SORTED,
+    // Check the order by parsing the input first, then match it as SORTED or UNSORTED
+    DETECT
+}
@@ -0,0 +1,20 @@
+package dev.amir.trip_matcher;
+
+public enum ProcessingMode {
+    // Read all taps, group and sort them in memory, then write all trips
+    BATCH,
+    // Read taps row by row and write each trip as soon as it closes; input must be time ordered per group
+    STREAMING,
+    // Streaming over one slice of a day (e.g. an hourly file): trips still open at the end are checkpointed and
+    // resumed by the next run instead of being closed, unless they have been inactive for too long
+    INCREMENTAL,
+    // Follow the input file as it grows and emit trips until stopped; taps may arrive out of order by up to the
+    // allowed lateness
+    CONTINUOUS,
+    // Batch over several input files with reading, matching and writing overlapped on virtual threads; trips are
+    // written to one file per company
+    PIPELINED,
+    // Batch for inputs larger than the heap: taps are sorted in runs spilled to disk within a memory budget, then
+    // merged into a single pass in companyId/busId/pan order
+    EXTERNAL
+}
@@ -1,23 +1,57 @@
 package dev.amir.trip_matcher;
 
+import dev.amir.trip_matcher.datastore.CsvFareLoader;
 import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.FareFileWatcher;
+import dev.amir.trip_matcher.datastore.IdDictionary;
 import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.procesor.service.EventTimeTapProcessor;
+import dev.amir.trip_matcher.procesor.service.ExternalTapSorter;
+import dev.amir.trip_matcher.procesor.service.OpenTripCheckpoint;
+import dev.amir.trip_matcher.procesor.service.OpenTripStore;
+import dev.amir.trip_matcher.procesor.service.PipelineProperties;
+import dev.amir.trip_matcher.procesor.service.PipelinedTapProcessor;
+import dev.amir.trip_matcher.procesor.service.RunManifest;
+import dev.amir.trip_matcher.procesor.service.SortedTapProcessor;
+import dev.amir.trip_matcher.procesor.service.StreamingTapProcessor;
 import dev.amir.trip_matcher.procesor.service.TapProcessor;
 import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.parser.ColumnarTapFile;
+import dev.amir.trip_matcher.reader.parser.TapFileTailer;
 import dev.amir.trip_matcher.reader.service.CsvReadingService;
-import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.ruleengine.service.CompanyRuleSets;
+import dev.amir.trip_matcher.ruleengine.service.RuleSetProperties;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
 import dev.amir.trip_matcher.writer.service.CsvWritingService;
+import dev.amir.trip_matcher.writer.service.TripWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.util.unit.DataSize;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
+@EnableConfigurationProperties({PipelineProperties.class, RuleSetProperties.class})
+@ImportRuntimeHints(TripMatcherRuntimeHints.class)
 public class TripMatcherApplication implements CommandLineRunner {
 
     private static final Logger log = LoggerFactory.getLogger(TripMatcherApplication.class);
@@ -28,6 +62,88 @@ public class TripMatcherApplication implements CommandLineRunner {
     @Autowired
     private CsvWritingService csvWritingService;
 
+    @Autowired
+    private PipelineProperties pipelineProperties;
+
+    @Autowired
+    private ProcessingMetrics metrics;
+
+    @Autowired
+    private RuleSetProperties ruleSetProperties;
+
+    // Compiled once per run from ruleSetProperties
+    private CompanyRuleSets ruleSets;
+
+    @Value("${processing.mode:batch}")
+    private ProcessingMode processingMode;
+
+    @Value("${processing.input-order:unsorted}")
+    private InputOrder inputOrder;
+
+    // Threads processing the groups of a batch, 0 = available processors
+    @Value("${processing.workers:0}")
+    private int workers;
+
+    @Value("${processing.incremental.checkpoint-path:open-trips.checkpoint}")
+    private String checkpointPath;
+
+    @Value("${processing.incremental.inactivity-timeout:3h}")
+    private Duration inactivityTimeout;
+
+    @Value("${processing.open-trips.expected-count:1024}")
+    private int expectedOpenTrips;
+
+    @Value("${processing.open-trips.directory:}")
+    private String openTripsDirectory;
+
+    @Value("${processing.external.memory-budget:256MB}")
+    private DataSize memoryBudget;
+
+    @Value("${processing.external.spill-directory:${java.io.tmpdir}}")
+    private String spillDirectory;
+
+    @Value("${csv.input-file.path}")
+    private String inputFilePath;
+
+    @Value("${csv.input-file.columnar-path:}")
+    private String columnarFilePath;
+
+    @Value("${csv.output-file.path}")
+    private String outputFilePath;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${processing.continuous.allowed-lateness:5m}")
+    private Duration allowedLateness;
+
+    @Value("${processing.continuous.idle-timeout:2s}")
+    private Duration idleTimeout;
+
+    @Value("${processing.continuous.poll-interval:100ms}")
+    private Duration pollInterval;
+
+    @Value("${processing.continuous.max-buffered-taps:1000000}")
+    private int maxBufferedTaps;
+
+    @Value("${processing.continuous.inactivity-timeout:3h}")
+    private Duration continuousInactivityTimeout;
+
+    @Value("${fares.file.path:}")
+    private String faresFilePath;
+
+    @Value("${fares.file.watch:false}")
+    private boolean watchFaresFile;
+
+    @Value("${trace.sample-one-in:0}")
+    private int traceSampleOneIn;
+
+    @Value("${trace.pans:}")
+    private List<String> tracePans;
+
+    @Value("${metrics.output-file.path:}")
+    private String metricsFilePath;
+
     public static void main(String[] args) {
         SpringApplication.run(TripMatcherApplication.class, args);
     }
@@ -42,23 +158,292 @@ public class TripMatcherApplication implements CommandLineRunner {
                 ===================================================================
 
                 """);
+        long startupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        log.info("Ready to process {} ms after the JVM started", startupMillis);
+        metrics.bindTimeGauge("startup", "Time from JVM start to processing", startupMillis, TimeUnit.MILLISECONDS, Long::doubleValue);
+
+        ruleSets = compileRuleSets();
+        TripFareManager tripFareManager = new TripFareManager();
+        FareFileWatcher fareFileWatcher = loadFares(tripFareManager);
+        bindFareMetrics(tripFareManager, fareFileWatcher);
+
+        try {
+            switch (processingMode) {
+                case BATCH -> runBatch(tripFareManager);
+                case STREAMING -> runStreaming(tripFareManager);
+                case INCREMENTAL -> runIncremental(tripFareManager);
+                case CONTINUOUS -> runContinuous(tripFareManager);
+                case PIPELINED -> runPipelined(tripFareManager);
+                case EXTERNAL -> runExternal(tripFareManager);
+            }
+        } finally {
+            closeQuietly(fareFileWatcher);
+            writeMetrics();
+        }
+    }
+
+
+    private void bindFareMetrics(TripFareManager tripFareManager, FareFileWatcher fareFileWatcher) {
+        metrics.bindGauge("fare.version", "Version of the fares in use", tripFareManager, manager -> manager.getFareTable().getVersion());
+        if (fareFileWatcher != null) {
+            metrics.bindCounter("fare.reloads", "Fares file reloads", fareFileWatcher, FareFileWatcher::getReloadCount);
+            metrics.bindCounter("fare.reload.failures", "Fares file reloads that failed", fareFileWatcher, FareFileWatcher::getFailedReloadCount);
+            metrics.bindTimeGauge("fare.reload.last", "Time taken by the last fares reload", fareFileWatcher,
+                    TimeUnit.NANOSECONDS, FareFileWatcher::getLastReloadNanos);
+        }
+    }
+
+
+    private void writeMetrics() {
+        if (metricsFilePath.isBlank()) {
+            return;
+        }
+        try {
+            metrics.writePrometheus(Path.of(metricsFilePath));
+        } catch (IOException e) {
+            log.warn("Error writing metrics to {}", metricsFilePath, e);
+        }
+    }
+
+
+    private void runIncremental(TripFareManager tripFareManager) {
+        StreamingTapProcessor tapProcessor = streamingTapProcessor(tripFareManager);
+        // Also within the file, so that the trips do not depend on where the input is split into files
+        tapProcessor.expireInactive(inactivityTimeout);
+        Path checkpoint = Path.of(checkpointPath);
+
+        try {
+            long tapCount;
+            long tripCount;
+            LocalDateTime latestTapTime;
+            try (TripWriter writer = csvWritingService.openTripWriter()) {
+                OpenTripCheckpoint previousRun = OpenTripCheckpoint.read(checkpoint);
+                tapProcessor.restore(previousRun.openTaps(), previousRun.latestTapTime());
+
+                tapCount = csvReadingService.readTapsCsv(tap -> tapProcessor.accept(tap, writer));
+
+                // Inactivity is measured in tap time, so replaying old files gives the same trips
+                latestTapTime = tapProcessor.getLatestTapTime();
+                if (latestTapTime != null) {
+                    tapProcessor.expire(latestTapTime.minus(inactivityTimeout), writer::write);
+                }
+                tripCount = writer.getRowCount();
+            }
+
+            // Only once the closed writer has put every trip on disk may the checkpoint move past their taps
+            OpenTripCheckpoint.write(checkpoint, latestTapTime, tapProcessor.openTaps());
+            log.info("Processed {} taps into {} trips ({} closed after {} of inactivity), {} trips carried over",
+                    tapCount, tripCount, tapProcessor.getExpiredTripCount(), inactivityTimeout, tapProcessor.openTripCount());
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error processing taps incrementally, checkpoint {} left unchanged", checkpoint, e);
+        }
+    }
+
+
+    /**
+     * Follows the input file until the JVM is asked to stop, then closes the trips still open.
+     */
+    private void runContinuous(TripFareManager tripFareManager) {
+        EventTimeTapProcessor tapProcessor = new EventTimeTapProcessor(
+                streamingTapProcessor(tripFareManager), allowedLateness, idleTimeout, maxBufferedTaps, continuousInactivityTimeout);
+        // The tailer parses on this thread whatever the configured reader, so PANs can always be evicted
+        tapProcessor.evictClosedPans();
+        metrics.bindGauge("continuous.buffered.taps", "Taps held back to be put in order", tapProcessor, EventTimeTapProcessor::bufferedTapCount);
+        metrics.bindCounter("continuous.late.taps", "Taps dropped for arriving after the watermark", tapProcessor, EventTimeTapProcessor::getLateTapCount);
+        metrics.bindCounter("continuous.expired.trips", "Open trips closed by the inactivity timeout", tapProcessor,
+                EventTimeTapProcessor::getExpiredTripCount);
+        metrics.bindCounter("continuous.forced.releases", "Taps released early because the buffer was full", tapProcessor,
+                EventTimeTapProcessor::getForcedReleaseCount);
+        CountDownLatch stopRequested = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopRequested.countDown();
+            awaitQuietly(stopped);
+        }, "continuous-shutdown"));
+
+        log.info("Following {} (allowed lateness {}, idle timeout {})", inputFilePath, allowedLateness, idleTimeout);
+        try (TapFileTailer tailer = new TapFileTailer(Path.of(inputFilePath));
+             TripWriter writer = csvWritingService.openTripWriter()) {
+            long tapCount = 0;
+            do {
+                tapCount += tailer.poll(tap -> tapProcessor.accept(tap, writer::write));
+                tapProcessor.tick(writer::write);
+                writer.flush();
+            } while (!stopRequested.await(pollInterval.toMillis(), TimeUnit.MILLISECONDS));
+
+            tapCount += tailer.poll(tap -> tapProcessor.accept(tap, writer::write));
+            tapProcessor.finish(writer::write);
+            log.info("Processed {} taps into {} trips, {} late taps dropped", tapCount, writer.getRowCount(), tapProcessor.getLateTapCount());
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error following taps from CSV file", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+
+    private void runExternal(TripFareManager tripFareManager) {
+        SortedTapProcessor tapProcessor = new SortedTapProcessor(tripFareManager, ruleSets, traceSampler(), metrics);
+
+        try (ExternalTapSorter sorter = new ExternalTapSorter(Path.of(spillDirectory), memoryBudget.toBytes());
+             TripWriter writer = csvWritingService.openTripWriter()) {
+            if (!csvReadingService.readsAhead()) {
+                sorter.evictPans();
+            }
+            metrics.bindGauge("pan.dictionary.size", "PANs held in the dictionary", IdDictionary.PANS, IdDictionary::size);
+            metrics.bindGauge("external.runs", "Sorted runs spilled to disk", sorter, ExternalTapSorter::getRunCount);
+            metrics.bindCounter("external.spill.bytes", "Bytes spilled to disk in sorted runs", sorter, ExternalTapSorter::getSpillBytes);
+            metrics.bindTimeGauge("external.merge", "Time taken merging the sorted runs", sorter, TimeUnit.NANOSECONDS, ExternalTapSorter::getMergeNanos);
+            csvReadingService.readTapsCsv(sorter::accept);
+            long tapCount = sorter.finish(tap -> tapProcessor.accept(tap, writer));
+            tapProcessor.finish(writer);
+            log.info("Matched {} taps into {} trips, {} runs spilled to {} ({} bytes), merged in {} ms", tapCount,
+                    writer.getRowCount(), sorter.getRunCount(), spillDirectory, sorter.getSpillBytes(), sorter.getMergeNanos() / 1_000_000);
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error matching taps with an external sort", e);
+        }
+    }
+
+
+    private void runPipelined(TripFareManager tripFareManager) {
+        PipelinedTapProcessor tapProcessor = new PipelinedTapProcessor(tripFareManager, ruleSets, traceSampler(), metrics,
+                csvReadingService, csvWritingService, pipelineProperties, virtualThreads);
+        Instant startedAt = Instant.now();
+        long fareVersion = tripFareManager.getFareTable().getVersion();
+        List<Path> inputFiles = List.of();
+
+        try {
+            inputFiles = PipelinedTapProcessor.expandInputFiles(pipelineProperties.getInputFiles().isEmpty()
+                    ? List.of(Path.of(inputFilePath)) : pipelineProperties.getInputFiles());
+            PipelinedTapProcessor.Summary summary = tapProcessor.run(inputFiles, Path.of(outputFilePath));
+            log.info("Matched {} taps from {} files into {} trips in {} company files",
+                    summary.tapCount(), inputFiles.size(), summary.tripCount(), summary.outputFiles().size());
+            writeManifest(RunManifest.succeeded(summary, startedAt, Instant.now(), fareVersion));
+        } catch (IOException e) {
+            log.error("Error matching taps in pipelined mode", e);
+            writeManifest(RunManifest.failed(inputFiles, startedAt, Instant.now(), fareVersion, e));
+        }
+    }
+
 
+    private void writeManifest(RunManifest manifest) {
+        if (pipelineProperties.getManifestFile() == null) {
+            return;
+        }
+        try {
+            manifest.write(pipelineProperties.getManifestFile());
+        } catch (IOException e) {
+            log.warn("Error writing run manifest to {}", pipelineProperties.getManifestFile(), e);
+        }
+    }
+
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Loads the fares file when one is configured, falling back to the default fares. A file that cannot be read or
+     * compiled is handled as by a reload: the error is logged, the fares in place (the defaults) are kept and the
+     * file is still watched, so that fixing it publishes its fares.
+     *
+     * @return the watcher republishing the fares file on change, or null when it is not watched
+     */
+    private FareFileWatcher loadFares(TripFareManager tripFareManager) {
+        if (faresFilePath.isBlank()) {
+            DefaultTripFareLoader.loadDatastore(tripFareManager);
+            return null;
+        }
+
+        Path path = Path.of(faresFilePath);
+        try {
+            CsvFareLoader.loadDatastore(path, tripFareManager);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error loading fares from {}, using the default fares", path, e);
+            DefaultTripFareLoader.loadDatastore(tripFareManager);
+        }
+        try {
+            return watchFaresFile ? new FareFileWatcher(path, tripFareManager).start() : null;
+        } catch (IOException e) {
+            log.error("Error watching {} for fare changes", path, e);
+            return null;
+        }
+    }
+
+
+    private StreamingTapProcessor streamingTapProcessor(TripFareManager tripFareManager) {
+        OpenTripStore openTrips = new OpenTripStore(expectedOpenTrips, openTripsDirectory.isBlank() ? null : Path.of(openTripsDirectory));
+        metrics.bindGauge("open.trips", "Trips opened by a tap on and not closed yet", openTrips, OpenTripStore::size);
+        metrics.bindGauge("open.trips.offheap.bytes", "Memory held outside the heap by the open trips", openTrips,
+                OpenTripStore::offHeapBytes);
+        metrics.bindGauge("pan.dictionary.size", "PANs held in the dictionary", IdDictionary.PANS, IdDictionary::size);
+        StreamingTapProcessor tapProcessor = new StreamingTapProcessor(tripFareManager, ruleSets, traceSampler(), metrics, openTrips);
+        if (!csvReadingService.readsAhead()) {
+            tapProcessor.evictClosedPans(List.of());
+        }
+        return tapProcessor;
+    }
+
+
+    private CompanyRuleSets compileRuleSets() {
+        CompanyRuleSets compiled = CompanyRuleSets.compile(ruleSetProperties);
+        if (compiled.companyCount() > 0) {
+            log.info("Companies with their own rules: {}", ruleSetProperties.getCompanies().keySet());
+        }
+        return compiled;
+    }
+
+
+    private TapTraceSampler traceSampler() {
+        TapTraceSampler traceSampler = new TapTraceSampler(traceSampleOneIn, tracePans);
+        if (traceSampler.isEnabled()) {
+            log.info("Tracing one group in {} and PANs {} to the {} logger", traceSampleOneIn, tracePans, TapTraceSampler.LOGGER_NAME);
+        }
+        return traceSampler;
+    }
+
+
+    private static void closeQuietly(FareFileWatcher fareFileWatcher) {
+        if (fareFileWatcher == null) {
+            return;
+        }
+        try {
+            fareFileWatcher.close();
+        } catch (IOException e) {
+            log.warn("Error closing the fares file watcher", e);
+        }
+    }
+
+
+    private void runBatch(TripFareManager tripFareManager) {
+        if (!columnarFilePath.isBlank()) {
+            runColumnar(tripFareManager);
+            return;
+        }
+        if (inputOrder == InputOrder.SORTED || (inputOrder == InputOrder.DETECT && isSorted())) {
+            runSorted(tripFareManager);
+            return;
+        }
 
         List<TapModel> taps = null;
         try {
             taps = csvReadingService.readTapsCsv();
-            taps.forEach(e -> log.info(e.toString()));
         } catch (IOException e) {
             log.error("Error reading taps from CSV file", e);
         }
 
         if (taps != null) {
-            TripFareManager tripFareManager = new TripFareManager();
-            DefaultTripFareLoader.loadDatastore(tripFareManager);
-
-            TapProcessor tapProcessor = new TapProcessor(tripFareManager);
-            List<TripModel> trips = tapProcessor.tripMaker(taps);
-            trips.forEach(e -> log.info(e.toString()));
+            TapProcessor tapProcessor = new TapProcessor(tripFareManager, ruleSets, traceSampler(),
+                    workers > 0 ? workers : Runtime.getRuntime().availableProcessors(), metrics);
+            TripBuffer trips = tapProcessor.match(taps);
+            log.info("Matched {} taps into {} trips", taps.size(), trips.size());
 
             try {
                 csvWritingService.writeTripsToCsv(trips);
@@ -67,4 +452,87 @@ public class TripMatcherApplication implements CommandLineRunner {
             }
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Checks the order of the input without matching it, so that unsorted input is only matched once, by the
+     * regular batch.
+     */
+    private boolean isSorted() {
+        try {
+            SortedTapProcessor.verifyOrder(Path.of(inputFilePath));
+            log.info("Input is sorted, matching it in one pass");
+            return true;
+        } catch (SortedTapProcessor.UnsortedInputException e) {
+            log.info("Input is not sorted, grouping and sorting it instead: {}", e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Error checking the order of {}, grouping and sorting it instead", inputFilePath, e);
+        }
+        return false;
+    }
+
+
+    /**
+     * Batch over input already sorted by companyId, busId, pan and dateTimeUTC, in one pass with O(1) memory.
+     */
+    private void runSorted(TripFareManager tripFareManager) {
+        SortedTapProcessor tapProcessor = new SortedTapProcessor(tripFareManager, ruleSets, traceSampler(), metrics);
+
+        try (TripWriter writer = csvWritingService.openTripWriter()) {
+            long tapCount = csvReadingService.readTapsCsv(tap -> tapProcessor.accept(tap, writer));
+            tapProcessor.finish(writer);
+            log.info("Matched {} sorted taps into {} trips", tapCount, writer.getRowCount());
+        } catch (SortedTapProcessor.UnsortedInputException e) {
+            log.error("Input declared sorted is not, no trips written", e);
+            deleteQuietly(Path.of(outputFilePath));
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error matching sorted taps", e);
+        }
+    }
+
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Error deleting {}", path, e);
+        }
+    }
+
+
+    /**
+     * Batch over the columnar copy of the input file, converting it first when the CSV file is newer.
+     */
+    private void runColumnar(TripFareManager tripFareManager) {
+        Path columnarFile = Path.of(columnarFilePath);
+        SortedTapProcessor tapProcessor = new SortedTapProcessor(tripFareManager, ruleSets, traceSampler(), metrics);
+
+        try {
+            if (!ColumnarTapFile.isUpToDate(columnarFile, Path.of(inputFilePath))) {
+                log.info("Converting {} to columnar file {}", inputFilePath, columnarFile);
+                ColumnarTapFile.write(columnarFile, csvReadingService.readTapsCsv());
+            }
+
+            try (TripWriter writer = csvWritingService.openTripWriter()) {
+                long tapCount = ColumnarTapFile.open(columnarFile).forEach(tap -> tapProcessor.accept(tap, writer));
+                tapProcessor.finish(writer);
+                log.info("Matched {} taps from {} into {} trips", tapCount, columnarFile, writer.getRowCount());
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error matching taps from columnar file {}", columnarFile, e);
+        }
+    }
+
+
+    private void runStreaming(TripFareManager tripFareManager) {
+        StreamingTapProcessor tapProcessor = streamingTapProcessor(tripFareManager);
+
+        try (TripWriter writer = csvWritingService.openTripWriter()) {
+            long tapCount = csvReadingService.readTapsCsv(tap -> tapProcessor.accept(tap, writer));
+            tapProcessor.finish(writer);
+            log.info("Streamed {} taps into {} trips", tapCount, writer.getRowCount());
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error streaming taps to trips", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package dev.amir.trip_matcher;
+
+import dev.amir.trip_matcher.procesor.service.RunManifest;
+import dev.amir.trip_matcher.reader.converter.EpochSecondConverter;
+import dev.amir.trip_matcher.reader.converter.IdDictionaryConverter;
+import dev.amir.trip_matcher.reader.converter.TapTypeConverter;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+import java.util.List;
+
+/**
+ * Reflection a native image cannot see on its own: opencsv binds taps to their annotated fields and creates the
+ * converters those annotations name, and Jackson reads and writes the run manifest.
+ */
+class TripMatcherRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        List<Class<?>> csvBindings = List.of(TapModel.class, EpochSecondConverter.class, TapTypeConverter.class,
+                IdDictionaryConverter.Stop.class, IdDictionaryConverter.Company.class, IdDictionaryConverter.Bus.class,
+                IdDictionaryConverter.Pan.class);
+        for (Class<?> type : csvBindings) {
+            hints.reflection().registerType(type, MemberCategory.DECLARED_FIELDS,
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.INVOKE_PUBLIC_METHODS);
+        }
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), RunManifest.class);
+        hints.resources().registerResourceBundle("opencsv");
+    }
+}
@@ -0,0 +1,54 @@
+package dev.amir.trip_matcher.datastore;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads price rules from a fares CSV file: {@code SourceStop, DestinationStop, Price}, with a header row.
+ */
+@Slf4j
+public class CsvFareLoader {
+
+    private CsvFareLoader() {
+    }
+
+    public static FareTable loadDatastore(Path path, TripFareManager tripFareManager) throws IOException {
+        return tripFareManager.replacePriceRules(readPriceRules(path));
+    }
+
+    public static Map<Route, BigDecimal> readPriceRules(Path path) throws IOException {
+        Map<Route, BigDecimal> priceRules = new HashMap<>();
+
+        try (CSVReader reader = new CSVReaderBuilder(new FileReader(path.toFile())).withSkipLines(1).build()) {
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                if (row.length == 1 && row[0].isBlank()) {
+                    continue;
+                }
+                if (row.length != 3) {
+                    throw new IOException("Malformed fare row in " + path + " at line " + reader.getLinesRead() + ": expected 3 columns");
+                }
+                try {
+                    Route route = new Route(IdDictionary.STOPS.encode(row[0].trim()), IdDictionary.STOPS.encode(row[1].trim()));
+                    priceRules.put(route, new BigDecimal(row[2].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed fare price in " + path + " at line " + reader.getLinesRead() + ": " + row[2], e);
+                }
+            }
+        } catch (CsvValidationException e) {
+            throw new IOException("Malformed fares file " + path, e);
+        }
+
+        log.info("Read {} price rules from {}", priceRules.size(), path);
+        return priceRules;
+    }
+}
@@ -0,0 +1,137 @@
+package dev.amir.trip_matcher.datastore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a fares CSV file and republishes the price rules of a {@link TripFareManager} whenever it changes.
+ * <p>
+ * The file is parsed and compiled on a background daemon thread; readers keep using the previous snapshot until
+ * the new one is published, and a file that fails to parse or to compile leaves the previous snapshot in place.
+ */
+@Slf4j
+public class FareFileWatcher implements Closeable {
+
+    // Editors often write a file in several steps: wait for the events to settle before reloading
+    private static final long SETTLE_TIME_MILLIS = 100;
+
+    private final Path path;
+    private final TripFareManager tripFareManager;
+    private final WatchService watchService;
+    private Thread thread;
+
+    private volatile long reloadCount;
+    private volatile long failedReloadCount;
+    private volatile long lastReloadNanos;
+
+    public FareFileWatcher(Path path, TripFareManager tripFareManager) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.tripFareManager = tripFareManager;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.path.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+
+    public FareFileWatcher start() {
+        // Created here rather than in the constructor, so the thread never sees a partly constructed watcher
+        thread = new Thread(this::watch, "fare-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for fare changes", path);
+        return this;
+    }
+
+
+    /**
+     * Reads the file and publishes its price rules.
+     *
+     * @return true if the new rules were published
+     */
+    public boolean reload() {
+        long startTime = System.nanoTime();
+        try {
+            Map<Route, BigDecimal> priceRules = CsvFareLoader.readPriceRules(path);
+            FareTable fareTable = tripFareManager.replacePriceRules(priceRules);
+            // Counted once published only: whoever sees the reload counted also sees the new fares
+            lastReloadNanos = System.nanoTime() - startTime;
+            reloadCount++;
+            log.info("Fares reloaded from {}: version {} in {} us", path, fareTable.getVersion(), lastReloadNanos / 1_000);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failedReloadCount++;
+            log.error("Error reloading fares from {}, keeping version {}", path, tripFareManager.getFareTable().getVersion(), e);
+            return false;
+        }
+    }
+
+
+    public long getReloadCount() {
+        return reloadCount;
+    }
+
+    public long getFailedReloadCount() {
+        return failedReloadCount;
+    }
+
+    public long getLastReloadNanos() {
+        return lastReloadNanos;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        if (thread != null) {
+            thread.interrupt();
+        }
+        watchService.close();
+    }
+
+
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = pollChanges(key);
+
+                // Collapse the burst of events a single save produces into one reload
+                WatchKey next;
+                while ((next = watchService.poll(SETTLE_TIME_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= pollChanges(next);
+                }
+
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+
+    private boolean pollChanges(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || path.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -0,0 +1,171 @@
+package dev.amir.trip_matcher.datastore;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable compiled form of the price rules, indexed by {@link IdDictionary#STOPS} codes.
+ * <p>
+ * Small networks use a dense (stops x stops + 1) matrix where the extra column holds the fare to an UNKNOWN
+ * destination; networks above {@link #MAX_DENSE_CELLS} cells fall back to a sparse open-addressing table.
+ * Cells hold an index into a pool of distinct fares, so lookups neither allocate nor lock and can run
+ * concurrently from any thread. A table never changes once built: new rules are published as a new table.
+ */
+public final class FareTable {
+
+    public static final long NO_FARE = Long.MIN_VALUE;
+    public static final int NO_FARE_INDEX = -1;
+    static final int MAX_DENSE_CELLS = 1 << 22;
+    private static final int MISSING = NO_FARE_INDEX;
+
+    private final long version;
+    private final int unknownStopCode;
+    private final int stopCount;
+    // Dense: [source * (stopCount + 1) + destination column] -> fare index
+    private final int[] matrix;
+    // Sparse: open addressing over packed (source, destination column) keys
+    private final long[] sparseKeys;
+    private final int[] sparseFares;
+
+    private final BigDecimal[] fares;
+    private final String[] fareTexts;
+    private final long[] fareCents;
+    private final long[] fareUnscaled;
+    private final int[] fareScales;
+
+    FareTable(Map<Route, BigDecimal> priceRules, int unknownStopCode, int stopCount, long version) {
+        this.version = version;
+        this.unknownStopCode = unknownStopCode;
+        this.stopCount = stopCount;
+
+        Map<BigDecimal, Integer> fareIndex = new HashMap<>();
+        Map<Long, Integer> cells = new HashMap<>();
+        for (Map.Entry<Route, BigDecimal> rule : priceRules.entrySet()) {
+            Integer fare = fareIndex.computeIfAbsent(rule.getValue(), price -> fareIndex.size());
+            cells.put(key(rule.getKey().sourceStop(), column(rule.getKey().destinationStop())), fare);
+        }
+
+        this.fares = new BigDecimal[fareIndex.size()];
+        this.fareTexts = new String[fareIndex.size()];
+        this.fareCents = new long[fareIndex.size()];
+        this.fareUnscaled = new long[fareIndex.size()];
+        this.fareScales = new int[fareIndex.size()];
+        fareIndex.forEach((price, index) -> {
+            fares[index] = price;
+            fareTexts[index] = String.valueOf(price);
+            fareCents[index] = price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            fareUnscaled[index] = price.unscaledValue().longValueExact();
+            fareScales[index] = price.scale();
+        });
+
+        if ((long) stopCount * (stopCount + 1) <= MAX_DENSE_CELLS) {
+            this.matrix = new int[stopCount * (stopCount + 1)];
+            Arrays.fill(matrix, MISSING);
+            cells.forEach((key, fare) -> matrix[(int) (key >>> 32) * (stopCount + 1) + (int) (long) key] = fare);
+            this.sparseKeys = null;
+            this.sparseFares = null;
+        } else {
+            int capacity = Integer.highestOneBit(Math.max(cells.size(), 1) * 4);
+            this.sparseKeys = new long[capacity];
+            this.sparseFares = new int[capacity];
+            Arrays.fill(sparseFares, MISSING);
+            cells.forEach((key, fare) -> {
+                int slot = slot(key);
+                while (sparseFares[slot] != MISSING) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                sparseKeys[slot] = key;
+                sparseFares[slot] = fare;
+            });
+            this.matrix = null;
+        }
+    }
+
+
+    public BigDecimal getPrice(int sourceStopCode, int destinationStopCode) {
+        int fare = fareIndex(sourceStopCode, destinationStopCode);
+        return fare == MISSING ? null : fares[fare];
+    }
+
+    /**
+     * @return the fare as BigDecimal.toString() renders it, or null when there is no rule for the route
+     */
+    public String getPriceText(int sourceStopCode, int destinationStopCode) {
+        int fare = fareIndex(sourceStopCode, destinationStopCode);
+        return fare == MISSING ? null : fareTexts[fare];
+    }
+
+    /**
+     * @return the fare in cents, or {@link #NO_FARE}
+     */
+    public long getPriceInCents(int sourceStopCode, int destinationStopCode) {
+        int fare = fareIndex(sourceStopCode, destinationStopCode);
+        return fare == MISSING ? NO_FARE : fareCents[fare];
+    }
+
+    /**
+     * @return the index of the route's fare among the distinct fares of this table, or {@link #NO_FARE_INDEX}
+     */
+    public int getFareIndex(int sourceStopCode, int destinationStopCode) {
+        return fareIndex(sourceStopCode, destinationStopCode);
+    }
+
+    /**
+     * @return the fare as the unscaled value of its BigDecimal, e.g. 730 for 7.30, with {@link #getScale}
+     */
+    public long getUnscaledFare(int fareIndex) {
+        return fareUnscaled[fareIndex];
+    }
+
+    public int getScale(int fareIndex) {
+        return fareScales[fareIndex];
+    }
+
+    /**
+     * Increases every time the price rules change, starting from 1.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isDense() {
+        return matrix != null;
+    }
+
+
+    private int fareIndex(int sourceStopCode, int destinationStopCode) {
+        // Stops first seen after this table was compiled have no fares
+        if (sourceStopCode < 0 || sourceStopCode >= stopCount || destinationStopCode < 0 || destinationStopCode >= stopCount) {
+            return MISSING;
+        }
+        int column = column(destinationStopCode);
+
+        if (matrix != null) {
+            return matrix[sourceStopCode * (stopCount + 1) + column];
+        }
+
+        long key = key(sourceStopCode, column);
+        for (int slot = slot(key); sparseFares[slot] != MISSING; slot = (slot + 1) & (sparseKeys.length - 1)) {
+            if (sparseKeys[slot] == key) {
+                return sparseFares[slot];
+            }
+        }
+        return MISSING;
+    }
+
+    private int column(int destinationStopCode) {
+        return destinationStopCode == unknownStopCode ? stopCount : destinationStopCode;
+    }
+
+    private static long key(int sourceStopCode, int column) {
+        return ((long) sourceStopCode << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (sparseKeys.length - 1);
+    }
+}
@@ -0,0 +1,124 @@
+package dev.amir.trip_matcher.datastore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps identifiers to dense int codes (0, 1, 2, ...) and back. Each identifier is held once, as the canonical
+ * String returned by {@link #decode(int)}, however many taps and trips refer to it.
+ * <p>
+ * Encoding is thread-safe; codes are only meaningful within one JVM and one dictionary.
+ * <p>
+ * A dictionary only grows unless its owner evicts the values it no longer refers to with {@link #retainOnly}:
+ * streaming modes do it for PANs, so the dictionary holds the PANs of the trips still open rather than every PAN
+ * ever read. Codes of evicted values are reused; anything caching codes must check {@link #evictions()}.
+ */
+public final class IdDictionary {
+
+    public static final IdDictionary STOPS = new IdDictionary();
+    public static final IdDictionary COMPANIES = new IdDictionary();
+    public static final IdDictionary BUSES = new IdDictionary();
+    public static final IdDictionary PANS = new IdDictionary();
+
+    public static final int NOT_FOUND = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+    private final BitSet pinned = new BitSet();
+    private int[] freeCodes = new int[0];
+    private int freeCount;
+    private volatile int evictions;
+
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    /**
+     * Looks a value up without adding it.
+     *
+     * @return its code, or {@link #NOT_FOUND}
+     */
+    public int find(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : NOT_FOUND;
+    }
+
+    /**
+     * @return the value, or null for an evicted code not reused yet
+     */
+    public String decode(int code) {
+        return values[code];
+    }
+
+
+    /**
+     * Encodes a value that is never evicted, such as one named in the configuration.
+     */
+    public synchronized int pin(String value) {
+        int code = encode(value);
+        pinned.set(code);
+        return code;
+    }
+
+
+    /**
+     * Evicts every value whose code is neither in {@code live} nor pinned. Must not run while values are being
+     * encoded, or while codes not in {@code live} are still in use.
+     *
+     * @return the number of values evicted
+     */
+    public synchronized int retainOnly(BitSet live) {
+        int evicted = 0;
+        for (int code = 0; code < size; code++) {
+            String value = values[code];
+            if (value != null && !live.get(code) && !pinned.get(code)) {
+                codes.remove(value);
+                values[code] = null;
+                if (freeCount == freeCodes.length) {
+                    freeCodes = Arrays.copyOf(freeCodes, Math.max(64, freeCount * 2));
+                }
+                freeCodes[freeCount++] = code;
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            evictions++;
+        }
+        return evicted;
+    }
+
+
+    /**
+     * @return how many times values have been evicted: codes cached before a change may now stand for other values
+     */
+    public int evictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return codes.size();
+    }
+
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (freeCount > 0) {
+            int free = freeCodes[--freeCount];
+            values[free] = value;
+            codes.put(value, free);
+            return free;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        // The value is stored before its code is published through the map, so decode() always finds it
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+}
@@ -1,4 +1,4 @@
 package dev.amir.trip_matcher.datastore;
 
-public record Route(String sourceStop, String destinationStop) {}
-
+// Stops as IdDictionary.STOPS codes
+public record Route(int sourceStop, int destinationStop) {}
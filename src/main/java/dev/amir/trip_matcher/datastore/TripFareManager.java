@@ -1,23 +1,72 @@
 package dev.amir.trip_matcher.datastore;
 
-import org.springframework.stereotype.Service;
+import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
-@Service
+/**
+ * Price rules by route. Rules are collected as they are added and compiled into an immutable {@link FareTable}
+ * snapshot on the first lookup after a change; {@link #replacePriceRules(Map)} swaps the whole rule set at once.
+ * <p>
+ * Snapshots are published through an atomic reference, so lookups never lock, and callers that need a
+ * consistent view across many lookups (a processing batch) hold on to one {@link #getFareTable()} result.
+ */
+@Slf4j
 public class TripFareManager {
-    private Map<Route, BigDecimal> priceRules = new HashMap<>();
+    public static final String UNKNOWN = "UNKNOWN";
+    private static final int UNKNOWN_STOP_CODE = IdDictionary.STOPS.encode(UNKNOWN);
 
-    public void addPriceRule(String sourceStop, String destinationStop, BigDecimal price) {
-        Route route = new Route(sourceStop, destinationStop);
+    private final Map<Route, BigDecimal> priceRules = new HashMap<>();
+    private final AtomicReference<FareTable> fareTable = new AtomicReference<>();
+    private long version;
+
+    public synchronized void addPriceRule(String sourceStop, String destinationStop, BigDecimal price) {
+        Route route = new Route(IdDictionary.STOPS.encode(sourceStop), IdDictionary.STOPS.encode(destinationStop));
         priceRules.put(route, price);
+        fareTable.set(null);
+    }
+
+    /**
+     * Replaces every price rule and publishes the new snapshot straight away. Rules that cannot be compiled (a price
+     * too large for the table) throw and leave the current rules and snapshot in place.
+     */
+    public synchronized FareTable replacePriceRules(Map<Route, BigDecimal> rules) {
+        FareTable published = new FareTable(rules, UNKNOWN_STOP_CODE, IdDictionary.STOPS.size(), version + 1);
+        priceRules.clear();
+        priceRules.putAll(rules);
+        version = published.getVersion();
+        fareTable.set(published);
+        log.info("Fare table version {} published with {} price rules", published.getVersion(), rules.size());
+        return published;
     }
 
     public BigDecimal getPrice(String sourceStop, String destinationStop) {
-        Route route = new Route(sourceStop, destinationStop);
-        return priceRules.get(route);
+        int sourceCode = IdDictionary.STOPS.find(sourceStop);
+        int destinationCode = IdDictionary.STOPS.find(destinationStop);
+        if (sourceCode == IdDictionary.NOT_FOUND || destinationCode == IdDictionary.NOT_FOUND) {
+            return null;
+        }
+        return getPrice(sourceCode, destinationCode);
+    }
+
+    public BigDecimal getPrice(int sourceStopCode, int destinationStopCode) {
+        return getFareTable().getPrice(sourceStopCode, destinationStopCode);
+    }
+
+    public FareTable getFareTable() {
+        FareTable current = fareTable.get();
+        return current != null ? current : compile();
     }
-}
 
+    private synchronized FareTable compile() {
+        FareTable current = fareTable.get();
+        if (current == null) {
+            current = new FareTable(priceRules, UNKNOWN_STOP_CODE, IdDictionary.STOPS.size(), ++version);
+            fareTable.set(current);
+        }
+        return current;
+    }
+}
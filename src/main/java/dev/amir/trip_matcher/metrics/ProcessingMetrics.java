@@ -0,0 +1,176 @@
+package dev.amir.trip_matcher.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Throughput and latency of a run: taps read, time spent in each {@link Stage}, group sizes, rules fired, fare
+ * lookup misses and bytes written, plus whatever components choose to {@link #bindGauge bind}.
+ * <p>
+ * Meters live in a Prometheus registry and are dumped in the Prometheus text format at the end of a run, for
+ * node_exporter's textfile collector or a pushgateway. {@link #DISABLED} records nothing: hot paths check
+ * {@link #isEnabled()} before doing any per-tap work. Meters are thread-safe.
+ */
+@Service
+@Slf4j
+public class ProcessingMetrics {
+
+    public static final ProcessingMetrics DISABLED = new ProcessingMetrics(new CompositeMeterRegistry(), false);
+    private static final String PREFIX = "trip_matcher.";
+
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Counter tapsRead;
+    private final DistributionSummary groupSize;
+    private final Counter fareLookupMisses;
+    private final Counter tripsWritten;
+    private final Counter bytesWritten;
+    private final List<Object> counterSources = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public ProcessingMetrics() {
+        this(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), true);
+    }
+
+    ProcessingMetrics(MeterRegistry registry, boolean enabled) {
+        this.registry = registry;
+        this.enabled = enabled;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(PREFIX + "stage")
+                    .description("Time spent in each processing stage")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        this.tapsRead = Counter.builder(PREFIX + "taps.read").description("Taps read from the input").register(registry);
+        this.groupSize = DistributionSummary.builder(PREFIX + "group.size")
+                .description("Taps per companyId/busId/pan group")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.fareLookupMisses = Counter.builder(PREFIX + "fare.lookup.misses")
+                .description("Trips priced NOT_FOUND because no fare covers the route")
+                .register(registry);
+        this.tripsWritten = Counter.builder(PREFIX + "trips.written").description("Trip rows written").register(registry);
+        this.bytesWritten = Counter.builder(PREFIX + "output").baseUnit("bytes").description("Size of the trip files written").register(registry);
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime()} reading.
+     */
+    public void recordStage(Stage stage, long startNanos) {
+        stageTimers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTapsRead(long count) {
+        tapsRead.increment(count);
+    }
+
+    public void recordGroupSize(int taps) {
+        groupSize.record(taps);
+    }
+
+    public void recordFareLookupMiss() {
+        fareLookupMisses.increment();
+    }
+
+    public void recordWritten(long trips, long bytes) {
+        tripsWritten.increment(trips);
+        bytesWritten.increment(bytes);
+    }
+
+    /**
+     * @return the counter of a rule engine rule, to be incremented every time the rule fires
+     */
+    public Counter ruleCounter(String rule) {
+        return Counter.builder(PREFIX + "rules.fired")
+                .description("Back-to-back tap rules fired")
+                .tag("rule", rule)
+                .register(registry);
+    }
+
+
+    /**
+     * Exposes a value read from {@code source} whenever the metrics are dumped. The source is held strongly, so it
+     * is still reported after the run that created it has finished.
+     */
+    public <T> void bindGauge(String name, String description, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(PREFIX + name, source, value).description(description).strongReference(true).register(registry);
+    }
+
+    /**
+     * Same as {@link #bindGauge} for a value that only ever increases.
+     */
+    public <T> void bindCounter(String name, String description, T source, ToDoubleFunction<T> value) {
+        // Function counters only hold their source weakly
+        counterSources.add(source);
+        FunctionCounter.builder(PREFIX + name, source, value).description(description).register(registry);
+    }
+
+    public <T> void bindTimeGauge(String name, String description, T source, TimeUnit unit, ToDoubleFunction<T> value) {
+        TimeGauge.builder(PREFIX + name, source, unit, value).description(description).strongReference(true).register(registry);
+    }
+
+
+    /**
+     * @return every meter in the Prometheus text format, empty when the metrics are disabled
+     */
+    public String scrape() {
+        return registry instanceof PrometheusMeterRegistry prometheus ? prometheus.scrape() : "";
+    }
+
+
+    /**
+     * Writes {@link #scrape()} to {@code path}, through a temporary file so that a collector never reads half a dump.
+     */
+    public void writePrometheus(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temporary, scrape());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        log.info("Wrote metrics to {}", path);
+    }
+
+
+    public enum Stage {
+        READ, GROUP, MATCH, WRITE
+    }
+}
@@ -0,0 +1,232 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Continuous processing of taps that arrive out of order by up to {@code allowedLateness} of event time.
+ * <p>
+ * Taps wait in a reorder buffer ordered by dateTimeUTC. The watermark trails the latest tap time seen by the
+ * allowed lateness, and every tap at or before it is released, in event-time order, to a
+ * {@link StreamingTapProcessor}, which emits a trip as soon as its closing tap is released. Releasing in global
+ * event-time order keeps every (companyId, busId, pan) group ordered without per-group timers.
+ * <p>
+ * The buffer only holds the taps of the lateness window, and never more than {@code maxBufferedTaps}: beyond
+ * that the oldest taps are released early. When no tap arrives for {@code idleTimeout}, {@link #tick} releases
+ * everything buffered, so a quiet stream does not hold trips back. The taps it releases ahead of the watermark only
+ * move their own group on: a tap that arrives afterwards still within the allowed lateness, such as the tap off of
+ * a reader uploading late, is matched unless a later tap of its group was released. A tap behind the watermark, or
+ * behind a tap of its group already released, would break the order of its group: it is counted and dropped.
+ * <p>
+ * With an inactivity timeout, an open trip whose ON tap is older than the released event time by the timeout is
+ * closed as INCOMPLETE, so trips never tapped off do not stay open for the life of the process. Finding them means
+ * sweeping every open trip, which is done each time the released event time has moved on by an eighth of the
+ * timeout: a trip is closed between one and 1.125 timeouts after its ON tap.
+ * <p>
+ * Instances are stateful and not thread-safe.
+ */
+@Slf4j
+public class EventTimeTapProcessor {
+
+    private static final Comparator<TapModel> EVENT_TIME_ORDER =
+            Comparator.comparingLong(TapModel::getEpochSecond).thenComparingInt(TapModel::getId);
+
+    private final StreamingTapProcessor tapProcessor;
+    private final long allowedLatenessSeconds;
+    private final long idleTimeoutNanos;
+    private final int maxBufferedTaps;
+    private final long inactivityTimeoutSeconds;
+    private final PriorityQueue<TapModel> reorderBuffer = new PriorityQueue<>(EVENT_TIME_ORDER);
+    // Latest tap of each group released ahead of the watermark by an idle tick, until the watermark passes them all
+    private final Map<GroupKey, TapModel> earlyReleasedTaps = new HashMap<>();
+    private long earlyReleasedUntil = TapModel.NO_TIME;
+
+    private long latestTapTime = TapModel.NO_TIME;
+    private long lastReleasedTime = TapModel.NO_TIME;
+    private long lastSweepTime = TapModel.NO_TIME;
+    private long lastArrivalNanos;
+    private long lateTapCount;
+    private long forcedReleaseCount;
+    private long expiredTripCount;
+
+    public EventTimeTapProcessor(StreamingTapProcessor tapProcessor, Duration allowedLateness, Duration idleTimeout, int maxBufferedTaps) {
+        this(tapProcessor, allowedLateness, idleTimeout, maxBufferedTaps, Duration.ZERO);
+    }
+
+    /**
+     * @param inactivityTimeout how long (in tap time) a trip may stay open without a tap off, zero to keep it open
+     *                          until {@link #finish}
+     */
+    public EventTimeTapProcessor(StreamingTapProcessor tapProcessor, Duration allowedLateness, Duration idleTimeout, int maxBufferedTaps,
+                                 Duration inactivityTimeout) {
+        if (maxBufferedTaps < 1) {
+            throw new IllegalArgumentException("maxBufferedTaps must be positive: " + maxBufferedTaps);
+        }
+        this.tapProcessor = tapProcessor;
+        this.allowedLatenessSeconds = allowedLateness.toSeconds();
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.maxBufferedTaps = maxBufferedTaps;
+        this.inactivityTimeoutSeconds = inactivityTimeout.toSeconds();
+    }
+
+
+    public void accept(TapModel tap, Consumer<TripModel> sink) {
+        accept(tap, System.nanoTime(), sink);
+    }
+
+
+    void accept(TapModel tap, long nowNanos, Consumer<TripModel> sink) {
+        lastArrivalNanos = nowNanos;
+
+        long releasedTime = releasedTime(tap);
+        if (tap.getEpochSecond() < releasedTime) {
+            lateTapCount++;
+            log.warn("Dropped tap {} of {}: {} is behind the taps already released, up to {}", tap.getId(), tap.getPan(),
+                    tap.getDateTimeUTC(), LocalDateTime.ofEpochSecond(releasedTime, 0, ZoneOffset.UTC));
+            return;
+        }
+
+        reorderBuffer.add(tap);
+        latestTapTime = Math.max(latestTapTime, tap.getEpochSecond());
+
+        releaseUpTo(latestTapTime - allowedLatenessSeconds, sink);
+        while (reorderBuffer.size() > maxBufferedTaps) {
+            forcedReleaseCount++;
+            release(sink);
+        }
+        if (!earlyReleasedTaps.isEmpty() && lastReleasedTime >= earlyReleasedUntil) {
+            earlyReleasedTaps.clear();
+        }
+        expireInactive(sink);
+    }
+
+
+    /**
+     * Called periodically by the source: releases every buffered tap once no tap has arrived for the idle timeout.
+     */
+    public void tick(Consumer<TripModel> sink) {
+        tick(System.nanoTime(), sink);
+    }
+
+
+    void tick(long nowNanos, Consumer<TripModel> sink) {
+        if (!reorderBuffer.isEmpty() && nowNanos - lastArrivalNanos >= idleTimeoutNanos) {
+            // Taps up to the watermark are released as usual, the others only move their group on
+            long watermark = latestTapTime - allowedLatenessSeconds;
+            releaseUpTo(watermark, sink);
+            lastReleasedTime = Math.max(lastReleasedTime, watermark);
+            while (!reorderBuffer.isEmpty()) {
+                releaseEarly(sink);
+            }
+            if (earlyReleasedTaps.size() > maxBufferedTaps) {
+                // Idle ticks keep releasing early while the watermark stands still: bound the groups remembered
+                lastReleasedTime = earlyReleasedUntil;
+                earlyReleasedTaps.clear();
+            }
+            expireInactive(sink);
+        }
+    }
+
+
+    /**
+     * End of the stream: releases every buffered tap and closes the trips still open.
+     */
+    public void finish(Consumer<TripModel> sink) {
+        while (!reorderBuffer.isEmpty()) {
+            release(sink);
+        }
+        tapProcessor.finish(sink);
+    }
+
+
+    /**
+     * Evicts the PANs without an open trip from the PAN dictionary, keeping those of the buffered taps.
+     *
+     * @see StreamingTapProcessor#evictClosedPans
+     */
+    public void evictClosedPans() {
+        // The PANs of the taps released early are kept too, so that their groups are still recognised
+        tapProcessor.evictClosedPans(() -> Stream.concat(reorderBuffer.stream(), earlyReleasedTaps.values().stream()).iterator());
+    }
+
+
+    public int bufferedTapCount() {
+        return reorderBuffer.size();
+    }
+
+    public long getLateTapCount() {
+        return lateTapCount;
+    }
+
+    /**
+     * Open trips closed by the inactivity timeout.
+     */
+    public long getExpiredTripCount() {
+        return expiredTripCount;
+    }
+
+    /**
+     * Taps released before the watermark reached them because the buffer was full.
+     */
+    public long getForcedReleaseCount() {
+        return forcedReleaseCount;
+    }
+
+
+    private void releaseUpTo(long watermark, Consumer<TripModel> sink) {
+        while (!reorderBuffer.isEmpty() && reorderBuffer.peek().getEpochSecond() <= watermark) {
+            release(sink);
+        }
+    }
+
+
+    private void expireInactive(Consumer<TripModel> sink) {
+        if (inactivityTimeoutSeconds <= 0 || lastReleasedTime == TapModel.NO_TIME) {
+            return;
+        }
+        if (lastSweepTime == TapModel.NO_TIME) {
+            lastSweepTime = lastReleasedTime;
+        }
+        // Every tap released from now on is at or after lastReleasedTime, so expired trips cannot be closed by one
+        if (lastReleasedTime - lastSweepTime >= Math.max(1, inactivityTimeoutSeconds / 8)) {
+            lastSweepTime = lastReleasedTime;
+            expiredTripCount += tapProcessor.expire(lastReleasedTime - inactivityTimeoutSeconds, sink);
+        }
+    }
+
+
+    private long releasedTime(TapModel tap) {
+        if (earlyReleasedTaps.isEmpty()) {
+            return lastReleasedTime;
+        }
+        TapModel groupTap = earlyReleasedTaps.get(GroupKey.of(tap));
+        return groupTap != null ? Math.max(lastReleasedTime, groupTap.getEpochSecond()) : lastReleasedTime;
+    }
+
+
+    // A tick releases in event-time order: the last tap it releases of a group is its latest
+    private void releaseEarly(Consumer<TripModel> sink) {
+        TapModel tap = reorderBuffer.poll();
+        earlyReleasedTaps.put(GroupKey.of(tap), tap);
+        earlyReleasedUntil = Math.max(earlyReleasedUntil, tap.getEpochSecond());
+        tapProcessor.accept(tap, sink);
+    }
+
+
+    private void release(Consumer<TripModel> sink) {
+        TapModel tap = reorderBuffer.poll();
+        lastReleasedTime = tap.getEpochSecond();
+        tapProcessor.accept(tap, sink);
+    }
+}
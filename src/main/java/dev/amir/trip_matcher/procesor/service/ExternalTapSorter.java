@@ -0,0 +1,220 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.parser.ColumnarTapFile;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Sorts taps by (companyId, busId, pan, dateTimeUTC) within a memory budget, for inputs larger than the heap.
+ * <p>
+ * Taps are buffered until the budget is reached, then sorted and spilled to a run in the spill directory as a
+ * {@link ColumnarTapFile}. {@link #finish} merges the runs k ways into one sorted stream, which a
+ * {@link SortedTapProcessor} consumes without any further grouping. Taps of a group at the same second keep their
+ * input order, as with the in-memory sort. When nothing had to be spilled, the buffer is sorted and streamed
+ * directly.
+ * <p>
+ * With {@link #evictPans}, PANs are evicted from the PAN dictionary after each spill and while merging, keeping
+ * only those of the taps buffered or being merged, so the dictionary does not end up holding every PAN read.
+ * <p>
+ * Closing deletes the runs. Instances are not thread-safe.
+ */
+@Slf4j
+public class ExternalTapSorter implements Closeable {
+
+    // Heap taken by a buffered tap, measured at 53 bytes with compressed oops and 59 without: the 48 byte TapModel
+    // (56 without), its list slot and the list's growth slack; sorting in place adds up to half a slot of merge space
+    static final int ESTIMATED_TAP_BYTES = 64;
+    private static final int MIN_EVICTION_SIZE = 1 << 16;
+    private static final Comparator<TapModel> BY_GROUP_AND_TIME = ((Comparator<TapModel>) GroupKey::compare)
+            .thenComparingLong(TapModel::getEpochSecond);
+
+    private final Path spillDirectory;
+    private final int maxBufferedTaps;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<TapModel> buffer = new ArrayList<>();
+    private boolean evictPans;
+    private long spillBytes;
+    private long mergeNanos;
+
+    public ExternalTapSorter(Path spillDirectory, long memoryBudgetBytes) {
+        if (memoryBudgetBytes < ESTIMATED_TAP_BYTES) {
+            throw new IllegalArgumentException("Memory budget too small to hold a single tap: " + memoryBudgetBytes);
+        }
+        this.spillDirectory = spillDirectory;
+        this.maxBufferedTaps = (int) Math.min(Integer.MAX_VALUE - 8, memoryBudgetBytes / ESTIMATED_TAP_BYTES);
+    }
+
+
+    /**
+     * Evicts from {@link IdDictionary#PANS} the PANs of the taps spilled and merged. Only for a sorter that owns the
+     * PAN codes: taps created before they are accepted, or kept after they are merged, may no longer decode.
+     */
+    public void evictPans() {
+        this.evictPans = true;
+    }
+
+
+    /**
+     * @throws UncheckedIOException when a run cannot be spilled
+     */
+    public void accept(TapModel tap) {
+        buffer.add(tap);
+        if (buffer.size() == maxBufferedTaps) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+
+    /**
+     * Hands every tap accepted so far to the consumer in sorted order. Taps read back from runs are decoded into
+     * reused instances and are only valid until the consumer has been called twice more, which is enough for a
+     * {@link SortedTapProcessor}.
+     *
+     * @return the number of taps
+     */
+    public long finish(Consumer<TapModel> consumer) throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(BY_GROUP_AND_TIME);
+            buffer.forEach(consumer);
+            long count = buffer.size();
+            buffer.clear();
+            return count;
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+
+        long start = System.nanoTime();
+        List<Run> cursors = new ArrayList<>(runs.size());
+        // Runs are spilled in input order, so ties go to the earlier run to keep the sort stable
+        PriorityQueue<Run> queue = new PriorityQueue<>(runs.size(), Comparator.comparing(Run::current, BY_GROUP_AND_TIME)
+                .thenComparingInt(Run::index));
+        for (int index = 0; index < runs.size(); index++) {
+            Run run = new Run(index, ColumnarTapFile.open(runs.get(index), true));
+            cursors.add(run);
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+
+        long count = 0;
+        long nextEvictionSize = nextEvictionSize();
+        while (!queue.isEmpty()) {
+            Run run = queue.poll();
+            consumer.accept(run.current());
+            count++;
+            if (run.advance()) {
+                queue.add(run);
+            }
+            if (evictPans && IdDictionary.PANS.size() >= nextEvictionSize) {
+                // The taps emitted last may still be referred to by the consumer: both taps of every cursor are kept
+                BitSet live = new BitSet();
+                cursors.forEach(cursor -> cursor.markPans(live));
+                IdDictionary.PANS.retainOnly(live);
+                nextEvictionSize = nextEvictionSize();
+            }
+        }
+        mergeNanos = System.nanoTime() - start;
+        log.info("Merged {} taps from {} runs in {} ms", count, runs.size(), mergeNanos / 1_000_000);
+        return count;
+    }
+
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    public long getSpillBytes() {
+        return spillBytes;
+    }
+
+    public long getMergeNanos() {
+        return mergeNanos;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+
+    private void spill() throws IOException {
+        Files.createDirectories(spillDirectory);
+        Path run = Files.createTempFile(spillDirectory, "taps-run-", ".tmc");
+        runs.add(run);
+        // Sorted in place, in the order of ColumnarTapFile rows, and written without a copy
+        buffer.sort(BY_GROUP_AND_TIME);
+        ColumnarTapFile.writeSorted(run, buffer);
+        spillBytes += Files.size(run);
+        buffer.clear();
+        if (evictPans) {
+            IdDictionary.PANS.retainOnly(new BitSet());
+        }
+    }
+
+
+    // Waiting for the dictionary to double keeps the sweep O(1) per tap
+    private static long nextEvictionSize() {
+        return Math.max(MIN_EVICTION_SIZE, 2L * IdDictionary.PANS.size());
+    }
+
+
+    /**
+     * Cursor over one run, decoding rows alternately into two taps so that the tap emitted last stays valid
+     * while the next row is read.
+     */
+    private static final class Run {
+        private final int index;
+        private final ColumnarTapFile file;
+        private final TapModel[] taps = {new TapModel(), new TapModel()};
+        private int row = -1;
+
+        private Run(int index, ColumnarTapFile file) {
+            this.index = index;
+            this.file = file;
+        }
+
+        private boolean advance() {
+            if (++row == file.size()) {
+                return false;
+            }
+            file.read(row, taps[row & 1]);
+            return true;
+        }
+
+        private TapModel current() {
+            return taps[row & 1];
+        }
+
+        private void markPans(BitSet live) {
+            for (int i = 0; i < Math.min(row + 1, taps.length); i++) {
+                live.set(taps[i].getPanCode());
+            }
+        }
+
+        private int index() {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+
+/**
+ * (companyId, busId, pan) key compared on dictionary codes.
+ * <p>
+ * Keys are also {@link Comparable} on their Strings: HashMap orders the keys of a heavily colliding bucket by
+ * compareTo, and would otherwise fall back to identity hash codes, making the group order differ between runs.
+ */
+class GroupKey implements Comparable<GroupKey> {
+    private final int companyCode;
+    private final int busCode;
+    private final int panCode;
+    private final int hash;
+
+    public GroupKey(int companyCode, int busCode, int panCode) {
+        this.companyCode = companyCode;
+        this.busCode = busCode;
+        this.panCode = panCode;
+        this.hash = hash(companyCode, busCode, panCode);
+    }
+
+    public static GroupKey of(TapModel tap) {
+        return new GroupKey(tap.getCompanyCode(), tap.getBusCode(), tap.getPanCode());
+    }
+
+
+    /**
+     * Hashes the canonical Strings (their hash is cached) rather than the codes: codes depend on the order
+     * identifiers were first seen, and this keeps the group order of the output independent of it.
+     * Same value as Objects.hash(companyId, busId, pan).
+     */
+    static int hash(int companyCode, int busCode, int panCode) {
+        return 31 * (31 * (31 + IdDictionary.COMPANIES.decode(companyCode).hashCode())
+                           + IdDictionary.BUSES.decode(busCode).hashCode())
+               + IdDictionary.PANS.decode(panCode).hashCode();
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GroupKey groupKey = (GroupKey) o;
+        return companyCode == groupKey.companyCode &&
+               busCode == groupKey.busCode &&
+               panCode == groupKey.panCode;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+
+    @Override
+    public int compareTo(GroupKey other) {
+        return compare(companyCode, busCode, panCode, other.companyCode, other.busCode, other.panCode);
+    }
+
+
+    /**
+     * Compares the groups of two taps in the same order as GroupKeys.
+     */
+    static int compare(TapModel tap, TapModel other) {
+        return compare(tap.getCompanyCode(), tap.getBusCode(), tap.getPanCode(),
+                other.getCompanyCode(), other.getBusCode(), other.getPanCode());
+    }
+
+
+    private static int compare(int companyCode, int busCode, int panCode, int otherCompanyCode, int otherBusCode, int otherPanCode) {
+        int compare = compare(IdDictionary.COMPANIES, companyCode, otherCompanyCode);
+        if (compare == 0) {
+            compare = compare(IdDictionary.BUSES, busCode, otherBusCode);
+        }
+        if (compare == 0) {
+            compare = compare(IdDictionary.PANS, panCode, otherPanCode);
+        }
+        return compare;
+    }
+
+
+    private static int compare(IdDictionary dictionary, int code, int otherCode) {
+        return code == otherCode ? 0 : dictionary.decode(code).compareTo(dictionary.decode(otherCode));
+    }
+}
@@ -0,0 +1,133 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Open trips carried over from one incremental run to the next: the trailing ON tap of every
+ * (companyId, busId, pan) group that has not tapped off yet, and the latest tap time seen so far.
+ * <p>
+ * The file is a small binary snapshot: identifiers are written once in a string table and referenced by index,
+ * since dictionary codes are only valid within one run. It is written to a temporary file and moved into place,
+ * so a crash never leaves a half-written checkpoint behind.
+ */
+@Slf4j
+public record OpenTripCheckpoint(LocalDateTime latestTapTime, List<TapModel> openTaps) {
+
+    private static final int MAGIC = 0x54_4D_43_50; // "TMCP"
+    private static final int FORMAT_VERSION = 1;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    public static final OpenTripCheckpoint EMPTY = new OpenTripCheckpoint(null, List.of());
+
+    /**
+     * @return the checkpoint stored at {@code path}, or {@link #EMPTY} for a first run
+     */
+    public static OpenTripCheckpoint read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a trip-matcher checkpoint (or an unsupported version): " + path);
+            }
+            LocalDateTime latestTapTime = readDateTime(in);
+
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+
+            int tapCount = in.readInt();
+            List<TapModel> openTaps = new ArrayList<>(tapCount);
+            for (int i = 0; i < tapCount; i++) {
+                int id = in.readInt();
+                LocalDateTime dateTimeUTC = readDateTime(in);
+                openTaps.add(new TapModel(id, dateTimeUTC, TapType.ON,
+                        strings[in.readInt()], strings[in.readInt()], strings[in.readInt()], strings[in.readInt()]));
+            }
+
+            log.info("Restored {} open trips from checkpoint {}", openTaps.size(), path);
+            return new OpenTripCheckpoint(latestTapTime, openTaps);
+        } catch (NoSuchFileException e) {
+            log.info("No checkpoint found at {}, starting without open trips", path);
+            return EMPTY;
+        }
+    }
+
+
+    public static void write(Path path, LocalDateTime latestTapTime, Collection<TapModel> openTaps) throws IOException {
+        Map<String, Integer> stringTable = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (TapModel tap : openTaps) {
+            for (String value : new String[]{tap.getStopId(), tap.getCompanyId(), tap.getBusId(), tap.getPan()}) {
+                stringTable.computeIfAbsent(value, key -> {
+                    strings.add(key);
+                    return strings.size() - 1;
+                });
+            }
+        }
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeDateTime(out, latestTapTime);
+
+                out.writeInt(strings.size());
+                for (String value : strings) {
+                    out.writeUTF(value);
+                }
+
+                out.writeInt(openTaps.size());
+                for (TapModel tap : openTaps) {
+                    out.writeInt(tap.getId());
+                    writeDateTime(out, tap.getDateTimeUTC());
+                    out.writeInt(stringTable.get(tap.getStopId()));
+                    out.writeInt(stringTable.get(tap.getCompanyId()));
+                    out.writeInt(stringTable.get(tap.getBusId()));
+                    out.writeInt(stringTable.get(tap.getPan()));
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        log.info("Checkpointed {} open trips to {}", openTaps.size(), path);
+    }
+
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+        if (dateTime == null) {
+            out.writeLong(NO_TIME);
+            return;
+        }
+        out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(dateTime.getNano());
+    }
+
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        long epochSecond = in.readLong();
+        return epochSecond == NO_TIME ? null : LocalDateTime.ofEpochSecond(epochSecond, in.readInt(), ZoneOffset.UTC);
+    }
+}
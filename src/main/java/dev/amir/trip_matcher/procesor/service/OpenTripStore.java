@@ -0,0 +1,340 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The tap that opened each trip still open, keyed by (companyId, busId, pan), held outside the Java heap so that
+ * tens of millions of open trips neither fill the heap nor make GC pauses grow with them.
+ * <p>
+ * An open-addressing hash table with linear probing over fixed-width slots of {@value #SLOT_BYTES} bytes: the
+ * company, bus, PAN and stop dictionary codes, the epoch second, the tap id and the tap type. Slots live in
+ * chunks of direct memory, or of a memory-mapped temporary file when a directory is given (not limited by
+ * -XX:MaxDirectMemorySize, and paged out by the OS under pressure); the file is deleted as soon as it is mapped.
+ * The table doubles when it is three quarters full and entries are removed by shifting their successors back,
+ * so lookups never walk over tombstones. Memory is released when the store is garbage collected.
+ * <p>
+ * Slots are placed by {@link GroupKey#hash}, so iteration order does not depend on dictionary codes.
+ * Not thread-safe.
+ */
+@Slf4j
+public final class OpenTripStore {
+
+    public static final int NOT_FOUND = -1;
+    static final int SLOT_BYTES = 32;
+    private static final int DEFAULT_EXPECTED_ENTRIES = 1024;
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final TapType[] TAP_TYPES = TapType.values();
+
+    private static final int COMPANY = 0;
+    private static final int BUS = 4;
+    private static final int PAN = 8;
+    private static final int STOP = 12;
+    private static final int EPOCH_SECOND = 16;
+    private static final int ID = 24;
+    // Tap type ordinal + 1, 0 for an empty slot: fresh memory is an empty table
+    private static final int TAP_TYPE = 28;
+
+    private final Path directory;
+    private ByteBuffer[] chunks;
+    private int capacity;
+    private int mask;
+    private int shift;
+    private int size;
+    private final TapModel flyweight = new TapModel();
+
+    public OpenTripStore() {
+        this(DEFAULT_EXPECTED_ENTRIES, null);
+    }
+
+    /**
+     * @param expectedEntries open trips to size the table for, to avoid rehashing while it fills
+     * @param directory       where to map the table from a temporary file, or null to use direct memory
+     */
+    public OpenTripStore(int expectedEntries, Path directory) {
+        this.directory = directory;
+        allocate(tableSizeFor(expectedEntries));
+    }
+
+
+    /**
+     * @return the slot of the group's open trip, or {@link #NOT_FOUND}
+     */
+    public int find(int companyCode, int busCode, int panCode) {
+        for (int slot = home(companyCode, busCode, panCode); ; slot = (slot + 1) & mask) {
+            if (isEmpty(slot)) {
+                return NOT_FOUND;
+            }
+            if (matches(slot, companyCode, busCode, panCode)) {
+                return slot;
+            }
+        }
+    }
+
+
+    /**
+     * Decodes a slot into an existing tap, overwriting all of its fields.
+     */
+    public void read(int slot, TapModel tap) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        tap.setCompanyCode(chunk.getInt(offset + COMPANY));
+        tap.setBusCode(chunk.getInt(offset + BUS));
+        tap.setPanCode(chunk.getInt(offset + PAN));
+        tap.setStopCode(chunk.getInt(offset + STOP));
+        tap.setEpochSecond(chunk.getLong(offset + EPOCH_SECOND));
+        tap.setId(chunk.getInt(offset + ID));
+        tap.setTapType(TAP_TYPES[chunk.get(offset + TAP_TYPE) - 1]);
+    }
+
+
+    /**
+     * Stores the tap as the open trip of its group, replacing the previous one.
+     */
+    public void put(TapModel tap) {
+        int slot = home(tap.getCompanyCode(), tap.getBusCode(), tap.getPanCode());
+        while (!isEmpty(slot)) {
+            if (matches(slot, tap.getCompanyCode(), tap.getBusCode(), tap.getPanCode())) {
+                write(slot, tap);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size + 1 > capacity - (capacity >>> 2)) {
+            grow();
+            put(tap);
+            return;
+        }
+        write(slot, tap);
+        size++;
+    }
+
+
+    /**
+     * Removes the open trip in {@code slot}; slots found before the removal are no longer valid.
+     */
+    public void remove(int slot) {
+        int hole = slot;
+        // Moves back every following entry of the cluster that may sit in the hole without being probed past
+        for (int next = (slot + 1) & mask; !isEmpty(next); next = (next + 1) & mask) {
+            int home = home(next);
+            boolean movable = next > hole ? home <= hole || home > next : home <= hole && home > next;
+            if (movable) {
+                copy(next, hole);
+                hole = next;
+            }
+        }
+        chunk(hole).put(offset(hole) + TAP_TYPE, (byte) 0);
+        size--;
+    }
+
+
+    /**
+     * Removes every open trip whose tap is older than {@code cutoffEpochSecond}, handing it to {@code expired}
+     * first. The tap is reused for every trip and must be copied to be kept.
+     *
+     * @return the number of open trips removed
+     */
+    public int removeOlderThan(long cutoffEpochSecond, Consumer<TapModel> expired) {
+        int removed = 0;
+        for (int slot = 0; slot < capacity; ) {
+            if (!isEmpty(slot) && chunk(slot).getLong(offset(slot) + EPOCH_SECOND) < cutoffEpochSecond) {
+                read(slot, flyweight);
+                expired.accept(flyweight);
+                // An entry shifted back into this slot is checked next
+                remove(slot);
+                removed++;
+            } else {
+                slot++;
+            }
+        }
+        return removed;
+    }
+
+
+    /**
+     * Hands every open trip to the consumer in slot order, decoded into a tap that is reused for every trip.
+     */
+    public void forEach(Consumer<TapModel> consumer) {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (!isEmpty(slot)) {
+                read(slot, flyweight);
+                consumer.accept(flyweight);
+            }
+        }
+    }
+
+
+    /**
+     * @return a copy of every open trip, in slot order
+     */
+    public List<TapModel> toTaps() {
+        List<TapModel> taps = new ArrayList<>(size);
+        for (int slot = 0; slot < capacity; slot++) {
+            if (!isEmpty(slot)) {
+                TapModel tap = new TapModel();
+                read(slot, tap);
+                taps.add(tap);
+            }
+        }
+        return taps;
+    }
+
+
+    public void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            chunk(slot).put(offset(slot) + TAP_TYPE, (byte) 0);
+        }
+        size = 0;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * @return the memory held outside the heap, whatever the number of open trips
+     */
+    public long offHeapBytes() {
+        return (long) capacity * SLOT_BYTES;
+    }
+
+
+    private void write(int slot, TapModel tap) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        chunk.putInt(offset + COMPANY, tap.getCompanyCode());
+        chunk.putInt(offset + BUS, tap.getBusCode());
+        chunk.putInt(offset + PAN, tap.getPanCode());
+        chunk.putInt(offset + STOP, tap.getStopCode());
+        chunk.putLong(offset + EPOCH_SECOND, tap.getEpochSecond());
+        chunk.putInt(offset + ID, tap.getId());
+        chunk.put(offset + TAP_TYPE, (byte) (tap.getTapType().ordinal() + 1));
+    }
+
+
+    private void copy(int from, int to) {
+        copy(chunk(from), offset(from), chunk(to), offset(to));
+    }
+
+
+    private static void copy(ByteBuffer source, int sourceOffset, ByteBuffer target, int targetOffset) {
+        for (int i = 0; i < SLOT_BYTES; i += Long.BYTES) {
+            target.putLong(targetOffset + i, source.getLong(sourceOffset + i));
+        }
+    }
+
+
+    private boolean matches(int slot, int companyCode, int busCode, int panCode) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        return chunk.getInt(offset + PAN) == panCode
+               && chunk.getInt(offset + BUS) == busCode
+               && chunk.getInt(offset + COMPANY) == companyCode;
+    }
+
+
+    private boolean isEmpty(int slot) {
+        return chunk(slot).get(offset(slot) + TAP_TYPE) == 0;
+    }
+
+
+    private int home(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        return home(chunk.getInt(offset + COMPANY), chunk.getInt(offset + BUS), chunk.getInt(offset + PAN));
+    }
+
+
+    private int home(int companyCode, int busCode, int panCode) {
+        // Fibonacci hashing: the high bits of the product are well mixed even for close String hashes
+        return (GroupKey.hash(companyCode, busCode, panCode) * 0x9E3779B9) >>> shift;
+    }
+
+
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot >>> CHUNK_SHIFT];
+    }
+
+
+    private static int offset(int slot) {
+        return (slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES;
+    }
+
+
+    private void grow() {
+        if (capacity == MAX_CAPACITY) {
+            throw new IllegalStateException("Open trip store is full: " + size + " open trips");
+        }
+        ByteBuffer[] oldChunks = chunks;
+        int oldCapacity = capacity;
+        allocate(capacity * 2);
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer source = oldChunks[slot >>> CHUNK_SHIFT];
+            int sourceOffset = offset(slot);
+            if (source.get(sourceOffset + TAP_TYPE) == 0) {
+                continue;
+            }
+            int target = home(source.getInt(sourceOffset + COMPANY), source.getInt(sourceOffset + BUS), source.getInt(sourceOffset + PAN));
+            while (!isEmpty(target)) {
+                target = (target + 1) & mask;
+            }
+            copy(source, sourceOffset, chunk(target), offset(target));
+        }
+        log.info("Open trip store grown to {} slots ({} MB) for {} open trips", capacity, offHeapBytes() >> 20, size);
+    }
+
+
+    private void allocate(int capacity) {
+        int chunkBytes = Math.min(capacity, CHUNK_SLOTS) * SLOT_BYTES;
+        ByteBuffer[] newChunks = new ByteBuffer[Math.max(1, capacity >>> CHUNK_SHIFT)];
+        if (directory == null) {
+            for (int i = 0; i < newChunks.length; i++) {
+                newChunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+            }
+        } else {
+            try {
+                Files.createDirectories(directory);
+                Path file = Files.createTempFile(directory, "open-trips", ".table");
+                // Mappings outlive the channel, and the file is deleted once they are all made
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE)) {
+                    for (int i = 0; i < newChunks.length; i++) {
+                        newChunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * chunkBytes, chunkBytes)
+                                .order(ByteOrder.nativeOrder());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map the open trip store in " + directory, e);
+            }
+        }
+        this.chunks = newChunks;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+
+    private static int tableSizeFor(int expectedEntries) {
+        long slots = Math.max(16, (long) expectedEntries * 4 / 3 + 1);
+        return (int) Math.min(MAX_CAPACITY, Long.highestOneBit(slots - 1) << 1);
+    }
+}
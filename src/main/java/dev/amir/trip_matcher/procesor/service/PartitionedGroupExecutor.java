@@ -0,0 +1,140 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.ruleengine.service.RuleSet;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_HEAD_TAP;
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_TAIL_TAP;
+
+/**
+ * Runs the (companyId, busId, pan) groups of a batch on a dedicated fork-join pool of {@code workers} threads.
+ * <p>
+ * Groups are hash-partitioned by {@link GroupKey} into {@link #PARTITIONS_PER_WORKER} partitions per worker, and
+ * each partition is one task with its own rule engine, so tasks share nothing. Having more partitions than
+ * workers lets idle workers steal the remaining partitions when a few busy PANs make some partitions much larger;
+ * the largest partitions are submitted first for the same reason.
+ * <p>
+ * Trips are returned group by group in the iteration order of the groups map, whatever the number of workers and
+ * however the tasks were scheduled.
+ */
+class PartitionedGroupExecutor {
+
+    static final int PARTITIONS_PER_WORKER = 8;
+    private static final Comparator<TapModel> BY_DATE_TIME = Comparator.comparingLong(TapModel::getEpochSecond);
+
+    private final int workers;
+
+    PartitionedGroupExecutor(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.workers = workers;
+    }
+
+
+    TripBuffer execute(Map<GroupKey, List<TapModel>> groups, Supplier<BackToBackTapRuleEngine> ruleEngines) {
+        int partitionCount = workers == 1 ? 1 : workers * PARTITIONS_PER_WORKER;
+        List<List<TapModel>> orderedGroups = new ArrayList<>(groups.size());
+        int[] partitionOfGroup = new int[groups.size()];
+        int[] partitionGroupCounts = new int[partitionCount];
+        long[] partitionTapCounts = new long[partitionCount];
+
+        for (Map.Entry<GroupKey, List<TapModel>> group : groups.entrySet()) {
+            int partition = partition(group.getKey(), partitionCount);
+            partitionOfGroup[orderedGroups.size()] = partition;
+            partitionGroupCounts[partition]++;
+            partitionTapCounts[partition] += group.getValue().size();
+            orderedGroups.add(group.getValue());
+        }
+
+        int[][] partitions = new int[partitionCount][];
+        for (int partition = 0; partition < partitionCount; partition++) {
+            partitions[partition] = new int[partitionGroupCounts[partition]];
+            partitionGroupCounts[partition] = 0;
+        }
+        for (int group = 0; group < partitionOfGroup.length; group++) {
+            int partition = partitionOfGroup[group];
+            partitions[partition][partitionGroupCounts[partition]++] = group;
+        }
+
+        // Each partition fills its own buffer; [group] -> its partition's rows up to the end of the group
+        TripBuffer[] partitionTrips = new TripBuffer[partitionCount];
+        int[] groupEnds = new int[orderedGroups.size()];
+        if (partitionCount == 1) {
+            partitionTrips[0] = processPartition(partitions[0], orderedGroups, groupEnds, ruleEngines.get());
+        } else {
+            try (ForkJoinPool pool = new ForkJoinPool(workers)) {
+                List<ForkJoinTask<?>> tasks = IntStream.range(0, partitionCount).boxed()
+                        .sorted(Comparator.comparingLong((Integer partition) -> partitionTapCounts[partition]).reversed())
+                        .<ForkJoinTask<?>>map(partition -> pool.submit(() -> {
+                            partitionTrips[partition] = processPartition(partitions[partition], orderedGroups, groupEnds, ruleEngines.get());
+                        }))
+                        .toList();
+                // join() also makes every task's writes to partitionTrips and groupEnds visible here
+                tasks.forEach(ForkJoinTask::join);
+            }
+        }
+
+        if (partitionCount == 1) {
+            return partitionTrips[0];
+        }
+        int tripCount = 0;
+        for (TripBuffer trips : partitionTrips) {
+            tripCount += trips.size();
+        }
+        TripBuffer trips = new TripBuffer(tripCount);
+        int[] partitionRows = new int[partitionCount];
+        for (int group = 0; group < groupEnds.length; group++) {
+            int partition = partitionOfGroup[group];
+            trips.addAll(partitionTrips[partition], partitionRows[partition], groupEnds[group]);
+            partitionRows[partition] = groupEnds[group];
+        }
+        return trips;
+    }
+
+
+    private static TripBuffer processPartition(int[] partition, List<List<TapModel>> groups, int[] groupEnds,
+                                               BackToBackTapRuleEngine ruleEngine) {
+        TripBuffer trips = new TripBuffer(partition.length * 2);
+        for (int group : partition) {
+            processGroup(ruleEngine, groups.get(group), trips);
+            groupEnds[group] = trips.size();
+        }
+        return trips;
+    }
+
+
+    private static void processGroup(BackToBackTapRuleEngine ruleEngine, List<TapModel> group, TripBuffer trips) {
+        // Sort data based on dateTimeUTC, in place
+        group.sort(BY_DATE_TIME);
+
+        // The company's rules are chosen once for the whole group
+        RuleSet ruleSet = ruleEngine.ruleSetFor(group.get(0));
+
+        // GROUP_HEAD and GROUP_TAIL are passed as virtual boundaries around the group
+        TapModel previousTap = GROUP_HEAD_TAP;
+
+        for (TapModel currentTap : group) {
+            ruleEngine.processBackToBackTaps(ruleSet, previousTap, currentTap, trips);
+            previousTap = currentTap;
+        }
+        ruleEngine.processBackToBackTaps(ruleSet, previousTap, GROUP_TAIL_TAP, trips);
+    }
+
+
+    private static int partition(GroupKey key, int partitionCount) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), partitionCount);
+    }
+}
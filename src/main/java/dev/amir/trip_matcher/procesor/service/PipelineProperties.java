@@ -0,0 +1,45 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Concurrency limits and queue sizes of the pipelined mode, bound from {@code processing.pipeline}.
+ */
+@Data
+@ConfigurationProperties(prefix = "processing.pipeline")
+public class PipelineProperties {
+
+    // Tap files, directories (their .csv files) or glob patterns read by the pipeline; empty = csv.input-file.path
+    private List<Path> inputFiles = new ArrayList<>();
+
+    // JSON summary of each run, see RunManifest; null = none
+    private Path manifestFile;
+
+    // Files read at the same time
+    private int readers = 2;
+
+    // Companies whose trips are matched at the same time, 0 = available processors
+    private int processors = 0;
+
+    // Company output files written at the same time
+    private int writers = 2;
+
+    // Taps handed from a reader to a company at once
+    private int chunkSize = 1024;
+
+    // Chunks waiting for a company before its readers block
+    private int queueCapacity = 64;
+
+    // Matched companies waiting for a writer before the processors block
+    private int writeQueueCapacity = 4;
+
+
+    int effectiveProcessors() {
+        return processors > 0 ? processors : Runtime.getRuntime().availableProcessors();
+    }
+}
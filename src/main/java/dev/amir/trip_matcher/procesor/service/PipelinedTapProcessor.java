@@ -0,0 +1,400 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.FareTable;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.service.CsvReadingService;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.ruleengine.service.CompanyRuleSets;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.service.CsvWritingService;
+import dev.amir.trip_matcher.writer.service.TripWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Batch matching with the reading, matching and writing stages overlapped, one task per file reader, per company
+ * and per output writer.
+ * <p>
+ * Readers hand taps in chunks to the company they belong to, and each company groups its taps as they arrive.
+ * Once every file has been read, the companies are matched (at most {@link PipelineProperties#getProcessors()}
+ * at a time) and their trips are written to one file per company by the writers, so matching one company overlaps
+ * writing another. Queues between the stages are bounded: readers wait for a company that is falling behind and
+ * matched companies wait for a free writer, so the queues only hold a few chunks of taps and a few companies' trips.
+ * Like batch mode, the taps themselves are all held until every file has been read, since a group's taps may come
+ * from any file: memory grows with the input, and inputs larger than the heap need the external mode.
+ * <p>
+ * Tasks run on virtual threads unless {@code spring.threads.virtual.enabled} is false, in which case each task
+ * gets a platform thread. Trips are the same as in batch mode; only their split over files differs.
+ * <p>
+ * Input entries may be directories or glob patterns, expanded by {@link #expandInputFiles}, so that one run can
+ * match every file dropped since the previous one; the {@link Summary} counts the taps read from each file and the
+ * trips written to each company file, for a {@link RunManifest}.
+ */
+@Slf4j
+public class PipelinedTapProcessor {
+
+    private static final List<TapModel> END_OF_INPUT = List.of();
+    private static final Pattern GLOB = Pattern.compile("[*?\\[{]");
+    private static final CompanyTrips END_OF_TRIPS = new CompanyTrips(null, new TripBuffer(1));
+
+    private final TripFareManager tripFareManager;
+    private final CompanyRuleSets ruleSets;
+    private final TapTraceSampler traceSampler;
+    private final ProcessingMetrics metrics;
+    private final CsvReadingService csvReadingService;
+    private final CsvWritingService csvWritingService;
+    private final PipelineProperties properties;
+    private final ThreadFactory threadFactory;
+
+    public PipelinedTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler,
+                                 CsvReadingService csvReadingService, CsvWritingService csvWritingService,
+                                 PipelineProperties properties, boolean virtualThreads) {
+        this(tripFareManager, traceSampler, ProcessingMetrics.DISABLED, csvReadingService, csvWritingService, properties, virtualThreads);
+    }
+
+    /**
+     * @param metrics receives the matching time of each company, its group sizes and the rules fired
+     */
+    public PipelinedTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler, ProcessingMetrics metrics,
+                                 CsvReadingService csvReadingService, CsvWritingService csvWritingService,
+                                 PipelineProperties properties, boolean virtualThreads) {
+        this(tripFareManager, CompanyRuleSets.BUILT_IN, traceSampler, metrics, csvReadingService, csvWritingService, properties, virtualThreads);
+    }
+
+    /**
+     * @param ruleSets rules of each company
+     * @param metrics  receives the matching time of each company, its group sizes and the rules fired
+     */
+    public PipelinedTapProcessor(TripFareManager tripFareManager, CompanyRuleSets ruleSets, TapTraceSampler traceSampler,
+                                 ProcessingMetrics metrics, CsvReadingService csvReadingService, CsvWritingService csvWritingService,
+                                 PipelineProperties properties, boolean virtualThreads) {
+        if (properties.getReaders() < 1 || properties.getWriters() < 1 || properties.getProcessors() < 0
+            || properties.getChunkSize() < 1 || properties.getQueueCapacity() < 1 || properties.getWriteQueueCapacity() < 1) {
+            throw new IllegalArgumentException("Invalid pipeline properties: " + properties);
+        }
+        this.tripFareManager = tripFareManager;
+        this.ruleSets = ruleSets;
+        this.traceSampler = traceSampler;
+        this.metrics = metrics;
+        this.csvReadingService = csvReadingService;
+        this.csvWritingService = csvWritingService;
+        this.properties = properties;
+        this.threadFactory = (virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform()).name("pipeline-", 0).factory();
+    }
+
+
+    /**
+     * Matches the taps of all input files, writing the trips of each company next to {@code outputFile}.
+     */
+    public Summary run(List<Path> inputFiles, Path outputFile) throws IOException {
+        // The whole run is priced with the fares published when it starts, like a batch
+        FareTable fareTable = tripFareManager.getFareTable();
+        Run run = new Run(fareTable, outputFile);
+        Files.createDirectories(outputFile.toAbsolutePath().getParent());
+
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(threadFactory)) {
+            run.executor = executor;
+            Queue<Path> pendingFiles = new ConcurrentLinkedQueue<>(new LinkedHashSet<>(inputFiles));
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < Math.min(properties.getReaders(), inputFiles.size()); i++) {
+                readers.add(run.submit(() -> run.read(pendingFiles)));
+            }
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < properties.getWriters(); i++) {
+                writers.add(run.submit(run::write));
+            }
+
+            run.await(readers);
+            for (Company company : run.companies.values()) {
+                company.taps.put(END_OF_INPUT);
+            }
+            run.await(run.companies.values().stream().<Future<?>>map(company -> company.task).toList());
+            for (int i = 0; i < writers.size(); i++) {
+                run.trips.put(END_OF_TRIPS);
+            }
+            run.await(writers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while matching taps", e);
+        }
+
+        List<Path> outputFiles = run.companies.values().stream().map(company -> company.outputFile).sorted().toList();
+        List<FileSummary> inputs = inputFiles.stream().distinct()
+                .map(file -> new FileSummary(file, run.inputTaps.getOrDefault(file, 0L), sizeOf(file))).toList();
+        List<FileSummary> outputs = outputFiles.stream()
+                .map(file -> new FileSummary(file, run.outputTrips.getOrDefault(file, 0L), sizeOf(file))).toList();
+        return new Summary(run.tapCount.get(), run.tripCount.get(), outputFiles, inputs, outputs);
+    }
+
+
+    /**
+     * Expands directories into the .csv files they contain and glob patterns (e.g. {@code data/taps-2024-01-*.csv},
+     * with {@code **} crossing directories) into the regular files they match, each in name order; other entries
+     * are kept as they are, so that a missing file still fails the run. A file listed twice is read once.
+     */
+    public static List<Path> expandInputFiles(List<Path> entries) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry)) {
+                try (Stream<Path> children = Files.list(entry)) {
+                    children.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".csv"))
+                            .sorted()
+                            .forEach(files::add);
+                }
+            } else if (GLOB.matcher(entry.toString()).find()) {
+                List<Path> matches = glob(entry);
+                if (matches.isEmpty()) {
+                    log.warn("No tap file matches {}", entry);
+                }
+                files.addAll(matches);
+            } else {
+                files.add(entry);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+
+    private static List<Path> glob(Path pattern) throws IOException {
+        // Walks from the longest leading part of the pattern without wildcards
+        Path base = pattern.getRoot() != null ? pattern.getRoot() : Path.of("");
+        int depth = 0;
+        for (Path element : pattern) {
+            if (depth == 0 && !GLOB.matcher(element.toString()).find()) {
+                base = base.resolve(element);
+            } else {
+                depth++;
+            }
+        }
+        if (pattern.toString().contains("**")) {
+            depth = Integer.MAX_VALUE;
+        }
+
+        PathMatcher matcher = pattern.getFileSystem().getPathMatcher("glob:" + pattern);
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(base, depth)) {
+            return paths.filter(path -> Files.isRegularFile(path) && matcher.matches(path)).sorted().toList();
+        }
+    }
+
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * @return {@code outputFile} with the company appended to its name, e.g. trips-Company1.csv
+     */
+    static Path companyOutputFile(Path outputFile, String companyId) {
+        String fileName = outputFile.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String stem = extension > 0 ? fileName.substring(0, extension) : fileName;
+        String suffix = extension > 0 ? fileName.substring(extension) : "";
+        return outputFile.resolveSibling(stem + "-" + companyId.replaceAll("[^A-Za-z0-9._-]", "_") + suffix);
+    }
+
+
+    /**
+     * @param inputs  taps read from each input file
+     * @param outputs trips written to each company file
+     */
+    public record Summary(long tapCount, long tripCount, List<Path> outputFiles, List<FileSummary> inputs, List<FileSummary> outputs) {
+    }
+
+
+    /**
+     * @param rows taps read from an input file, or trips written to an output file
+     */
+    public record FileSummary(Path path, long rows, long bytes) {
+    }
+
+
+    private record CompanyTrips(Company company, TripBuffer trips) {
+    }
+
+
+    private static final class Company {
+        private final Path outputFile;
+        private final BlockingQueue<List<TapModel>> taps;
+        private Future<?> task;
+
+        private Company(Path outputFile, int queueCapacity) {
+            this.outputFile = outputFile;
+            this.taps = new ArrayBlockingQueue<>(queueCapacity);
+        }
+    }
+
+
+    /**
+     * State of one {@link #run}; the first failing task cancels all the others.
+     */
+    private final class Run {
+        private final FareTable fareTable;
+        private final Path outputFile;
+        private final Map<Integer, Company> companies = new ConcurrentHashMap<>();
+        private final BlockingQueue<CompanyTrips> trips = new ArrayBlockingQueue<>(properties.getWriteQueueCapacity());
+        private final Semaphore processorPermits = new Semaphore(properties.effectiveProcessors());
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final AtomicLong tapCount = new AtomicLong();
+        private final AtomicLong tripCount = new AtomicLong();
+        private final Map<Path, Long> inputTaps = new ConcurrentHashMap<>();
+        private final Map<Path, Long> outputTrips = new ConcurrentHashMap<>();
+        private ExecutorService executor;
+
+        private Run(FareTable fareTable, Path outputFile) {
+            this.fareTable = fareTable;
+            this.outputFile = outputFile;
+        }
+
+
+        private Future<?> submit(Callable<Void> task) {
+            try {
+                return executor.submit(() -> {
+                    try {
+                        return task.call();
+                    } catch (Exception e) {
+                        if (failure.compareAndSet(null, e)) {
+                            executor.shutdownNow();
+                        }
+                        throw e;
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // A task already failed and shut the executor down: this one fails the same way
+                return CompletableFuture.failedFuture(failure.get());
+            }
+        }
+
+
+        private void await(List<Future<?>> tasks) throws IOException, InterruptedException {
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    // Report the failure that cancelled the run rather than the interruptions it caused
+                    Exception cause = failure.get();
+                    throw cause instanceof IOException io ? io : new IOException("Error matching taps", cause);
+                }
+            }
+        }
+
+
+        private Void read(Queue<Path> pendingFiles) throws IOException, InterruptedException {
+            Map<Integer, List<TapModel>> chunks = new HashMap<>();
+            for (Path file = pendingFiles.poll(); file != null; file = pendingFiles.poll()) {
+                long fileTaps = csvReadingService.readTapsCsv(file, tap -> {
+                    List<TapModel> chunk = chunks.computeIfAbsent(tap.getCompanyCode(), code -> new ArrayList<>(properties.getChunkSize()));
+                    chunk.add(tap);
+                    if (chunk.size() == properties.getChunkSize()) {
+                        hand(tap.getCompanyCode(), chunks.remove(tap.getCompanyCode()));
+                    }
+                });
+                inputTaps.merge(file, fileTaps, Long::sum);
+                tapCount.addAndGet(fileTaps);
+            }
+            for (Map.Entry<Integer, List<TapModel>> chunk : chunks.entrySet()) {
+                company(chunk.getKey()).taps.put(chunk.getValue());
+            }
+            return null;
+        }
+
+
+        private void hand(int companyCode, List<TapModel> chunk) {
+            try {
+                company(companyCode).taps.put(chunk);
+            } catch (InterruptedException e) {
+                // The reader's consumer cannot throw checked exceptions
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted handing taps to a company"));
+            }
+        }
+
+
+        private Company company(int companyCode) {
+            return companies.computeIfAbsent(companyCode, code -> {
+                Company company = new Company(companyOutputFile(outputFile, IdDictionary.COMPANIES.decode(code)), properties.getQueueCapacity());
+                company.task = submit(() -> match(company));
+                return company;
+            });
+        }
+
+
+        private Void match(Company company) throws InterruptedException {
+            Map<GroupKey, List<TapModel>> groups = new HashMap<>();
+            for (List<TapModel> chunk = company.taps.take(); chunk != END_OF_INPUT; chunk = company.taps.take()) {
+                for (TapModel tap : chunk) {
+                    TapProcessor.addToGroup(groups, tap);
+                }
+            }
+
+            TripBuffer companyTrips;
+            processorPermits.acquire();
+            try {
+                long startNanos = System.nanoTime();
+                companyTrips = new PartitionedGroupExecutor(1).execute(groups, () -> new BackToBackTapRuleEngine(fareTable, ruleSets, traceSampler, metrics));
+                if (metrics.isEnabled()) {
+                    metrics.recordStage(ProcessingMetrics.Stage.MATCH, startNanos);
+                    groups.values().forEach(group -> metrics.recordGroupSize(group.size()));
+                }
+            } finally {
+                processorPermits.release();
+            }
+            trips.put(new CompanyTrips(company, companyTrips));
+            return null;
+        }
+
+
+        private Void write() throws IOException, InterruptedException {
+            for (CompanyTrips companyTrips = trips.take(); companyTrips != END_OF_TRIPS; companyTrips = trips.take()) {
+                try (TripWriter writer = csvWritingService.openTripWriter(companyTrips.company().outputFile)) {
+                    writer.writeAll(companyTrips.trips());
+                }
+                outputTrips.put(companyTrips.company().outputFile, (long) companyTrips.trips().size());
+                tripCount.addAndGet(companyTrips.trips().size());
+            }
+            return null;
+        }
+    }
+
+}
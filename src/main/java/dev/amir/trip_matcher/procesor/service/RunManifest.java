@@ -0,0 +1,79 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * What one multi-file run did, written as JSON next to its outputs: whether it succeeded, when it ran, the fares
+ * it was priced with, the taps read from each input file and the trips written to each company file. Schedulers
+ * read it to tell which files have been processed instead of parsing logs.
+ * <p>
+ * The manifest is written to a temporary file and moved into place, so a reader never sees half of it.
+ */
+@Slf4j
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record RunManifest(Status status, String startedAt, String finishedAt, long durationMillis, long fareVersion,
+                          long tapCount, long tripCount, List<FileEntry> inputs, List<FileEntry> outputs, String error) {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public enum Status {
+        SUCCEEDED, FAILED
+    }
+
+    /**
+     * @param rows taps read from an input file, or trips written to an output file
+     */
+    public record FileEntry(String path, long rows, long bytes) {
+    }
+
+
+    public static RunManifest succeeded(PipelinedTapProcessor.Summary summary, Instant startedAt, Instant finishedAt, long fareVersion) {
+        return new RunManifest(Status.SUCCEEDED, startedAt.toString(), finishedAt.toString(), Duration.between(startedAt, finishedAt).toMillis(),
+                fareVersion, summary.tapCount(), summary.tripCount(), entries(summary.inputs()), entries(summary.outputs()), null);
+    }
+
+
+    /**
+     * A run that stopped on {@code error}: its outputs, if any, are incomplete and the inputs have to be run again.
+     */
+    public static RunManifest failed(List<Path> inputFiles, Instant startedAt, Instant finishedAt, long fareVersion, Exception error) {
+        List<FileEntry> inputs = inputFiles.stream().map(file -> new FileEntry(file.toString(), 0, 0)).toList();
+        return new RunManifest(Status.FAILED, startedAt.toString(), finishedAt.toString(), Duration.between(startedAt, finishedAt).toMillis(),
+                fareVersion, 0, 0, inputs, List.of(), String.valueOf(error.getMessage()));
+    }
+
+
+    public static RunManifest read(Path path) throws IOException {
+        return MAPPER.readValue(path.toFile(), RunManifest.class);
+    }
+
+
+    public void write(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            MAPPER.writeValue(temporary.toFile(), this);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        log.info("Wrote {} run manifest to {}", status, path);
+    }
+
+
+    private static List<FileEntry> entries(List<PipelinedTapProcessor.FileSummary> files) {
+        return files.stream().map(file -> new FileEntry(file.path().toString(), file.rows(), file.bytes())).toList();
+    }
+}
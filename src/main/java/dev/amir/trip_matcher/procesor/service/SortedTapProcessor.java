@@ -0,0 +1,169 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.parser.TapCsvParser;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.ruleengine.service.CompanyRuleSets;
+import dev.amir.trip_matcher.ruleengine.service.RuleSet;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.service.TripWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_HEAD_TAP;
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_TAIL_TAP;
+
+/**
+ * Counterpart of {@link TapProcessor} for taps already sorted by (companyId, busId, pan) and then dateTimeUTC,
+ * such as a {@link dev.amir.trip_matcher.reader.parser.ColumnarTapFile}. Nothing is grouped or sorted: a group
+ * ends when the key changes, so only the previous tap is kept and trips are handed to the sink as they close.
+ * <p>
+ * Taps may be reused by the caller once the next-but-one tap has been accepted. Input that breaks the order
+ * fails with an {@link UnsortedInputException} rather than silently producing wrong trips.
+ * <p>
+ * The stream is priced with the fares published when the processor is created.
+ * Instances are stateful and not thread-safe: use one per input stream.
+ */
+public class SortedTapProcessor {
+
+    private final BackToBackTapRuleEngine ruleEngine;
+    private final TripBuffer closedTrips = new TripBuffer();
+    private TapModel previousTap = GROUP_HEAD_TAP;
+    private RuleSet ruleSet;
+
+    public SortedTapProcessor(TripFareManager tripFareManager) {
+        this(tripFareManager, TapTraceSampler.DISABLED);
+    }
+
+    public SortedTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler) {
+        this(tripFareManager, traceSampler, ProcessingMetrics.DISABLED);
+    }
+
+    public SortedTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler, ProcessingMetrics metrics) {
+        this(tripFareManager, CompanyRuleSets.BUILT_IN, traceSampler, metrics);
+    }
+
+    public SortedTapProcessor(TripFareManager tripFareManager, CompanyRuleSets ruleSets, TapTraceSampler traceSampler,
+                              ProcessingMetrics metrics) {
+        this.ruleEngine = new BackToBackTapRuleEngine(tripFareManager.getFareTable(), ruleSets, traceSampler, metrics);
+    }
+
+
+    public void accept(TapModel tap, Consumer<TripModel> sink) {
+        match(tap);
+        drain(sink);
+    }
+
+
+    /**
+     * Same as {@link #accept(TapModel, Consumer)}, writing closed trips straight from the buffer they are matched
+     * into, without creating a {@link TripModel} per trip.
+     */
+    public void accept(TapModel tap, TripWriter writer) {
+        match(tap);
+        drain(writer);
+    }
+
+
+    /**
+     * Checks that a taps file is sorted by companyId, busId, pan and dateTimeUTC by parsing it, without matching or
+     * writing anything, and stops at the first tap out of order. Cheap enough to run before deciding how to
+     * process the file.
+     *
+     * @throws UnsortedInputException at the first tap out of order
+     */
+    public static void verifyOrder(Path file) throws IOException {
+        TapModel[] previous = {null};
+        new TapCsvParser().parseFile(file, tap -> {
+            if (previous[0] != null) {
+                requireOrder(previous[0], tap);
+            }
+            previous[0] = tap;
+        });
+    }
+
+
+    private void match(TapModel tap) {
+        if (previousTap != GROUP_HEAD_TAP) {
+            int order = requireOrder(previousTap, tap);
+            if (order != 0) {
+                ruleEngine.processBackToBackTaps(ruleSet, previousTap, GROUP_TAIL_TAP, closedTrips);
+                previousTap = GROUP_HEAD_TAP;
+            }
+        }
+        if (previousTap == GROUP_HEAD_TAP) {
+            // The company's rules are chosen once for the whole group
+            ruleSet = ruleEngine.ruleSetFor(tap);
+        }
+
+        ruleEngine.processBackToBackTaps(ruleSet, previousTap, tap, closedTrips);
+        previousTap = tap;
+    }
+
+
+    /**
+     * Closes the last group.
+     */
+    public void finish(Consumer<TripModel> sink) {
+        closeLastGroup();
+        drain(sink);
+    }
+
+
+    public void finish(TripWriter writer) {
+        closeLastGroup();
+        drain(writer);
+    }
+
+
+    private void closeLastGroup() {
+        if (previousTap != GROUP_HEAD_TAP) {
+            ruleEngine.processBackToBackTaps(ruleSet, previousTap, GROUP_TAIL_TAP, closedTrips);
+        }
+        previousTap = GROUP_HEAD_TAP;
+    }
+
+
+    private void drain(Consumer<TripModel> sink) {
+        for (int row = 0; row < closedTrips.size(); row++) {
+            sink.accept(closedTrips.get(row));
+        }
+        closedTrips.clear();
+    }
+
+
+    private void drain(TripWriter writer) {
+        for (int row = 0; row < closedTrips.size(); row++) {
+            writer.write(closedTrips, row);
+        }
+        closedTrips.clear();
+    }
+
+
+    /**
+     * @return the order of the two taps' groups, 0 for the same group
+     */
+    private static int requireOrder(TapModel previousTap, TapModel tap) {
+        int order = GroupKey.compare(previousTap, tap);
+        if (order > 0 || (order == 0 && tap.getEpochSecond() < previousTap.getEpochSecond())) {
+            throw new UnsortedInputException("Taps are not sorted by companyId, busId, pan and dateTimeUTC: " + tap
+                                            + " follows " + previousTap);
+        }
+        return order;
+    }
+
+
+    public static class UnsortedInputException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsortedInputException(String message) {
+            super(message);
+        }
+    }
+}
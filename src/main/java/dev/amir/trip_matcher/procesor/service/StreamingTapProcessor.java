@@ -0,0 +1,307 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.ruleengine.service.CompanyRuleSets;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.service.TripWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_HEAD_TAP;
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_TAIL_TAP;
+
+/**
+ * Incremental counterpart of {@link TapProcessor}. Taps are pushed one at a time and trips are handed to the
+ * sink as soon as they close, so memory grows with the number of open trips rather than with the input size.
+ * <p>
+ * Taps are expected in dateTimeUTC order within each (companyId, busId, pan) group, which is how tap exports
+ * are produced. Only a trailing ON tap can still produce a trip, so the state of a group is dropped as soon as
+ * its last tap is an OFF; the next tap of that group then starts from GROUP_HEAD exactly as it would have
+ * after an OFF in the batch processor.
+ * <p>
+ * Open trips are copied into an {@link OpenTripStore}, outside the heap, so accepted taps may be reused by the
+ * caller. With {@link #evictClosedPans}, the PANs of groups without an open trip are also evicted from the PAN
+ * dictionary, which would otherwise hold every PAN ever read.
+ * <p>
+ * With {@link #expireInactive}, an open trip is closed as INCOMPLETE once it has been inactive longer than the
+ * timeout: by the next tap of its group when that tap comes later than the timeout, or by {@link #expire} for the
+ * groups without such a tap yet. Both measure the timeout in tap time, so the trips do not depend on where an input
+ * split into batches in time order is cut.
+ * <p>
+ * Each trip is priced with the latest fares published when it closes, so that a long-running stream picks up
+ * reloaded fares without a restart.
+ * Instances are stateful and not thread-safe: use one per input stream.
+ */
+@Slf4j
+public class StreamingTapProcessor {
+
+    private static final int MIN_EVICTION_SIZE = 1 << 16;
+
+    private final BackToBackTapRuleEngine ruleEngine;
+    private final OpenTripStore openTrips;
+    private final TripBuffer closedTrips = new TripBuffer();
+    private final TapModel previousTap = new TapModel();
+    private long latestTapTime = TapModel.NO_TIME;
+    // Open trips of each PAN code, across its (companyId, busId) groups
+    private int[] openTripsByPan = new int[0];
+    private Iterable<TapModel> pendingTaps;
+    private long nextEvictionSize = Long.MAX_VALUE;
+    private long inactivityTimeoutSeconds;
+    private int expiredTripCount;
+
+    public StreamingTapProcessor(TripFareManager tripFareManager) {
+        this(tripFareManager, TapTraceSampler.DISABLED);
+    }
+
+    public StreamingTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler) {
+        this(tripFareManager, traceSampler, ProcessingMetrics.DISABLED);
+    }
+
+    public StreamingTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler, ProcessingMetrics metrics) {
+        this(tripFareManager, traceSampler, metrics, new OpenTripStore());
+    }
+
+    public StreamingTapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler, ProcessingMetrics metrics,
+                                 OpenTripStore openTrips) {
+        this(tripFareManager, CompanyRuleSets.BUILT_IN, traceSampler, metrics, openTrips);
+    }
+
+    /**
+     * @param ruleSets rules of each company; taps of different groups are interleaved, so they are chosen per tap
+     */
+    public StreamingTapProcessor(TripFareManager tripFareManager, CompanyRuleSets ruleSets, TapTraceSampler traceSampler,
+                                 ProcessingMetrics metrics, OpenTripStore openTrips) {
+        this.ruleEngine = new BackToBackTapRuleEngine(tripFareManager, ruleSets, traceSampler, metrics);
+        this.openTrips = openTrips;
+    }
+
+
+    public void accept(TapModel tap, Consumer<TripModel> sink) {
+        match(tap);
+        drain(sink);
+        evictPans();
+    }
+
+
+    /**
+     * Same as {@link #accept(TapModel, Consumer)}, writing closed trips straight from the buffer they are matched
+     * into, without creating a {@link TripModel} per trip.
+     */
+    public void accept(TapModel tap, TripWriter writer) {
+        match(tap);
+        drain(writer);
+        evictPans();
+    }
+
+
+    /**
+     * Evicts from {@link IdDictionary#PANS} the PANs no open trip refers to, each time the dictionary has doubled.
+     * Only for a processor that owns the PAN codes: taps created before they are accepted may no longer decode.
+     *
+     * @param pendingTaps taps read but not accepted yet, whose PANs are kept too
+     */
+    public void evictClosedPans(Iterable<TapModel> pendingTaps) {
+        this.pendingTaps = pendingTaps;
+        this.nextEvictionSize = nextEvictionSize();
+    }
+
+
+    /**
+     * Closes as INCOMPLETE, instead of matching it with the next tap of its group, every open trip inactive for
+     * longer than {@code inactivityTimeout}: as {@link #expire} would have at the end of a batch between the two.
+     */
+    public void expireInactive(Duration inactivityTimeout) {
+        this.inactivityTimeoutSeconds = inactivityTimeout.toSeconds();
+    }
+
+
+    private void match(TapModel tap) {
+        int slot = openTrips.find(tap.getCompanyCode(), tap.getBusCode(), tap.getPanCode());
+        if (slot != OpenTripStore.NOT_FOUND) {
+            openTrips.read(slot, previousTap);
+            if (inactivityTimeoutSeconds > 0 && tap.getEpochSecond() - previousTap.getEpochSecond() > inactivityTimeoutSeconds) {
+                ruleEngine.processBackToBackTaps(previousTap, GROUP_TAIL_TAP, closedTrips);
+                openTrips.remove(slot);
+                openTripsByPan[tap.getPanCode()]--;
+                expiredTripCount++;
+                slot = OpenTripStore.NOT_FOUND;
+            }
+        }
+
+        ruleEngine.processBackToBackTaps(slot != OpenTripStore.NOT_FOUND ? previousTap : GROUP_HEAD_TAP, tap, closedTrips);
+
+        if (tap.getTapType() == TapType.ON) {
+            openTrips.put(tap);
+            if (slot == OpenTripStore.NOT_FOUND) {
+                openTripAdded(tap.getPanCode());
+            }
+        } else if (slot != OpenTripStore.NOT_FOUND) {
+            openTrips.remove(slot);
+            openTripsByPan[tap.getPanCode()]--;
+        }
+        latestTapTime = Math.max(latestTapTime, tap.getEpochSecond());
+    }
+
+
+    /**
+     * Resumes from the open trips of a previous run, e.g. read from an {@link OpenTripCheckpoint}.
+     */
+    public void restore(Collection<TapModel> openTaps, LocalDateTime latestTapTime) {
+        openTaps.forEach(openTap -> {
+            if (openTrips.find(openTap.getCompanyCode(), openTap.getBusCode(), openTap.getPanCode()) == OpenTripStore.NOT_FOUND) {
+                openTripAdded(openTap.getPanCode());
+            }
+            openTrips.put(openTap);
+        });
+        if (latestTapTime != null) {
+            this.latestTapTime = Math.max(this.latestTapTime, latestTapTime.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+
+    /**
+     * Closes as INCOMPLETE every open trip whose ON tap is older than {@code cutoff}; the others stay open.
+     *
+     * @return the number of trips closed
+     */
+    public int expire(LocalDateTime cutoff, Consumer<TripModel> sink) {
+        return expire(cutoff.toEpochSecond(ZoneOffset.UTC), sink);
+    }
+
+
+    int expire(long cutoffEpochSecond, Consumer<TripModel> sink) {
+        int expired = openTrips.removeOlderThan(cutoffEpochSecond, expiredTap -> {
+            openTripsByPan[expiredTap.getPanCode()]--;
+            ruleEngine.processBackToBackTaps(expiredTap, GROUP_TAIL_TAP, closedTrips);
+            drain(sink);
+        });
+        expiredTripCount += expired;
+        return expired;
+    }
+
+
+    /**
+     * Closes the process period: every trip still open becomes INCOMPLETE.
+     */
+    public void finish(Consumer<TripModel> sink) {
+        log.info("Closing {} open trips", openTrips.size());
+
+        openTrips.forEach(openTap -> {
+            ruleEngine.processBackToBackTaps(openTap, GROUP_TAIL_TAP, closedTrips);
+            drain(sink);
+        });
+        openTrips.clear();
+        Arrays.fill(openTripsByPan, 0);
+    }
+
+
+    public void finish(TripWriter writer) {
+        log.info("Closing {} open trips", openTrips.size());
+
+        openTrips.forEach(openTap -> {
+            ruleEngine.processBackToBackTaps(openTap, GROUP_TAIL_TAP, closedTrips);
+            drain(writer);
+        });
+        openTrips.clear();
+        Arrays.fill(openTripsByPan, 0);
+    }
+
+
+    /**
+     * @return the trips closed for inactivity, by {@link #expire} or by the next tap of their group
+     */
+    public int getExpiredTripCount() {
+        return expiredTripCount;
+    }
+
+
+    public int openTripCount() {
+        return openTrips.size();
+    }
+
+
+    /**
+     * A copy of the ON taps of the trips still open, one per (companyId, busId, pan) group.
+     */
+    public List<TapModel> openTaps() {
+        return openTrips.toTaps();
+    }
+
+
+    /**
+     * Memory held outside the heap by the open trips.
+     */
+    public long openTripBytes() {
+        return openTrips.offHeapBytes();
+    }
+
+
+    /**
+     * The latest dateTimeUTC seen so far, including restored state; null before the first tap.
+     */
+    public LocalDateTime getLatestTapTime() {
+        return latestTapTime == TapModel.NO_TIME ? null : LocalDateTime.ofEpochSecond(latestTapTime, 0, ZoneOffset.UTC);
+    }
+
+
+    private void openTripAdded(int panCode) {
+        if (panCode >= openTripsByPan.length) {
+            openTripsByPan = Arrays.copyOf(openTripsByPan, Math.max(panCode + 1, openTripsByPan.length * 2));
+        }
+        openTripsByPan[panCode]++;
+    }
+
+
+    private void evictPans() {
+        if (IdDictionary.PANS.size() < nextEvictionSize) {
+            return;
+        }
+        BitSet live = new BitSet(openTripsByPan.length);
+        for (int panCode = 0; panCode < openTripsByPan.length; panCode++) {
+            if (openTripsByPan[panCode] > 0) {
+                live.set(panCode);
+            }
+        }
+        pendingTaps.forEach(pendingTap -> live.set(pendingTap.getPanCode()));
+        int evicted = IdDictionary.PANS.retainOnly(live);
+        nextEvictionSize = nextEvictionSize();
+        log.debug("Evicted {} PANs without an open trip, {} kept", evicted, IdDictionary.PANS.size());
+    }
+
+
+    // Waiting for the dictionary to double keeps the sweep O(1) per tap
+    private static long nextEvictionSize() {
+        return Math.max(MIN_EVICTION_SIZE, 2L * IdDictionary.PANS.size());
+    }
+
+
+    private void drain(Consumer<TripModel> sink) {
+        for (int row = 0; row < closedTrips.size(); row++) {
+            sink.accept(closedTrips.get(row));
+        }
+        closedTrips.clear();
+    }
+
+
+    private void drain(TripWriter writer) {
+        for (int row = 0; row < closedTrips.size(); row++) {
+            writer.write(closedTrips, row);
+        }
+        closedTrips.clear();
+    }
+}
@@ -1,98 +1,107 @@
 package dev.amir.trip_matcher.procesor.service;
 
+import dev.amir.trip_matcher.datastore.FareTable;
 import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
 import dev.amir.trip_matcher.reader.model.TapModel;
 import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import dev.amir.trip_matcher.ruleengine.service.CompanyRuleSets;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
 import dev.amir.trip_matcher.writer.model.TripModel;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
 
-@Service
 @Slf4j
 public class TapProcessor {
 
     public static final String UNKNOWN = "UNKNOWN";
-    private final BackToBackTapRuleEngine ruleEngine;
+    private final TripFareManager tripFareManager;
+    private final TapTraceSampler traceSampler;
+    private final PartitionedGroupExecutor executor;
+    private final ProcessingMetrics metrics;
+    private final CompanyRuleSets ruleSets;
 
     public TapProcessor(TripFareManager tripFareManager) {
-        this.ruleEngine = new BackToBackTapRuleEngine(tripFareManager);
+        this(tripFareManager, TapTraceSampler.DISABLED);
     }
 
-    public List<TripModel> tripMaker(List<TapModel> taps) {
-
-        return taps.parallelStream()
-                // Group data based on companyId, busId, and pan
-                .collect(Collectors.groupingBy(
-                        tap -> new GroupKey(tap.getCompanyId(), tap.getBusId(), tap.getPan()),
-                        Collectors.toList()))
-                .values().stream()
-
-                // Sort data based on dateTimeUTC
-                .flatMap(group -> group.parallelStream().sorted(Comparator.comparing(TapModel::getDateTimeUTC)))
-
-                // Process each group and create TripModels
-                .collect(Collectors.groupingBy(tap -> new GroupKey(tap.getCompanyId(), tap.getBusId(), tap.getPan())))
-                .values().stream()
-                .flatMap(group -> {
-                    List<TripModel> trips = new ArrayList<>();
-                    TapModel previousTap = addHeadAndTail(group);
-
-                    for (TapModel currentTap : group) {
-                        ruleEngine.processBackToBackTaps(previousTap, currentTap, trips);
-                        previousTap = currentTap;
-                    }
-                    return trips.stream();
-                }).toList();
+    public TapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler) {
+        this(tripFareManager, traceSampler, Runtime.getRuntime().availableProcessors());
     }
 
+    /**
+     * @param workers threads processing the groups of a batch
+     */
+    public TapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler, int workers) {
+        this(tripFareManager, traceSampler, workers, ProcessingMetrics.DISABLED);
+    }
 
-    private static TapModel addHeadAndTail(List<TapModel> group) {
-        // Add a dummy tail element to the group to handle the last iteration
-        group.add(new TapModel(0, null, "GROUP_TAIL", UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN));
-
-        // Add a dummy head element to the group to handle the first iteration
-        TapModel previousTap = new TapModel(0, null, "GROUP_HEAD", UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
-        group.add(0, previousTap);
-
-        return previousTap;
+    /**
+     * @param workers threads processing the groups of a batch
+     * @param metrics receives the grouping and matching times, the group sizes and the rules fired
+     */
+    public TapProcessor(TripFareManager tripFareManager, TapTraceSampler traceSampler, int workers, ProcessingMetrics metrics) {
+        this(tripFareManager, CompanyRuleSets.BUILT_IN, traceSampler, workers, metrics);
     }
 
+    /**
+     * @param ruleSets rules of each company, chosen once per group
+     * @param workers  threads processing the groups of a batch
+     * @param metrics  receives the grouping and matching times, the group sizes and the rules fired
+     */
+    public TapProcessor(TripFareManager tripFareManager, CompanyRuleSets ruleSets, TapTraceSampler traceSampler, int workers,
+                        ProcessingMetrics metrics) {
+        this.tripFareManager = tripFareManager;
+        this.ruleSets = ruleSets;
+        this.traceSampler = traceSampler;
+        this.executor = new PartitionedGroupExecutor(workers);
+        this.metrics = metrics;
+    }
 
-    private static class GroupKey {
-        private final String companyId;
-        private final String busId;
-        private final String pan;
+    public List<TripModel> tripMaker(List<TapModel> taps) {
+        return match(taps).toTripModels();
+    }
 
-        public GroupKey(String companyId, String busId, String pan) {
-            this.companyId = companyId;
-            this.busId = busId;
-            this.pan = pan;
+    /**
+     * Same trips as {@link #tripMaker}, in the compact form the writers format without materializing a TripModel.
+     */
+    public TripBuffer match(List<TapModel> taps) {
+        // The whole batch is priced with the fares published when it starts, even if they are reloaded meanwhile
+        FareTable fareTable = tripFareManager.getFareTable();
+
+        // Group data based on companyId, busId, and pan in a single pass
+        long startNanos = System.nanoTime();
+        Map<GroupKey, List<TapModel>> groups = new HashMap<>();
+        for (TapModel tap : taps) {
+            addToGroup(groups, tap);
         }
-
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            GroupKey groupKey = (GroupKey) o;
-            return Objects.equals(companyId, groupKey.companyId) &&
-                   Objects.equals(busId, groupKey.busId) &&
-                   Objects.equals(pan, groupKey.pan);
+        if (metrics.isEnabled()) {
+            metrics.recordStage(ProcessingMetrics.Stage.GROUP, startNanos);
+            groups.values().forEach(group -> metrics.recordGroupSize(group.size()));
         }
 
+        // Process each group and create TripModels, one rule engine per partition of groups
+        startNanos = System.nanoTime();
+        TripBuffer trips = executor.execute(groups, () -> new BackToBackTapRuleEngine(fareTable, ruleSets, traceSampler, metrics));
+        metrics.recordStage(ProcessingMetrics.Stage.MATCH, startNanos);
+        return trips;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(companyId, busId, pan);
+
+    static void addToGroup(Map<GroupKey, List<TapModel>> groups, TapModel tap) {
+        // put, unlike computeIfAbsent, appends to a bucket of colliding keys: their groups are matched (and their
+        // trips written) in the order they were first seen
+        GroupKey key = GroupKey.of(tap);
+        List<TapModel> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(key, group);
         }
+        group.add(tap);
     }
 }
-
-
-
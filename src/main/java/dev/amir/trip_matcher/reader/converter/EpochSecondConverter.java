@@ -3,15 +3,15 @@ package dev.amir.trip_matcher.reader.converter;
 import com.opencsv.bean.AbstractBeanField;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
-public class LocalDateTimeConverter extends AbstractBeanField<LocalDateTime, String> {
+public class EpochSecondConverter extends AbstractBeanField<Long, String> {
 
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
 
     @Override
-    protected LocalDateTime convert(String value) {
-        return LocalDateTime.parse(value.trim(), formatter);
+    protected Long convert(String value) {
+        return LocalDateTime.parse(value.trim(), formatter).toEpochSecond(ZoneOffset.UTC);
     }
 }
-
@@ -0,0 +1,46 @@
+package dev.amir.trip_matcher.reader.converter;
+
+import com.opencsv.bean.AbstractBeanField;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+
+/**
+ * Trims an identifier column and replaces it with its dictionary code.
+ */
+public abstract class IdDictionaryConverter extends AbstractBeanField<Integer, String> {
+
+    private final IdDictionary dictionary;
+
+    protected IdDictionaryConverter(IdDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    protected Integer convert(String value) {
+        return dictionary.encode(value.trim());
+    }
+
+
+    public static class Stop extends IdDictionaryConverter {
+        public Stop() {
+            super(IdDictionary.STOPS);
+        }
+    }
+
+    public static class Company extends IdDictionaryConverter {
+        public Company() {
+            super(IdDictionary.COMPANIES);
+        }
+    }
+
+    public static class Bus extends IdDictionaryConverter {
+        public Bus() {
+            super(IdDictionary.BUSES);
+        }
+    }
+
+    public static class Pan extends IdDictionaryConverter {
+        public Pan() {
+            super(IdDictionary.PANS);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package dev.amir.trip_matcher.reader.converter;
+
+import com.opencsv.bean.AbstractBeanField;
+import dev.amir.trip_matcher.reader.model.TapType;
+
+public class TapTypeConverter extends AbstractBeanField<TapType, String> {
+
+    @Override
+    protected TapType convert(String value) {
+        return TapType.from(value.trim());
+    }
+}
@@ -3,37 +3,100 @@ package dev.amir.trip_matcher.reader.model;
 
 import com.opencsv.bean.CsvBindByPosition;
 import com.opencsv.bean.CsvCustomBindByPosition;
-import dev.amir.trip_matcher.reader.converter.LeadingWhiteSpaceConvertor;
-import dev.amir.trip_matcher.reader.converter.LocalDateTimeConverter;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.converter.EpochSecondConverter;
+import dev.amir.trip_matcher.reader.converter.IdDictionaryConverter;
+import dev.amir.trip_matcher.reader.converter.TapTypeConverter;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
+/**
+ * A tap with its identifiers dictionary-encoded (see {@link IdDictionary}); the String getters decode them.
+ * <p>
+ * DateTimeUTC is held as seconds since the epoch, so that taps are ordered and trip durations computed without
+ * allocating; {@link #getDateTimeUTC()} converts it back for display. Taps have no sub-second precision.
+ */
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
 public class TapModel {
+    public static final long NO_TIME = Long.MIN_VALUE;
+
     @CsvBindByPosition(position = 0)
     private int id;
 
-    @CsvCustomBindByPosition(position = 1, converter = LocalDateTimeConverter.class)
-    LocalDateTime dateTimeUTC;
+    @CsvCustomBindByPosition(position = 1, converter = EpochSecondConverter.class)
+    private long epochSecond;
 
-    @CsvCustomBindByPosition(position = 2, converter = LeadingWhiteSpaceConvertor.class)
-    private String tapType;
+    @CsvCustomBindByPosition(position = 2, converter = TapTypeConverter.class)
+    private TapType tapType;
 
-    @CsvCustomBindByPosition(position = 3, converter = LeadingWhiteSpaceConvertor.class)
-    private String stopId;
+    @CsvCustomBindByPosition(position = 3, converter = IdDictionaryConverter.Stop.class)
+    private int stopCode;
 
-    @CsvCustomBindByPosition(position = 4, converter = LeadingWhiteSpaceConvertor.class)
-    private String companyId;
+    @CsvCustomBindByPosition(position = 4, converter = IdDictionaryConverter.Company.class)
+    private int companyCode;
 
-    @CsvCustomBindByPosition(position = 5, converter = LeadingWhiteSpaceConvertor.class)
-    private String busId;
+    @CsvCustomBindByPosition(position = 5, converter = IdDictionaryConverter.Bus.class)
+    private int busCode;
 
-    @CsvCustomBindByPosition(position = 6, converter = LeadingWhiteSpaceConvertor.class)
-    private String pan;
-}
+    @CsvCustomBindByPosition(position = 6, converter = IdDictionaryConverter.Pan.class)
+    private int panCode;
+
+    public TapModel(int id, LocalDateTime dateTimeUTC, TapType tapType, String stopId, String companyId, String busId, String pan) {
+        this(id, toEpochSecond(dateTimeUTC), tapType, IdDictionary.STOPS.encode(stopId), IdDictionary.COMPANIES.encode(companyId),
+                IdDictionary.BUSES.encode(busId), IdDictionary.PANS.encode(pan));
+    }
+
+    public TapModel(int id, LocalDateTime dateTimeUTC, String tapType, String stopId, String companyId, String busId, String pan) {
+        this(id, dateTimeUTC, TapType.from(tapType), stopId, companyId, busId, pan);
+    }
+
+    /**
+     * @return a new tap with the same fields, to keep a tap that its reader reuses for the next row
+     */
+    public TapModel copy() {
+        return new TapModel(id, epochSecond, tapType, stopCode, companyCode, busCode, panCode);
+    }
+
+    /**
+     * @return the tap time, or null for the virtual group boundaries, which have none
+     */
+    public LocalDateTime getDateTimeUTC() {
+        return epochSecond == NO_TIME ? null : LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    public void setDateTimeUTC(LocalDateTime dateTimeUTC) {
+        this.epochSecond = toEpochSecond(dateTimeUTC);
+    }
 
+    public String getStopId() {
+        return IdDictionary.STOPS.decode(stopCode);
+    }
+
+    public String getCompanyId() {
+        return IdDictionary.COMPANIES.decode(companyCode);
+    }
+
+    public String getBusId() {
+        return IdDictionary.BUSES.decode(busCode);
+    }
+
+    public String getPan() {
+        return IdDictionary.PANS.decode(panCode);
+    }
+
+    @Override
+    public String toString() {
+        return "TapModel(id=" + id + ", dateTimeUTC=" + getDateTimeUTC() + ", tapType=" + tapType + ", stopId=" + getStopId()
+               + ", companyId=" + getCompanyId() + ", busId=" + getBusId() + ", pan=" + getPan() + ")";
+    }
+
+    private static long toEpochSecond(LocalDateTime dateTimeUTC) {
+        return dateTimeUTC == null ? NO_TIME : dateTimeUTC.toEpochSecond(ZoneOffset.UTC);
+    }
+}
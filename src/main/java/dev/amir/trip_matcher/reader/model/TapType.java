@@ -0,0 +1,19 @@
+package dev.amir.trip_matcher.reader.model;
+
+public enum TapType {
+    ON,
+    OFF,
+    // Virtual boundaries the processors put around each (companyId, busId, pan) group
+    GROUP_HEAD,
+    GROUP_TAIL,
+    // Anything else found in the input; no rule matches it
+    UNRECOGNISED;
+
+    public static TapType from(String value) {
+        return switch (value) {
+            case "ON" -> ON;
+            case "OFF" -> OFF;
+            default -> UNRECOGNISED;
+        };
+    }
+}
@@ -0,0 +1,103 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parser-local open-addressing cache from the raw bytes of an identifier to its {@link IdDictionary} code, so a
+ * repeated identifier is encoded without building a String. The cache is emptied when the dictionary evicts values,
+ * whose codes may then be reused. Not thread-safe: one per parser.
+ */
+class ByteIdCache {
+
+    private static final int MAX_SIZE = 1 << 16;
+
+    private final IdDictionary dictionary;
+    private byte[][] keys = new byte[64][];
+    private int[] codes = new int[64];
+    private int size;
+    private int evictions;
+
+    ByteIdCache(IdDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.evictions = dictionary.evictions();
+    }
+
+    int encode(ByteBuffer buffer, int start, int length) {
+        if (evictions != dictionary.evictions()) {
+            clear();
+        }
+        int hash = hash(buffer, start, length);
+        int mask = keys.length - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] key = keys[slot];
+            if (key == null) {
+                byte[] bytes = new byte[length];
+                buffer.get(start, bytes);
+                int code = dictionary.encode(new String(bytes, StandardCharsets.UTF_8));
+                // High-cardinality columns such as PAN stop being cached once the cache is full
+                if (size < MAX_SIZE) {
+                    keys[slot] = bytes;
+                    codes[slot] = code;
+                    if (++size * 2 > keys.length) {
+                        grow();
+                    }
+                }
+                return code;
+            }
+            if (matches(key, buffer, start, length)) {
+                return codes[slot];
+            }
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+        evictions = dictionary.evictions();
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldCodes = codes;
+        keys = new byte[oldKeys.length * 2][];
+        codes = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = Arrays.hashCode(oldKeys[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                codes[slot] = oldCodes[i];
+            }
+        }
+    }
+
+    // Same as Arrays.hashCode(byte[]) over the range
+    private static int hash(ByteBuffer buffer, int start, int length) {
+        int hash = 1;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buffer, int start, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,413 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Taps converted once from CSV into a compact binary, column-oriented file, for inputs that are processed again
+ * and again (fare audits, rule changes, disputes).
+ * <p>
+ * Rows are sorted by (companyId, busId, pan) and then dateTimeUTC, the order a sorted processor consumes them in.
+ * Each field is stored as its own column: epoch seconds as longs, tap types as bytes, and stops, companies,
+ * buses and PANs as indexes into string tables held once in the header, narrowed to 1, 2 or 4 bytes depending on
+ * how many distinct values the column has. Dictionary codes are only valid within one JVM, so the strings of the
+ * tables are mapped to their {@link IdDictionary} codes straight from the mapped header, either when the file is
+ * opened or, for files read while the dictionaries evict values, when a row first refers to them; values evicted
+ * from a dictionary are mapped again, and an open file keeps no strings of its own on the heap.
+ * <p>
+ * Reading maps the file and decodes rows straight from the columns, without parsing. Files are written to a
+ * temporary file and moved into place, so a crash never leaves a half-written file behind.
+ */
+@Slf4j
+public final class ColumnarTapFile {
+
+    private static final int MAGIC = 0x54_4D_54_43; // "TMTC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HAS_NANOS = 1;
+    private static final TapType[] TAP_TYPES = TapType.values();
+    private static final IdDictionary[] DICTIONARIES = {IdDictionary.STOPS, IdDictionary.COMPANIES, IdDictionary.BUSES, IdDictionary.PANS};
+    private static final List<ToIntFunction<TapModel>> CODES = List.of(
+            TapModel::getStopCode, TapModel::getCompanyCode, TapModel::getBusCode, TapModel::getPanCode);
+    private static final int STOP = 0;
+    private static final int COMPANY = 1;
+    private static final int BUS = 2;
+    private static final int PAN = 3;
+    private static final int NO_CODE = -1;
+    private static final Comparator<TapModel> ROW_ORDER = Comparator.comparing(TapModel::getCompanyId)
+            .thenComparing(TapModel::getBusId)
+            .thenComparing(TapModel::getPan)
+            .thenComparingLong(TapModel::getEpochSecond);
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final int epochSecondsOffset;
+    private final int idsOffset;
+    private final int tapTypesOffset;
+    private final int[] codeOffsets = new int[DICTIONARIES.length];
+    private final int[] codeWidths = new int[DICTIONARIES.length];
+    // [column][file index] -> offset of the string in the header
+    private final int[][] stringOffsets = new int[DICTIONARIES.length][];
+    // [column][file index] -> dictionary code in this JVM, NO_CODE until a row refers to it
+    private final int[][] codes = new int[DICTIONARIES.length][];
+    // [column] -> file indexes mapped since the dictionary last evicted values, to unmap when it does again; files
+    // mapped up front unmap every index instead
+    private final boolean lazily;
+    private final int[][] mapped = new int[DICTIONARIES.length][];
+    private final int[] mappedCounts = new int[DICTIONARIES.length];
+    private final int[] evictions = new int[DICTIONARIES.length];
+    private byte[] stringBytes = new byte[64];
+
+    private ColumnarTapFile(ByteBuffer buffer, Path path, boolean lazily) throws IOException {
+        this.buffer = buffer;
+        this.lazily = lazily;
+        if (buffer.limit() < 12 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a columnar tap file (or an unsupported version): " + path);
+        }
+
+        int headerLength = buffer.getInt(8);
+        int headerEnd = 12 + headerLength;
+        if (headerLength < 8 || headerEnd > buffer.limit()) {
+            throw new IOException("Corrupt columnar tap file header: " + path);
+        }
+        int position = 12;
+        this.rowCount = buffer.getInt(position);
+        int flags = buffer.getInt(position + 4);
+        position += 8;
+        for (int column = 0; column < DICTIONARIES.length; column++) {
+            int count = position + Integer.BYTES <= headerEnd ? buffer.getInt(position) : -1;
+            if (count < 0 || count > headerEnd - position) {
+                throw new IOException("Corrupt columnar tap file header: " + path);
+            }
+            int[] offsets = new int[count];
+            position += Integer.BYTES;
+            for (int i = 0; i < offsets.length; i++) {
+                if (position + Short.BYTES > headerEnd) {
+                    throw new IOException("Corrupt columnar tap file header: " + path);
+                }
+                offsets[i] = position;
+                // DataOutput.writeUTF: an unsigned short length, then the modified UTF-8 bytes
+                position += Short.BYTES + (buffer.getShort(position) & 0xFFFF);
+            }
+            stringOffsets[column] = offsets;
+            codes[column] = new int[offsets.length];
+            Arrays.fill(codes[column], NO_CODE);
+            mapped[column] = new int[lazily ? Math.min(offsets.length, 64) : 0];
+            evictions[column] = DICTIONARIES[column].evictions();
+            codeWidths[column] = width(offsets.length);
+        }
+        if (position > headerEnd) {
+            throw new IOException("Corrupt columnar tap file header: " + path);
+        }
+
+        // Widest columns first so that every column is aligned on its own width
+        int offset = align(12 + headerLength);
+        this.epochSecondsOffset = offset;
+        offset += rowCount * Long.BYTES;
+        this.idsOffset = offset;
+        offset += rowCount * Integer.BYTES;
+        // Files written before taps lost their sub-second precision may hold a column of nanos: skipped
+        offset += (flags & HAS_NANOS) != 0 ? rowCount * Integer.BYTES : 0;
+        for (int width : new int[]{Integer.BYTES, Short.BYTES, Byte.BYTES}) {
+            for (int column = 0; column < DICTIONARIES.length; column++) {
+                if (codeWidths[column] == width) {
+                    codeOffsets[column] = offset;
+                    offset += rowCount * width;
+                }
+            }
+        }
+        this.tapTypesOffset = offset;
+        offset += rowCount;
+        if (offset != buffer.limit()) {
+            throw new IOException("Truncated or corrupt columnar tap file, expected " + offset + " bytes: " + path);
+        }
+        for (int column = 0; !lazily && column < DICTIONARIES.length; column++) {
+            for (int index = 0; index < codes[column].length; index++) {
+                map(column, index);
+            }
+        }
+    }
+
+
+    public static ColumnarTapFile open(Path path) throws IOException {
+        return open(path, false);
+    }
+
+
+    /**
+     * Same as {@link #open(Path)}, but with {@code lazily} set each string is only mapped to its dictionary code when
+     * a row first refers to it, so that a file read while the dictionaries evict values (a run of an external sort)
+     * does not bring all of its values back into them at once. Mapping every string up front reads faster otherwise.
+     */
+    public static ColumnarTapFile open(Path path, boolean lazily) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Columnar tap files are limited to 2GB, split the input: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColumnarTapFile(buffer, path, lazily);
+        }
+    }
+
+
+    /**
+     * @return whether {@code path} exists and was written after {@code source} was last modified
+     */
+    public static boolean isUpToDate(Path path, Path source) throws IOException {
+        try {
+            return Files.getLastModifiedTime(path).compareTo(Files.getLastModifiedTime(source)) >= 0;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+
+    public static void write(Path path, Collection<TapModel> taps) throws IOException {
+        // List.sort is stable: taps of a group at the same second keep their input order, as in batch mode
+        List<TapModel> rows = new ArrayList<>(taps);
+        rows.sort(ROW_ORDER);
+        writeSorted(path, rows);
+    }
+
+
+    /**
+     * Same as {@link #write} for taps already sorted by (companyId, busId, pan) and then dateTimeUTC, which are
+     * written as they are, without being copied.
+     */
+    public static void writeSorted(Path path, List<TapModel> rows) throws IOException {
+        // Local string tables: [column] -> file index by dictionary code (NO_CODE when absent), and the values in
+        // file index order
+        int[][] indexes = new int[DICTIONARIES.length][];
+        List<List<String>> strings = new ArrayList<>();
+        for (int column = 0; column < DICTIONARIES.length; column++) {
+            ToIntFunction<TapModel> code = CODES.get(column);
+            indexes[column] = new int[rows.stream().mapToInt(code).max().orElse(NO_CODE) + 1];
+            Arrays.fill(indexes[column], NO_CODE);
+            strings.add(new ArrayList<>());
+        }
+        for (TapModel tap : rows) {
+            for (int column = 0; column < DICTIONARIES.length; column++) {
+                int code = CODES.get(column).applyAsInt(tap);
+                if (indexes[column][code] == NO_CODE) {
+                    indexes[column][code] = strings.get(column).size();
+                    strings.get(column).add(DICTIONARIES[column].decode(code));
+                }
+            }
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(rows.size());
+        headerOut.writeInt(0);
+        int[] widths = new int[DICTIONARIES.length];
+        for (int column = 0; column < DICTIONARIES.length; column++) {
+            headerOut.writeInt(strings.get(column).size());
+            for (String value : strings.get(column)) {
+                headerOut.writeUTF(value);
+            }
+            widths[column] = width(strings.get(column).size());
+        }
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(header.size());
+                header.writeTo(out);
+                out.write(new byte[align(12 + header.size()) - 12 - header.size()]);
+
+                for (TapModel tap : rows) {
+                    out.writeLong(tap.getEpochSecond());
+                }
+                for (TapModel tap : rows) {
+                    out.writeInt(tap.getId());
+                }
+                for (int width : new int[]{Integer.BYTES, Short.BYTES, Byte.BYTES}) {
+                    for (int column = 0; column < DICTIONARIES.length; column++) {
+                        if (widths[column] == width) {
+                            writeCodes(out, rows, CODES.get(column), indexes[column], width);
+                        }
+                    }
+                }
+                for (TapModel tap : rows) {
+                    out.writeByte(tap.getTapType().ordinal());
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        log.info("Wrote {} taps to columnar file {} ({} bytes)", rows.size(), path, Files.size(path));
+    }
+
+
+    public int size() {
+        return rowCount;
+    }
+
+
+    /**
+     * Decodes one row into a new tap.
+     */
+    public TapModel get(int row) {
+        TapModel tap = new TapModel();
+        read(row, tap);
+        return tap;
+    }
+
+
+    /**
+     * Hands every row to the consumer in file order, decoded into two taps that are reused alternately: a tap
+     * stays valid until the consumer is called twice more, long enough to compare each tap with the previous one,
+     * and must be copied to be kept any longer. The consumer must not evict dictionary values.
+     *
+     * @return the number of taps read
+     */
+    public long forEach(Consumer<TapModel> consumer) {
+        unmapEvicted();
+        TapModel[] flyweights = {new TapModel(), new TapModel()};
+        for (int row = 0; row < rowCount; row++) {
+            TapModel tap = flyweights[row & 1];
+            decode(row, tap);
+            consumer.accept(tap);
+        }
+        return rowCount;
+    }
+
+
+    /**
+     * Decodes one row into an existing tap, overwriting all of its fields.
+     */
+    public void read(int row, TapModel tap) {
+        unmapEvicted();
+        decode(row, tap);
+    }
+
+
+    private void decode(int row, TapModel tap) {
+        tap.setId(buffer.getInt(idsOffset + row * Integer.BYTES));
+        tap.setEpochSecond(buffer.getLong(epochSecondsOffset + row * Long.BYTES));
+        tap.setTapType(TAP_TYPES[buffer.get(tapTypesOffset + row)]);
+        tap.setStopCode(code(STOP, row));
+        tap.setCompanyCode(code(COMPANY, row));
+        tap.setBusCode(code(BUS, row));
+        tap.setPanCode(code(PAN, row));
+    }
+
+
+    private int code(int column, int row) {
+        int offset = codeOffsets[column];
+        int index = switch (codeWidths[column]) {
+            case Byte.BYTES -> buffer.get(offset + row) & 0xFF;
+            case Short.BYTES -> buffer.getShort(offset + row * Short.BYTES) & 0xFFFF;
+            default -> buffer.getInt(offset + row * Integer.BYTES);
+        };
+        int code = codes[column][index];
+        return code != NO_CODE ? code : map(column, index);
+    }
+
+
+    // Kept out of code() so that the hot path stays small enough to be inlined
+    private int map(int column, int index) {
+        int code = DICTIONARIES[column].encode(readString(stringOffsets[column][index]));
+        codes[column][index] = code;
+        if (lazily) {
+            if (mappedCounts[column] == mapped[column].length) {
+                mapped[column] = Arrays.copyOf(mapped[column], Math.max(1, mappedCounts[column] * 2));
+            }
+            mapped[column][mappedCounts[column]++] = index;
+        }
+        return code;
+    }
+
+
+    // Only the values mapped since the previous eviction may have been evicted: the cost follows the evictions
+    private void unmapEvicted() {
+        for (int column = 0; column < DICTIONARIES.length; column++) {
+            if (evictions[column] != DICTIONARIES[column].evictions()) {
+                if (!lazily) {
+                    Arrays.fill(codes[column], NO_CODE);
+                }
+                for (int i = 0; i < mappedCounts[column]; i++) {
+                    codes[column][mapped[column][i]] = NO_CODE;
+                }
+                mappedCounts[column] = 0;
+                evictions[column] = DICTIONARIES[column].evictions();
+            }
+        }
+    }
+
+
+    private String readString(int offset) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        if (stringBytes.length < length) {
+            stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+        }
+        buffer.get(offset + Short.BYTES, stringBytes, 0, length);
+        for (int i = 0; i < length; i++) {
+            // Modified UTF-8 is plain ASCII unless a byte has its high bit set
+            if (stringBytes[i] < 0) {
+                byte[] utf = new byte[Short.BYTES + length];
+                buffer.get(offset, utf);
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return new String(stringBytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+
+    private static void writeCodes(DataOutputStream out, List<TapModel> rows, ToIntFunction<TapModel> code,
+                                   int[] index, int width) throws IOException {
+        for (TapModel tap : rows) {
+            int value = index[code.applyAsInt(tap)];
+            switch (width) {
+                case Byte.BYTES -> out.writeByte(value);
+                case Short.BYTES -> out.writeShort(value);
+                default -> out.writeInt(value);
+            }
+        }
+    }
+
+
+    private static int width(int distinctValues) {
+        return distinctValues <= 1 << 8 ? Byte.BYTES : distinctValues <= 1 << 16 ? Short.BYTES : Integer.BYTES;
+    }
+
+
+    private static int align(int offset) {
+        return (offset + Long.BYTES - 1) & -Long.BYTES;
+    }
+}
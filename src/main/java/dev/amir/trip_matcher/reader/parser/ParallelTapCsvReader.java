@@ -0,0 +1,156 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Splits a taps.csv file into byte ranges that start and end on line boundaries and parses them with
+ * {@link TapCsvParser} on a dedicated fork-join pool. Chunks are handed to the consumer in file order, so the
+ * result is the same as a sequential read; at most {@code 2 * parallelism} parsed chunks are held at once.
+ */
+@Slf4j
+public class ParallelTapCsvReader {
+
+    public static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final int PROBE_SIZE = 4096;
+
+    private final int parallelism;
+    private final long chunkSize;
+
+    public ParallelTapCsvReader(int parallelism) {
+        this(parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelTapCsvReader(int parallelism, long chunkSize) {
+        this.parallelism = parallelism;
+        this.chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+    }
+
+
+    public List<TapModel> read(Path path) throws IOException {
+        List<TapModel> taps = new ArrayList<>();
+        read(path, taps::add);
+        return taps;
+    }
+
+
+    /**
+     * @return the number of taps read
+     */
+    public long read(Path path, Consumer<TapModel> consumer) throws IOException {
+        long startTime = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            List<long[]> chunks = split(channel);
+            Deque<Future<List<TapModel>>> inFlight = new ArrayDeque<>();
+            long count = 0;
+
+            for (int next = 0; next < chunks.size() || !inFlight.isEmpty(); ) {
+                while (next < chunks.size() && inFlight.size() < 2 * parallelism) {
+                    long[] chunk = chunks.get(next);
+                    int chunkIndex = next++;
+                    inFlight.add(pool.submit(() -> parseChunk(channel, chunkIndex, chunk[0], chunk[1])));
+                }
+
+                List<TapModel> taps = join(inFlight.poll());
+                taps.forEach(consumer);
+                count += taps.size();
+            }
+
+            log.info("Read {} taps from {} in {} chunks on {} threads in {} ms", count, path, chunks.size(), parallelism,
+                    (System.nanoTime() - startTime) / 1_000_000);
+            return count;
+        }
+    }
+
+
+    /**
+     * Byte ranges [start, end) covering every row after the header, each ending right after a '\n'
+     * (except the last one, which ends at the end of the file).
+     */
+    List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = nextLineStart(channel, 0, size);
+        List<long[]> chunks = new ArrayList<>();
+
+        while (position < size) {
+            long end = position + chunkSize >= size ? size : nextLineStart(channel, position + chunkSize, size);
+            if (end - position > MAX_CHUNK_SIZE) {
+                throw new IOException("Line longer than " + MAX_CHUNK_SIZE + " bytes at offset " + position);
+            }
+            chunks.add(new long[]{position, end});
+            position = end;
+        }
+        return chunks;
+    }
+
+
+    private List<TapModel> parseChunk(FileChannel channel, int chunkIndex, long start, long end) throws IOException {
+        long startTime = System.nanoTime();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+
+        List<TapModel> taps = new ArrayList<>();
+        new TapCsvParser().parse(buffer, 0, (int) (end - start), taps::add);
+
+        log.info("Chunk {} [{}, {}): {} taps in {} ms", chunkIndex, start, end, taps.size(),
+                (System.nanoTime() - startTime) / 1_000_000);
+        return taps;
+    }
+
+
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        long position = from;
+
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+
+    private static List<TapModel> join(Future<List<TapModel>> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading taps", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException("Failed to read tap chunk", e.getCause());
+        }
+    }
+}
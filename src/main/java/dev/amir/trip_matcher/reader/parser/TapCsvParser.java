@@ -0,0 +1,308 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Parser for the fixed 7-column taps.csv layout ({@code ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN})
+ * working directly on the bytes of a memory-mapped file. It produces the same {@link TapModel}s as the opencsv
+ * binding: fields are trimmed by moving offsets, the {@code dd-MM-yyyy HH:mm:ss} timestamp is decoded with
+ * arithmetic, tap types are matched without building a String and identifiers are dictionary-encoded from
+ * their bytes, so a String is only built the first time an identifier is seen.
+ * <p>
+ * Fields are not expected to be quoted; a row with a wrong number of columns fails the read.
+ * Instances keep per-parser caches and are not thread-safe.
+ */
+public class TapCsvParser {
+
+    public static final int COLUMN_COUNT = 7;
+    // Mapped windows are capped well below the 2GB ByteBuffer limit and always end on a line boundary
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    private final int[] fieldStart = new int[COLUMN_COUNT];
+    private final int[] fieldEnd = new int[COLUMN_COUNT];
+    private final ByteIdCache stops = new ByteIdCache(IdDictionary.STOPS);
+    private final ByteIdCache companies = new ByteIdCache(IdDictionary.COMPANIES);
+    private final ByteIdCache buses = new ByteIdCache(IdDictionary.BUSES);
+    private final ByteIdCache pans = new ByteIdCache(IdDictionary.PANS);
+
+    /**
+     * Parses the whole file, skipping its header row.
+     *
+     * @return the number of taps read
+     */
+    public long parseFile(Path path, Consumer<TapModel> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            long count = 0;
+            boolean header = true;
+
+            while (position < size) {
+                long windowSize = Math.min(MAX_WINDOW_SIZE, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+                int end = (int) windowSize;
+                if (position + windowSize < size) {
+                    end = lastLineEnd(buffer, end);
+                    if (end == 0) {
+                        throw new IOException("Line longer than " + MAX_WINDOW_SIZE + " bytes at offset " + position);
+                    }
+                }
+
+                int start = 0;
+                if (header) {
+                    start = nextLineStart(buffer, 0, end);
+                    header = false;
+                }
+                count += parse(buffer, start, end, consumer);
+                position += end;
+            }
+            return count;
+        }
+    }
+
+
+    /**
+     * Parses the rows of {@code buffer} between {@code from} and {@code to}, which must start at the beginning of
+     * a line and end after a line terminator (or at the end of the data).
+     *
+     * @return the number of taps read
+     */
+    public long parse(ByteBuffer buffer, int from, int to, Consumer<TapModel> consumer) throws IOException {
+        long count = 0;
+        int lineStart = from;
+
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            if (!isBlank(buffer, lineStart, contentEnd)) {
+                consumer.accept(parseLine(buffer, lineStart, contentEnd));
+                count++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return count;
+    }
+
+
+    private TapModel parseLine(ByteBuffer buffer, int from, int to) throws IOException {
+        int field = 0;
+        fieldStart[0] = from;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == ',') {
+                if (field == COLUMN_COUNT - 1) {
+                    throw malformed(buffer, from, to, "more than " + COLUMN_COUNT + " columns");
+                }
+                fieldEnd[field++] = i;
+                fieldStart[field] = i + 1;
+            }
+        }
+        fieldEnd[field] = to;
+        if (field != COLUMN_COUNT - 1) {
+            throw malformed(buffer, from, to, "expected " + COLUMN_COUNT + " columns");
+        }
+
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            trim(buffer, i);
+        }
+
+        return new TapModel(
+                parseInt(buffer, 0, from, to),
+                parseDateTime(buffer, 1, from, to),
+                parseTapType(buffer, 2),
+                encode(stops, buffer, 3),
+                encode(companies, buffer, 4),
+                encode(buses, buffer, 5),
+                encode(pans, buffer, 6));
+    }
+
+
+    private void trim(ByteBuffer buffer, int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        while (start < end && isWhiteSpace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isWhiteSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        fieldStart[field] = start;
+        fieldEnd[field] = end;
+    }
+
+
+    private int parseInt(ByteBuffer buffer, int field, int lineFrom, int lineTo) throws IOException {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = start < end && buffer.get(start) == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end) {
+            throw malformed(buffer, lineFrom, lineTo, "empty ID");
+        }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw malformed(buffer, lineFrom, lineTo, "ID is not a number");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+
+    // dd-MM-yyyy HH:mm:ss, as UTC epoch seconds
+    private long parseDateTime(ByteBuffer buffer, int field, int lineFrom, int lineTo) throws IOException {
+        int start = fieldStart[field];
+        if (fieldEnd[field] - start != 19
+            || buffer.get(start + 2) != '-' || buffer.get(start + 5) != '-' || buffer.get(start + 10) != ' '
+            || buffer.get(start + 13) != ':' || buffer.get(start + 16) != ':') {
+            throw malformed(buffer, lineFrom, lineTo, "DateTimeUTC is not dd-MM-yyyy HH:mm:ss");
+        }
+
+        int day = digits(buffer, start, 2, lineFrom, lineTo);
+        int month = digits(buffer, start + 3, 2, lineFrom, lineTo);
+        int year = digits(buffer, start + 6, 4, lineFrom, lineTo);
+        int hour = digits(buffer, start + 11, 2, lineFrom, lineTo);
+        int minute = digits(buffer, start + 14, 2, lineFrom, lineTo);
+        int second = digits(buffer, start + 17, 2, lineFrom, lineTo);
+
+        // Same leniency as DateTimeFormatter's default SMART resolver: day-of-month is clamped to the
+        // length of the month and 24:00:00 rolls over to the next day
+        if (month < 1 || month > 12) {
+            throw malformed(buffer, lineFrom, lineTo, "Invalid value for MonthOfYear: " + month);
+        }
+        if (day < 1 || day > 31) {
+            throw malformed(buffer, lineFrom, lineTo, "Invalid value for DayOfMonth: " + day);
+        }
+        if (hour > 23 && !(hour == 24 && minute == 0 && second == 0)) {
+            throw malformed(buffer, lineFrom, lineTo, "Invalid value for HourOfDay: " + hour);
+        }
+        if (minute > 59) {
+            throw malformed(buffer, lineFrom, lineTo, "Invalid value for MinuteOfHour: " + minute);
+        }
+        if (second > 59) {
+            throw malformed(buffer, lineFrom, lineTo, "Invalid value for SecondOfMinute: " + second);
+        }
+        day = Math.min(day, lengthOfMonth(year, month));
+
+        return epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar, for a year of 0 to 9999
+    private static long epochDay(int year, int month, int day) {
+        // Years start in March, so that the leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+
+    private int digits(ByteBuffer buffer, int start, int length, int lineFrom, int lineTo) throws IOException {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw malformed(buffer, lineFrom, lineTo, "DateTimeUTC is not dd-MM-yyyy HH:mm:ss");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+
+    private TapType parseTapType(ByteBuffer buffer, int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (length == 2 && buffer.get(start) == 'O' && buffer.get(start + 1) == 'N') {
+            return TapType.ON;
+        }
+        if (length == 3 && buffer.get(start) == 'O' && buffer.get(start + 1) == 'F' && buffer.get(start + 2) == 'F') {
+            return TapType.OFF;
+        }
+        return TapType.UNRECOGNISED;
+    }
+
+
+    private int encode(ByteIdCache cache, ByteBuffer buffer, int field) {
+        return cache.encode(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+    }
+
+
+    // Same characters as String.trim()
+    private static boolean isWhiteSpace(byte value) {
+        return (value & 0xFF) <= ' ';
+    }
+
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhiteSpace(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    static int nextLineStart(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+
+    static int lastLineEnd(ByteBuffer buffer, int to) {
+        for (int i = to - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+
+    private static IOException malformed(ByteBuffer buffer, int from, int to, String reason) {
+        byte[] line = new byte[to - from];
+        buffer.get(from, line);
+        return new IOException("Malformed tap row (" + reason + "): " + new String(line, StandardCharsets.UTF_8));
+    }
+}
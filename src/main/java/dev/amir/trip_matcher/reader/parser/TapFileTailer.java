@@ -0,0 +1,83 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Follows a taps.csv file that is still being appended to, like {@code tail -f}: each {@link #poll} parses the
+ * complete rows added since the previous one with {@link TapCsvParser} and keeps a trailing partial row for the
+ * next poll. A file that shrinks is taken as truncated or replaced and read again from the start.
+ * <p>
+ * Not thread-safe.
+ */
+@Slf4j
+public class TapFileTailer implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final TapCsvParser parser = new TapCsvParser();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long position;
+    private boolean header = true;
+
+    public TapFileTailer(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+
+    /**
+     * @return the number of taps read
+     */
+    public long poll(Consumer<TapModel> consumer) throws IOException {
+        if (channel.size() < position) {
+            log.warn("{} shrank from {} to {} bytes, reading it again from the start", path, position, channel.size());
+            position = 0;
+            header = true;
+            buffer.clear();
+        }
+
+        long count = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            position += read;
+
+            int end = TapCsvParser.lastLineEnd(buffer, buffer.position());
+            if (end == 0) {
+                // No complete row yet: make room for the rest of it
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+                continue;
+            }
+
+            int start = 0;
+            if (header) {
+                start = TapCsvParser.nextLineStart(buffer, 0, end);
+                header = false;
+            }
+            count += parser.parse(buffer, start, end, consumer);
+
+            // Keep the partial row that follows the last complete one
+            buffer.limit(buffer.position()).position(end);
+            buffer.compact();
+        }
+        return count;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
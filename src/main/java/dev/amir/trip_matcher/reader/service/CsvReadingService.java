@@ -1,15 +1,24 @@
 package dev.amir.trip_matcher.reader.service;
 
 import com.opencsv.bean.CsvToBeanBuilder;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
 import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.parser.ParallelTapCsvReader;
+import dev.amir.trip_matcher.reader.parser.TapCsvParser;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 @NoArgsConstructor
@@ -19,12 +28,51 @@ public class CsvReadingService {
     @Value("${csv.input-file.path}")
     private String filePath ;
 
+    @Value("${csv.input-file.reader:opencsv}")
+    private TapReaderType readerType = TapReaderType.OPENCSV;
+
+    @Value("${csv.input-file.parallelism:0}")
+    private int parallelism;
+
+    @Autowired(required = false)
+    private ProcessingMetrics metrics = ProcessingMetrics.DISABLED;
+
     public CsvReadingService(String filePath) {
         this.filePath = filePath;
     }
 
+    public CsvReadingService(String filePath, TapReaderType readerType) {
+        this.filePath = filePath;
+        this.readerType = readerType;
+    }
+
+    /**
+     * Whether {@link #readTapsCsv(Consumer)} parses taps ahead of the consumer, on other threads: dictionary codes
+     * must then not be evicted while reading, as taps not handed over yet hold them.
+     */
+    public boolean readsAhead() {
+        return readerType == TapReaderType.PARALLEL;
+    }
+
     public List<TapModel> readTapsCsv() throws IOException {
-        log.info("Reading taps from CSV file: {}", filePath);
+        log.info("Reading taps from CSV file: {} ({} reader)", filePath, readerType);
+
+        long startNanos = System.nanoTime();
+        List<TapModel> taps = readAll();
+        metrics.recordStage(ProcessingMetrics.Stage.READ, startNanos);
+        metrics.recordTapsRead(taps.size());
+        return taps;
+    }
+
+    private List<TapModel> readAll() throws IOException {
+        if (readerType == TapReaderType.FAST) {
+            List<TapModel> taps = new ArrayList<>();
+            new TapCsvParser().parseFile(Path.of(filePath), taps::add);
+            return taps;
+        }
+        if (readerType == TapReaderType.PARALLEL) {
+            return new ParallelTapCsvReader(effectiveParallelism()).read(Path.of(filePath));
+        }
 
         try (var reader = new FileReader(filePath)) {
             return new CsvToBeanBuilder<TapModel>(reader)
@@ -35,5 +83,57 @@ public class CsvReadingService {
                     .parse();
         }
     }
-}
 
+    /**
+     * Streams the taps to the consumer one row at a time instead of materializing the whole file.
+     *
+     * @return the number of taps read
+     */
+    public long readTapsCsv(Consumer<TapModel> consumer) throws IOException {
+        return readTapsCsv(Path.of(filePath), consumer);
+    }
+
+    /**
+     * Streams the taps of another file than the configured one, with the configured reader.
+     *
+     * @return the number of taps read
+     */
+    public long readTapsCsv(Path path, Consumer<TapModel> consumer) throws IOException {
+        log.info("Streaming taps from CSV file: {} ({} reader)", path, readerType);
+
+        // No read time: the consumer's work is done while reading
+        long count = stream(path, consumer);
+        metrics.recordTapsRead(count);
+        return count;
+    }
+
+    private long stream(Path path, Consumer<TapModel> consumer) throws IOException {
+        if (readerType == TapReaderType.FAST) {
+            return new TapCsvParser().parseFile(path, consumer);
+        }
+        if (readerType == TapReaderType.PARALLEL) {
+            return new ParallelTapCsvReader(effectiveParallelism()).read(path, consumer);
+        }
+
+        long count = 0;
+        try (var reader = new BufferedReader(new FileReader(path.toFile()))) {
+            Iterator<TapModel> taps = new CsvToBeanBuilder<TapModel>(reader)
+                    .withType(TapModel.class)
+                    .withIgnoreLeadingWhiteSpace(true)
+                    .withSkipLines(1)
+                    .build()
+                    .iterator();
+
+            while (taps.hasNext()) {
+                consumer.accept(taps.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private int effectiveParallelism() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,10 @@
+package dev.amir.trip_matcher.reader.service;
+
+public enum TapReaderType {
+    // Reflection based opencsv bean binding
+    OPENCSV,
+    // Hand-rolled parser over a memory-mapped file, fixed 7-column layout only
+    FAST,
+    // FAST parser over newline aligned chunks of the file, parsed on csv.input-file.parallelism threads
+    PARALLEL
+}
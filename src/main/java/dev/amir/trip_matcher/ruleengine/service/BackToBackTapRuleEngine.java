@@ -1,173 +1,183 @@
 package dev.amir.trip_matcher.ruleengine.service;
 
+import dev.amir.trip_matcher.datastore.FareTable;
+import dev.amir.trip_matcher.datastore.IdDictionary;
 import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
 import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
 import dev.amir.trip_matcher.writer.model.TripModel;
 import dev.amir.trip_matcher.writer.model.TripStatus;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Service;
+import io.micrometer.core.instrument.Counter;
 
-import java.time.Duration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.function.BiPredicate;
+import java.util.function.Supplier;
 
-@Service
-@Slf4j
-public class BackToBackTapRuleEngine {
+/**
+ * Applies the back-to-back tap rules of each company's {@link RuleSet} to consecutive taps of a (companyId, busId,
+ * pan) group and prices the trips they close. The rule set is looked up once per group by callers that see whole
+ * groups, or per tap pair otherwise; either way an array index, whatever the number of companies.
+ */
+public class BackToBackTapRuleEngine implements TripPricer {
 
     public static final int IMMEDIATE_TAP_ON_DURATION_IN_SEC = 10;
     public static final String UNKNOWN = "UNKNOWN";
-    public static final String TAP_TYPE_TRANSITION_LOG = "Tap Type Transition: {} -> {}; Trip Type= {} ({}) \n";
     public static final String INCOMPLETE = "INCOMPLETE";
     public static final String COMPLETED = "COMPLETED";
     public static final String CANCELLED = "CANCELLED";
     public static final String GROUP_TAIL = "GROUP_TAIL";
     public static final String GROUP_HEAD = "GROUP_HEAD";
-    public static final String ON = "ON";
-    public static final String OFF = "OFF";
-    public static final String LOGGED_AND_IGNORED = "Just Logged and Ignored";
-    private final TripFareManager tripFareManager;
-    private final Map<BiPredicate<TapModel, TapModel>, Handler> handlers = new HashMap<>();
-
-
+    // Virtual group boundaries: shared read-only by every group instead of being inserted into it, so their PAN is
+    // never evicted
+    static {
+        IdDictionary.PANS.pin(UNKNOWN);
+    }
+    public static final TapModel GROUP_HEAD_TAP = new TapModel(0, null, TapType.GROUP_HEAD, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+    public static final TapModel GROUP_TAIL_TAP = new TapModel(0, null, TapType.GROUP_TAIL, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+    private final Supplier<FareTable> fareTable;
+    private final CompanyRuleSets ruleSets;
+    private final TapTraceSampler traceSampler;
+    private final boolean tracing;
+    private final ProcessingMetrics metrics;
+    private final boolean counting;
+    // Rule id -> times the rule fired
+    private final Counter[] fired;
+
+
+    /**
+     * Prices every trip with the latest fares published by the manager.
+     */
     public BackToBackTapRuleEngine(TripFareManager tripFareManager) {
-        this.tripFareManager = tripFareManager;
-        initializeRuleHandlers();
+        this(tripFareManager, CompanyRuleSets.BUILT_IN, TapTraceSampler.DISABLED, ProcessingMetrics.DISABLED);
     }
 
 
-    public void processBackToBackTaps(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log(previousTap, currentTap);
-
-        handlers.entrySet().stream()
-                .filter(entry -> entry.getKey().test(previousTap, currentTap))
-                .forEach(entry -> entry.getValue().handle(previousTap, currentTap, trips));
-    }
-
-    private static void log(TapModel previousTap, TapModel currentTap) {
-        log.info("""
-                Back-to-back Taps Process Is Being Executed For The Following Taps:
-                currentTap: {} 
-                previousTap: {}""", currentTap, previousTap);
+    /**
+     * Prices every trip with the latest fares published by the manager, with each company's own rules.
+     */
+    public BackToBackTapRuleEngine(TripFareManager tripFareManager, CompanyRuleSets ruleSets, TapTraceSampler traceSampler,
+                                   ProcessingMetrics metrics) {
+        this(tripFareManager::getFareTable, ruleSets, traceSampler, metrics);
     }
 
 
-    private void initializeRuleHandlers() {
-        handlers.put((previous, current) -> GROUP_HEAD.equals(previous.getTapType()), this::handleGroupHead);
-        handlers.put((previous, current) -> ON.equals(previous.getTapType()) && GROUP_TAIL.equals(current.getTapType()), this::handleOnToGroupTail);
-
-        handlers.put((previous, current) -> ON.equals(previous.getTapType()) && OFF.equals(current.getTapType()) && current.getStopId().equals(previous.getStopId()), this::handleOnToOffSameStop);
-        handlers.put((previous, current) -> ON.equals(previous.getTapType()) && OFF.equals(current.getTapType()) && !current.getStopId().equals(previous.getStopId()), this::handleOnToOffDifferentStop);
-
-        handlers.put((previous, current) -> ON.equals(current.getTapType()) && ON.equals(previous.getTapType()), this::handleOnToOn);
-        handlers.put((previous, current) -> ON.equals(current.getTapType()) && ON.equals(previous.getTapType()) &&
-                                            (current.getStopId().equals(previous.getStopId())) &&
-                                            (current.getDateTimeUTC().compareTo(previous.getDateTimeUTC()) < IMMEDIATE_TAP_ON_DURATION_IN_SEC), this::handleImmediateTaps);
-
-        handlers.put((previous, current) -> OFF.equals(previous.getTapType()) && ON.equals(current.getTapType()), this::handleOffToOn);
-        handlers.put((previous, current) -> OFF.equals(current.getTapType()) && OFF.equals(previous.getTapType()), this::handleOffToOff);
-
-        // More complex transit companies rules can be added here ...
+    /**
+     * Prices every trip with the given fares snapshot, whatever is published afterwards.
+     */
+    public BackToBackTapRuleEngine(FareTable fareTable) {
+        this(fareTable, TapTraceSampler.DISABLED);
     }
 
 
-    private void handleGroupHead(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, GROUP_HEAD, currentTap.getTapType(), GROUP_HEAD,"First Tap Ignored");
+    public BackToBackTapRuleEngine(FareTable fareTable, TapTraceSampler traceSampler) {
+        this(fareTable, traceSampler, ProcessingMetrics.DISABLED);
     }
 
 
-    private void handleOnToOffSameStop(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(), TripStatus.valueOf(CANCELLED),"Trip added");
-
-        trips.add(TripModel.builder()
-                .started(previousTap.getDateTimeUTC())
-                .finished(currentTap.getDateTimeUTC())
-                .durationSecs(Duration.between(previousTap.getDateTimeUTC(), currentTap.getDateTimeUTC()).getSeconds())
-                .fromStopId(previousTap.getStopId())
-                .toStopId(currentTap.getStopId())
-                .chargeAmount(String.valueOf(tripFareManager.getPrice(previousTap.getStopId(), currentTap.getStopId())))
-                .companyId(previousTap.getCompanyId())
-                .busId(previousTap.getBusId())
-                .pan(previousTap.getPan())
-                .status(TripStatus.valueOf(CANCELLED))
-                .build());
+    /**
+     * Also counts every rule fired and every trip priced without a fare.
+     */
+    public BackToBackTapRuleEngine(FareTable fareTable, TapTraceSampler traceSampler, ProcessingMetrics metrics) {
+        this(fareTable, CompanyRuleSets.BUILT_IN, traceSampler, metrics);
     }
 
 
-    private void handleOnToOffDifferentStop(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(), TripStatus.valueOf(COMPLETED), "Trip added");
+    /**
+     * Applies each company's own rules instead of the built-in ones.
+     */
+    public BackToBackTapRuleEngine(FareTable fareTable, CompanyRuleSets ruleSets, TapTraceSampler traceSampler, ProcessingMetrics metrics) {
+        this(() -> fareTable, ruleSets, traceSampler, metrics);
+    }
 
-        trips.add(TripModel.builder()
-                .started(previousTap.getDateTimeUTC())
-                .finished(currentTap.getDateTimeUTC())
-                .durationSecs(Duration.between(previousTap.getDateTimeUTC(), currentTap.getDateTimeUTC()).getSeconds())
-                .fromStopId(previousTap.getStopId())
-                .toStopId(currentTap.getStopId())
-                .chargeAmount(String.valueOf(tripFareManager.getPrice(previousTap.getStopId(), currentTap.getStopId())))
-                .companyId(previousTap.getCompanyId())
-                .busId(previousTap.getBusId())
-                .pan(previousTap.getPan())
-                .status(TripStatus.valueOf(COMPLETED))
-                .build());
 
+    private BackToBackTapRuleEngine(Supplier<FareTable> fareTable, CompanyRuleSets ruleSets, TapTraceSampler traceSampler,
+                                    ProcessingMetrics metrics) {
+        this.fareTable = fareTable;
+        this.ruleSets = ruleSets;
+        this.traceSampler = traceSampler;
+        this.tracing = traceSampler.isEnabled();
+        this.metrics = metrics;
+        this.counting = metrics.isEnabled();
+        this.fired = ruleSets.ruleNames().stream().map(metrics::ruleCounter).toArray(Counter[]::new);
     }
 
 
-    private void handleOnToGroupTail(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(), TripStatus.valueOf(INCOMPLETE),"Process Period Closed, Trip added" );
-
-        trips.add(TripModel.builder()
-                .started(previousTap.getDateTimeUTC())
-                .finished(currentTap.getDateTimeUTC())
-                .durationSecs(0)
-                .fromStopId(previousTap.getStopId())
-                .toStopId(UNKNOWN)
-                .chargeAmount(String.valueOf(tripFareManager.getPrice(previousTap.getStopId(), UNKNOWN)))
-                .companyId(previousTap.getCompanyId())
-                .busId(previousTap.getBusId())
-                .pan(previousTap.getPan())
-                .status(TripStatus.valueOf(INCOMPLETE))
-                .build());
+    /**
+     * @return the rules of the group the tap belongs to
+     */
+    public RuleSet ruleSetFor(TapModel tap) {
+        return ruleSets.forCompany(tap.getCompanyCode());
     }
 
 
-    private void handleOnToOn(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(), TripStatus.valueOf(INCOMPLETE), "New Trip Started, Trip added");
-
-        trips.add(TripModel.builder()
-                .started(previousTap.getDateTimeUTC())
-                .finished(null)
-                .durationSecs(0)
-                .fromStopId(previousTap.getStopId())
-                .toStopId(UNKNOWN)
-                .chargeAmount(String.valueOf(tripFareManager.getPrice(previousTap.getStopId(), UNKNOWN)))
-                .companyId(previousTap.getCompanyId())
-                .busId(previousTap.getBusId())
-                .pan(previousTap.getPan())
-                .status(TripStatus.valueOf(INCOMPLETE))
-                .build());
+    /**
+     * Same as {@link #processBackToBackTaps(TapModel, TapModel, TripBuffer)}, adding the trip as a {@link TripModel}.
+     */
+    public void processBackToBackTaps(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
+        TripBuffer buffer = new TripBuffer(1);
+        processBackToBackTaps(previousTap, currentTap, buffer);
+        trips.addAll(buffer.toTripModels());
     }
 
-    private void handleImmediateTaps(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(),"IMMEDIATE_DOUBLE_TAPS", LOGGED_AND_IGNORED);
+
+    /**
+     * Applies the rules of the pair's company, adding at most one trip to {@code trips}.
+     */
+    public void processBackToBackTaps(TapModel previousTap, TapModel currentTap, TripBuffer trips) {
+        // A group boundary carries no company
+        TapModel groupTap = previousTap.getTapType() == TapType.GROUP_HEAD ? currentTap : previousTap;
+        processBackToBackTaps(ruleSetFor(groupTap), previousTap, currentTap, trips);
     }
 
 
-    private void handleOffToOn(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(), "UNDEFINED", LOGGED_AND_IGNORED);
+    /**
+     * Applies the rules of the (previous, current) pair from the group's rule set, adding at most one trip to
+     * {@code trips}.
+     */
+    public void processBackToBackTaps(RuleSet ruleSet, TapModel previousTap, TapModel currentTap, TripBuffer trips) {
+        RuleSet.CompiledRule[] rules = ruleSet.rules(previousTap.getTapType(), currentTap.getTapType());
+
+        if (tracing && traceSampler.isSampled(previousTap, currentTap)) {
+            processTraced(rules, previousTap, currentTap, trips);
+            return;
+        }
+        for (RuleSet.CompiledRule compiled : rules) {
+            TapRule rule = compiled.rule();
+            if (rule.test(previousTap, currentTap)) {
+                rule.apply(previousTap, currentTap, this, trips);
+                if (counting) {
+                    fired[compiled.id()].increment();
+                }
+            }
+        }
     }
 
-
-    private void handleOffToOff(TapModel previousTap, TapModel currentTap, List<TripModel> trips) {
-        log.info(TAP_TYPE_TRANSITION_LOG, previousTap.getTapType(), currentTap.getTapType(), "UNDEFINED", LOGGED_AND_IGNORED);
+    private void processTraced(RuleSet.CompiledRule[] rules, TapModel previousTap, TapModel currentTap, TripBuffer trips) {
+        for (RuleSet.CompiledRule compiled : rules) {
+            TapRule rule = compiled.rule();
+            if (rule.test(previousTap, currentTap)) {
+                int tripCount = trips.size();
+                rule.apply(previousTap, currentTap, this, trips);
+                if (counting) {
+                    fired[compiled.id()].increment();
+                }
+                traceSampler.trace(rule.name(), previousTap, currentTap, trips.size() > tripCount ? trips.get(tripCount) : null);
+            }
+        }
     }
 
 
-    @FunctionalInterface
-    private interface Handler {
-        void handle(TapModel previousTap, TapModel currentTap, List<TripModel> trips);
+    @Override
+    public void addTrip(TripBuffer trips, TapModel onTap, long finishedEpochSecond, long durationSecs, int toStopCode, TripStatus status) {
+        FareTable fares = fareTable.get();
+        int fare = fares.getFareIndex(onTap.getStopCode(), toStopCode);
+        if (fare == FareTable.NO_FARE_INDEX && counting) {
+            metrics.recordFareLookupMiss();
+        }
+        trips.add(onTap.getEpochSecond(), finishedEpochSecond, durationSecs, onTap.getStopCode(), toStopCode,
+                fare == FareTable.NO_FARE_INDEX ? TripBuffer.NO_CHARGE : fares.getUnscaledFare(fare),
+                fare == FareTable.NO_FARE_INDEX ? 0 : fares.getScale(fare),
+                onTap.getCompanyCode(), onTap.getBusCode(), onTap.getPanCode(), status);
     }
 }
-
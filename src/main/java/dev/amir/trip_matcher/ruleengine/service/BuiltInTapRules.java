@@ -0,0 +1,111 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * The rules every company gets unless its rule set lists others, in the order they fire when they share a tap
+ * type pair.
+ */
+public final class BuiltInTapRules {
+
+    private static final int UNKNOWN_STOP_CODE = IdDictionary.STOPS.encode(BackToBackTapRuleEngine.UNKNOWN);
+    private static final BiPredicate<TapModel, TapModel> ALWAYS = (previous, current) -> true;
+
+    public static final List<TapRule.Provider> PROVIDERS = List.of(
+            provider("GROUP_HEAD", definition -> new PairRule("GROUP_HEAD", TapType.GROUP_HEAD, null, ALWAYS,
+                    // First tap of the group: nothing to close yet
+                    (previousTap, currentTap, pricer, trips) -> {
+                    })),
+            provider("ON_GROUP_TAIL", definition -> new PairRule("ON_GROUP_TAIL", TapType.ON, TapType.GROUP_TAIL, ALWAYS,
+                    (previousTap, currentTap, pricer, trips) -> pricer.addTrip(trips, previousTap, currentTap.getEpochSecond(), 0,
+                            UNKNOWN_STOP_CODE, TripStatus.INCOMPLETE))),
+            provider("ON_OFF_SAME_STOP", definition -> new PairRule("ON_OFF_SAME_STOP", TapType.ON, TapType.OFF,
+                    (previous, current) -> current.getStopCode() == previous.getStopCode(),
+                    (previousTap, currentTap, pricer, trips) -> pricer.addTrip(trips, previousTap, currentTap.getEpochSecond(),
+                            currentTap.getEpochSecond() - previousTap.getEpochSecond(), currentTap.getStopCode(), TripStatus.CANCELLED))),
+            provider("ON_OFF", definition -> new PairRule("ON_OFF", TapType.ON, TapType.OFF,
+                    (previous, current) -> current.getStopCode() != previous.getStopCode(),
+                    (previousTap, currentTap, pricer, trips) -> pricer.addTrip(trips, previousTap, currentTap.getEpochSecond(),
+                            currentTap.getEpochSecond() - previousTap.getEpochSecond(), currentTap.getStopCode(), TripStatus.COMPLETED))),
+            provider("ON_ON", definition -> new PairRule("ON_ON", TapType.ON, TapType.ON, ALWAYS,
+                    (previousTap, currentTap, pricer, trips) -> pricer.addTrip(trips, previousTap, TripModel.NO_TIME, 0,
+                            UNKNOWN_STOP_CODE, TripStatus.INCOMPLETE))),
+            provider("IMMEDIATE_DOUBLE_TAPS", BuiltInTapRules::immediateDoubleTaps),
+            provider("OFF_ON", definition -> new PairRule("OFF_ON", TapType.OFF, TapType.ON, ALWAYS,
+                    // The OFF already closed the previous trip and this ON opens the next one
+                    (previousTap, currentTap, pricer, trips) -> {
+                    })),
+            provider("OFF_OFF", definition -> new PairRule("OFF_OFF", TapType.OFF, TapType.OFF, ALWAYS,
+                    // A tap off without a tap on cannot be priced: ignored
+                    (previousTap, currentTap, pricer, trips) -> {
+                    })));
+
+    public static final List<String> NAMES = PROVIDERS.stream().map(TapRule.Provider::name).toList();
+
+    private BuiltInTapRules() {
+    }
+
+
+    private static TapRule immediateDoubleTaps(RuleSetProperties.Definition definition) {
+        long windowSeconds = definition.getDoubleTapWindow().toSeconds();
+        // A second tap on at the same stop within the window: ignored
+        return new PairRule("IMMEDIATE_DOUBLE_TAPS", TapType.ON, TapType.ON,
+                (previous, current) -> current.getStopCode() == previous.getStopCode()
+                                       && current.getEpochSecond() - previous.getEpochSecond() < windowSeconds,
+                (previousTap, currentTap, pricer, trips) -> {
+                });
+    }
+
+
+    private static TapRule.Provider provider(String name, Function<RuleSetProperties.Definition, TapRule> factory) {
+        return new TapRule.Provider() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public TapRule create(RuleSetProperties.Definition definition) {
+                return factory.apply(definition);
+            }
+        };
+    }
+
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(TapModel previousTap, TapModel currentTap, TripPricer pricer, TripBuffer trips);
+    }
+
+
+    /**
+     * @param current null for every tap type
+     */
+    private record PairRule(String name, TapType previous, TapType current, BiPredicate<TapModel, TapModel> condition,
+                            Handler handler) implements TapRule {
+
+        @Override
+        public boolean appliesTo(TapType previous, TapType current) {
+            return previous == this.previous && (this.current == null || current == this.current);
+        }
+
+        @Override
+        public boolean test(TapModel previousTap, TapModel currentTap) {
+            return condition.test(previousTap, currentTap);
+        }
+
+        @Override
+        public void apply(TapModel previousTap, TapModel currentTap, TripPricer pricer, TripBuffer trips) {
+            handler.handle(previousTap, currentTap, pricer, trips);
+        }
+    }
+}
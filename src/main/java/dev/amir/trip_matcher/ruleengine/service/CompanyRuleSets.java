@@ -0,0 +1,110 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link RuleSet} of every company, compiled once from the {@code rules} configuration.
+ * <p>
+ * Rule sets are looked up by company dictionary code in an array, so the cost of choosing a group's rules does not
+ * depend on how many companies have their own. Rule names are checked when compiling: a misspelt rule fails the
+ * start of a run rather than silently leaving a company unpriced.
+ */
+public final class CompanyRuleSets {
+
+    public static final CompanyRuleSets BUILT_IN = compile(new RuleSetProperties(), List.of());
+    static final String DEFAULTS = "defaults";
+
+    private final RuleSet defaults;
+    // Indexed by company code, null for the companies using the defaults
+    private final RuleSet[] byCompanyCode;
+    private final List<String> ruleNames;
+
+    private CompanyRuleSets(RuleSet defaults, RuleSet[] byCompanyCode, List<String> ruleNames) {
+        this.defaults = defaults;
+        this.byCompanyCode = byCompanyCode;
+        this.ruleNames = ruleNames;
+    }
+
+
+    /**
+     * Compiles the rule sets with the built-in rules and those of every {@link TapRule.Provider} on the classpath.
+     */
+    public static CompanyRuleSets compile(RuleSetProperties properties) {
+        return compile(properties, ServiceLoader.load(TapRule.Provider.class).stream().map(ServiceLoader.Provider::get).toList());
+    }
+
+
+    public static CompanyRuleSets compile(RuleSetProperties properties, Collection<? extends TapRule.Provider> plugins) {
+        Map<String, TapRule.Provider> providers = new LinkedHashMap<>();
+        BuiltInTapRules.PROVIDERS.forEach(provider -> providers.put(provider.name(), provider));
+        for (TapRule.Provider plugin : plugins) {
+            if (providers.putIfAbsent(plugin.name(), plugin) != null) {
+                throw new IllegalArgumentException("Rule " + plugin.name() + " is provided twice");
+            }
+        }
+
+        Map<String, Integer> ruleIds = new LinkedHashMap<>();
+        RuleSet defaults = compile(DEFAULTS, properties.getDefaults(), providers, ruleIds);
+        Map<Integer, RuleSet> companies = new LinkedHashMap<>();
+        properties.getCompanies().forEach((companyId, definition) ->
+                companies.put(IdDictionary.COMPANIES.encode(companyId), compile(companyId, definition, providers, ruleIds)));
+
+        RuleSet[] byCompanyCode = new RuleSet[companies.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1];
+        companies.forEach((companyCode, ruleSet) -> byCompanyCode[companyCode] = ruleSet);
+        return new CompanyRuleSets(defaults, byCompanyCode, List.copyOf(ruleIds.keySet()));
+    }
+
+
+    private static RuleSet compile(String name, RuleSetProperties.Definition definition, Map<String, TapRule.Provider> providers,
+                                   Map<String, Integer> ruleIds) {
+        List<String> names = definition.getRules().isEmpty() ? BuiltInTapRules.NAMES : definition.getRules();
+        List<TapRule> rules = new ArrayList<>(names.size());
+        int[] ids = new int[names.size()];
+        for (String ruleName : names) {
+            TapRule.Provider provider = providers.get(ruleName.trim());
+            if (provider == null) {
+                throw new IllegalArgumentException("Unknown rule " + ruleName + " in the rule set of " + name
+                                                   + ", expected one of " + providers.keySet());
+            }
+            TapRule rule = provider.create(definition);
+            ids[rules.size()] = ruleIds.computeIfAbsent(rule.name(), key -> ruleIds.size());
+            rules.add(rule);
+        }
+        return new RuleSet(name, rules, ids);
+    }
+
+
+    public RuleSet forCompany(int companyCode) {
+        RuleSet ruleSet = companyCode < byCompanyCode.length ? byCompanyCode[companyCode] : null;
+        return ruleSet != null ? ruleSet : defaults;
+    }
+
+
+    /**
+     * @return the companies with a rule set of their own
+     */
+    public int companyCount() {
+        int count = 0;
+        for (RuleSet ruleSet : byCompanyCode) {
+            if (ruleSet != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * @return the name of every rule of every rule set, by rule id
+     */
+    List<String> ruleNames() {
+        return ruleNames;
+    }
+}
@@ -0,0 +1,53 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.reader.model.TapType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rules of one company compiled into a dispatch table: for each (previous, current) tap type pair, the rules
+ * to evaluate in priority order. Immutable, shared by the rule engines of every thread.
+ */
+public final class RuleSet {
+
+    private static final TapType[] TAP_TYPES = TapType.values();
+
+    private final String name;
+    // [previous tap type][current tap type] -> rules to evaluate, in priority order
+    private final CompiledRule[][][] dispatchTable = new CompiledRule[TAP_TYPES.length][TAP_TYPES.length][0];
+
+    /**
+     * @param rules   in priority order
+     * @param ruleIds index of each rule's fired counter
+     */
+    RuleSet(String name, List<TapRule> rules, int[] ruleIds) {
+        this.name = name;
+        for (TapType previous : TAP_TYPES) {
+            for (TapType current : TAP_TYPES) {
+                for (int i = 0; i < rules.size(); i++) {
+                    if (rules.get(i).appliesTo(previous, current)) {
+                        CompiledRule[] cell = dispatchTable[previous.ordinal()][current.ordinal()];
+                        CompiledRule[] cellRules = Arrays.copyOf(cell, cell.length + 1);
+                        cellRules[cell.length] = new CompiledRule(rules.get(i), ruleIds[i]);
+                        dispatchTable[previous.ordinal()][current.ordinal()] = cellRules;
+                    }
+                }
+            }
+        }
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    CompiledRule[] rules(TapType previous, TapType current) {
+        return dispatchTable[previous.ordinal()][current.ordinal()];
+    }
+
+
+    record CompiledRule(TapRule rule, int id) {
+    }
+}
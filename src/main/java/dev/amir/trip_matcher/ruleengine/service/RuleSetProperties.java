@@ -0,0 +1,43 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Back-to-back tap rules of each company, bound from {@code rules} and compiled by {@link CompanyRuleSets}.
+ * <p>
+ * The double tap window is the only parameter of the built-in rules. They have no transfer window or fare cap:
+ * those need state across a card's trips on different buses, while taps are matched per (companyId, busId, pan)
+ * group. A plug-in {@link TapRule.Provider} reads its own parameters, such as a transfer window or a daily cap, from
+ * {@link Definition#getParameters()}, so they are set per company the same way.
+ */
+@Data
+@ConfigurationProperties(prefix = "rules")
+public class RuleSetProperties {
+
+    // Rule set of every company without one of its own
+    private Definition defaults = new Definition();
+
+    // companyId -> its own rule set; fields left out take the built-in values, not those of the defaults
+    private Map<String, Definition> companies = new LinkedHashMap<>();
+
+
+    @Data
+    public static class Definition {
+
+        // Rule names in priority order, empty = the built-in rules
+        private List<String> rules = new ArrayList<>();
+
+        // A second tap on at the same stop within this window is an immediate double tap
+        private Duration doubleTapWindow = Duration.ofSeconds(BackToBackTapRuleEngine.IMMEDIATE_TAP_ON_DURATION_IN_SEC);
+
+        // Parameters of plug-in rules by name, read by their providers; the built-in rules read none of them
+        private Map<String, String> parameters = new LinkedHashMap<>();
+    }
+}
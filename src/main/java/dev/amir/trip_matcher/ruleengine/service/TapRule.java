@@ -0,0 +1,39 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+
+/**
+ * One back-to-back tap rule of a company's {@link RuleSet}: when the (previous, current) tap pair matches, it may
+ * add a trip. Which tap type pairs a rule is evaluated for is decided once, when the rule set is compiled, so a
+ * rule costs nothing for the other pairs.
+ * <p>
+ * Rules are declared by name in the {@code rules} configuration. Besides the {@link BuiltInTapRules built-in} ones,
+ * a {@link Provider} listed in {@code META-INF/services/dev.amir.trip_matcher.ruleengine.service.TapRule$Provider}
+ * makes its rules available to every rule set. Rules are shared by the rule engines of every thread and must be
+ * stateless.
+ */
+public interface TapRule {
+
+    String name();
+
+    boolean appliesTo(TapType previous, TapType current);
+
+    default boolean test(TapModel previousTap, TapModel currentTap) {
+        return true;
+    }
+
+    void apply(TapModel previousTap, TapModel currentTap, TripPricer pricer, TripBuffer trips);
+
+
+    /**
+     * Creates a rule for each rule set that declares it, configured by the rule set's parameters.
+     */
+    interface Provider {
+
+        String name();
+
+        TapRule create(RuleSetProperties.Definition definition);
+    }
+}
@@ -0,0 +1,108 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decides which (companyId, busId, pan) groups are traced and writes one structured event per rule that fires
+ * for them to the {@value #LOGGER_NAME} logger, with the tap and trip details as key-value pairs.
+ * <p>
+ * Groups are sampled by hashing their identifier Strings, not their dictionary codes: codes depend on the order
+ * identifiers were first seen and are reused once evicted, whereas the Strings keep a sampled group traced from its
+ * first tap to its last one in every processing mode and run. PANs can also be selected explicitly (pinned, so their
+ * codes are never reused). Whether tracing is on is decided once, at
+ * construction: when it is off the rule engine only checks a final boolean per tap pair.
+ */
+public final class TapTraceSampler {
+
+    public static final String LOGGER_NAME = "dev.amir.trip_matcher.trace";
+    public static final TapTraceSampler DISABLED = new TapTraceSampler(0, List.of());
+    private static final Logger trace = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private final boolean enabled;
+    private final int sampleOneIn;
+    private final int[] panCodes;
+
+    /**
+     * @param sampleOneIn trace one group in that many, 0 to trace only the given PANs
+     * @param pans        PANs traced whatever the sample rate
+     */
+    public TapTraceSampler(int sampleOneIn, Collection<String> pans) {
+        if (sampleOneIn < 0) {
+            throw new IllegalArgumentException("sampleOneIn must not be negative: " + sampleOneIn);
+        }
+        this.sampleOneIn = sampleOneIn;
+        this.panCodes = pans.stream()
+                .map(String::trim)
+                .filter(pan -> !pan.isEmpty())
+                .mapToInt(IdDictionary.PANS::pin)
+                .sorted()
+                .toArray();
+        this.enabled = (sampleOneIn > 0 || panCodes.length > 0) && trace.isInfoEnabled();
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * Whether the group of a tap pair is traced. Always false when tracing is disabled.
+     */
+    public boolean isSampled(TapModel previousTap, TapModel currentTap) {
+        if (!enabled) {
+            return false;
+        }
+        TapModel tap = groupTap(previousTap, currentTap);
+        if (panCodes.length > 0 && Arrays.binarySearch(panCodes, tap.getPanCode()) >= 0) {
+            return true;
+        }
+        return sampleOneIn > 0 && Math.floorMod(mix(tap), sampleOneIn) == 0;
+    }
+
+
+    /**
+     * @param trip the trip the rule added, or null
+     */
+    public void trace(String rule, TapModel previousTap, TapModel currentTap, TripModel trip) {
+        TapModel groupTap = groupTap(previousTap, currentTap);
+        trace.atInfo()
+                .setMessage("tap.rule")
+                .addKeyValue("rule", rule)
+                .addKeyValue("companyId", groupTap.getCompanyId())
+                .addKeyValue("busId", groupTap.getBusId())
+                .addKeyValue("pan", groupTap.getPan())
+                .addKeyValue("previousTapId", previousTap.getId())
+                .addKeyValue("previousTapType", previousTap.getTapType())
+                .addKeyValue("previousStopId", previousTap.getStopId())
+                .addKeyValue("currentTapId", currentTap.getId())
+                .addKeyValue("currentTapType", currentTap.getTapType())
+                .addKeyValue("currentStopId", currentTap.getStopId())
+                .addKeyValue("tripStatus", trip != null ? trip.getStatus() : null)
+                .addKeyValue("chargeAmount", trip != null ? trip.getChargeAmount() : null)
+                .log();
+    }
+
+
+    // GROUP_HEAD and GROUP_TAIL are shared sentinels: the other tap of the pair identifies the group
+    private static TapModel groupTap(TapModel previousTap, TapModel currentTap) {
+        return currentTap.getTapType() == TapType.GROUP_TAIL ? previousTap : currentTap;
+    }
+
+
+    // The String hashes are cached, so this costs about as much as hashing the codes
+    private static int mix(TapModel tap) {
+        int hash = (tap.getCompanyId().hashCode() * 31 + tap.getBusId().hashCode()) * 31 + tap.getPan().hashCode();
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,16 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+
+/**
+ * Prices the trips a {@link TapRule} adds, with the fares of the rule engine that evaluates it.
+ */
+public interface TripPricer {
+
+    /**
+     * Adds the trip opened by {@code onTap}, charged the fare from its stop to {@code toStopCode}.
+     */
+    void addTrip(TripBuffer trips, TapModel onTap, long finishedEpochSecond, long durationSecs, int toStopCode, TripStatus status);
+}
@@ -0,0 +1,208 @@
+package dev.amir.trip_matcher.writer.model;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trips stored column by column in primitive arrays: one row per trip, with times as epoch seconds, stops,
+ * companies, buses and PANs as {@link IdDictionary} codes, the charge as the unscaled value and scale of its fare
+ * and the status as an ordinal. Adding a trip allocates nothing once the arrays have grown to the batch size, and
+ * {@link #clear()} keeps them for the next batch.
+ * <p>
+ * {@link #get(int)} materializes a row as a {@link TripModel} for code that needs one. Not thread-safe.
+ */
+public final class TripBuffer {
+
+    /**
+     * Unscaled charge of a trip without a fare, written NOT_FOUND.
+     */
+    public static final long NO_CHARGE = Long.MIN_VALUE;
+    private static final TripStatus[] STATUSES = TripStatus.values();
+    private static final byte NO_STATUS = -1;
+
+    private long[] startedEpochSeconds;
+    private long[] finishedEpochSeconds;
+    private long[] durationSecs;
+    private long[] chargeUnscaled;
+    private int[] chargeScales;
+    private int[] fromStopCodes;
+    private int[] toStopCodes;
+    private int[] companyCodes;
+    private int[] busCodes;
+    private int[] panCodes;
+    private byte[] statuses;
+    private int size;
+
+    public TripBuffer() {
+        this(16);
+    }
+
+    public TripBuffer(int initialCapacity) {
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+
+    public void add(long startedEpochSecond, long finishedEpochSecond, long durationSecs, int fromStopCode, int toStopCode,
+                    long chargeUnscaled, int chargeScale, int companyCode, int busCode, int panCode, TripStatus status) {
+        if (size == statuses.length) {
+            grow(size + 1);
+        }
+        startedEpochSeconds[size] = startedEpochSecond;
+        finishedEpochSeconds[size] = finishedEpochSecond;
+        this.durationSecs[size] = durationSecs;
+        this.chargeUnscaled[size] = chargeUnscaled;
+        chargeScales[size] = chargeScale;
+        fromStopCodes[size] = fromStopCode;
+        toStopCodes[size] = toStopCode;
+        companyCodes[size] = companyCode;
+        busCodes[size] = busCode;
+        panCodes[size] = panCode;
+        statuses[size] = status != null ? (byte) status.ordinal() : NO_STATUS;
+        size++;
+    }
+
+
+    /**
+     * Appends rows {@code from} (inclusive) to {@code to} (exclusive) of another buffer.
+     */
+    public void addAll(TripBuffer source, int from, int to) {
+        int count = to - from;
+        if (size + count > statuses.length) {
+            grow(size + count);
+        }
+        System.arraycopy(source.startedEpochSeconds, from, startedEpochSeconds, size, count);
+        System.arraycopy(source.finishedEpochSeconds, from, finishedEpochSeconds, size, count);
+        System.arraycopy(source.durationSecs, from, durationSecs, size, count);
+        System.arraycopy(source.chargeUnscaled, from, chargeUnscaled, size, count);
+        System.arraycopy(source.chargeScales, from, chargeScales, size, count);
+        System.arraycopy(source.fromStopCodes, from, fromStopCodes, size, count);
+        System.arraycopy(source.toStopCodes, from, toStopCodes, size, count);
+        System.arraycopy(source.companyCodes, from, companyCodes, size, count);
+        System.arraycopy(source.busCodes, from, busCodes, size, count);
+        System.arraycopy(source.panCodes, from, panCodes, size, count);
+        System.arraycopy(source.statuses, from, statuses, size, count);
+        size += count;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+
+    public long getStartedEpochSecond(int row) {
+        return startedEpochSeconds[row];
+    }
+
+    public long getFinishedEpochSecond(int row) {
+        return finishedEpochSeconds[row];
+    }
+
+    public long getDurationSecs(int row) {
+        return durationSecs[row];
+    }
+
+    /**
+     * @return the unscaled value of the charge, or {@link #NO_CHARGE}
+     */
+    public long getChargeUnscaled(int row) {
+        return chargeUnscaled[row];
+    }
+
+    public int getChargeScale(int row) {
+        return chargeScales[row];
+    }
+
+    public int getFromStopCode(int row) {
+        return fromStopCodes[row];
+    }
+
+    public int getToStopCode(int row) {
+        return toStopCodes[row];
+    }
+
+    public int getCompanyCode(int row) {
+        return companyCodes[row];
+    }
+
+    public int getBusCode(int row) {
+        return busCodes[row];
+    }
+
+    public int getPanCode(int row) {
+        return panCodes[row];
+    }
+
+    public TripStatus getStatus(int row) {
+        return statuses[row] == NO_STATUS ? null : STATUSES[statuses[row]];
+    }
+
+
+    public TripModel get(int row) {
+        long charge = chargeUnscaled[row];
+        return TripModel.builder()
+                .startedEpochSecond(startedEpochSeconds[row])
+                .finishedEpochSecond(finishedEpochSeconds[row])
+                .durationSecs(durationSecs[row])
+                .fromStopId(IdDictionary.STOPS.decode(fromStopCodes[row]))
+                .toStopId(IdDictionary.STOPS.decode(toStopCodes[row]))
+                .chargeAmount(charge == NO_CHARGE ? null : BigDecimal.valueOf(charge, chargeScales[row]).toString())
+                .companyId(IdDictionary.COMPANIES.decode(companyCodes[row]))
+                .busId(IdDictionary.BUSES.decode(busCodes[row]))
+                .pan(IdDictionary.PANS.decode(panCodes[row]))
+                .status(getStatus(row))
+                .build();
+    }
+
+
+    public List<TripModel> toTripModels() {
+        List<TripModel> trips = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            trips.add(get(row));
+        }
+        return trips;
+    }
+
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, statuses.length * 2);
+        startedEpochSeconds = Arrays.copyOf(startedEpochSeconds, capacity);
+        finishedEpochSeconds = Arrays.copyOf(finishedEpochSeconds, capacity);
+        durationSecs = Arrays.copyOf(durationSecs, capacity);
+        chargeUnscaled = Arrays.copyOf(chargeUnscaled, capacity);
+        chargeScales = Arrays.copyOf(chargeScales, capacity);
+        fromStopCodes = Arrays.copyOf(fromStopCodes, capacity);
+        toStopCodes = Arrays.copyOf(toStopCodes, capacity);
+        companyCodes = Arrays.copyOf(companyCodes, capacity);
+        busCodes = Arrays.copyOf(busCodes, capacity);
+        panCodes = Arrays.copyOf(panCodes, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+    }
+
+
+    private void allocate(int capacity) {
+        startedEpochSeconds = new long[capacity];
+        finishedEpochSeconds = new long[capacity];
+        durationSecs = new long[capacity];
+        chargeUnscaled = new long[capacity];
+        chargeScales = new int[capacity];
+        fromStopCodes = new int[capacity];
+        toStopCodes = new int[capacity];
+        companyCodes = new int[capacity];
+        busCodes = new int[capacity];
+        panCodes = new int[capacity];
+        statuses = new byte[capacity];
+    }
+}
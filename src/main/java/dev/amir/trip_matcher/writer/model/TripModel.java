@@ -6,14 +6,23 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
+/**
+ * Started and finished are held as UTC epoch seconds, {@link #NO_TIME} when unknown, and converted to
+ * LocalDateTime only by {@link #getStarted()} and {@link #getFinished()}.
+ */
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
 @Builder
 public class TripModel {
-    private LocalDateTime started;
-    private LocalDateTime finished;
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    @Builder.Default
+    private long startedEpochSecond = NO_TIME;
+    @Builder.Default
+    private long finishedEpochSecond = NO_TIME;
     private long durationSecs;
     private String fromStopId;
     private String toStopId;
@@ -22,4 +31,36 @@ public class TripModel {
     private String busId;
     private String pan;
     private TripStatus status;
+
+    public TripModel(LocalDateTime started, LocalDateTime finished, long durationSecs, String fromStopId, String toStopId,
+                     String chargeAmount, String companyId, String busId, String pan, TripStatus status) {
+        this(toEpochSecond(started), toEpochSecond(finished), durationSecs, fromStopId, toStopId, chargeAmount,
+                companyId, busId, pan, status);
+    }
+
+    public LocalDateTime getStarted() {
+        return toDateTime(startedEpochSecond);
+    }
+
+    public LocalDateTime getFinished() {
+        return toDateTime(finishedEpochSecond);
+    }
+
+    private static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime == null ? NO_TIME : dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime toDateTime(long epochSecond) {
+        return epochSecond == NO_TIME ? null : LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    public static class TripModelBuilder {
+        public TripModelBuilder started(LocalDateTime started) {
+            return startedEpochSecond(toEpochSecond(started));
+        }
+
+        public TripModelBuilder finished(LocalDateTime finished) {
+            return finishedEpochSecond(toEpochSecond(finished));
+        }
+    }
 }
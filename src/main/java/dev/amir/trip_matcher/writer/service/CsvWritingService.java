@@ -1,15 +1,16 @@
 package dev.amir.trip_matcher.writer.service;
 
-import com.opencsv.CSVWriter;
-import com.opencsv.CSVWriterBuilder;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
 import dev.amir.trip_matcher.writer.model.TripModel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 @Service
@@ -20,34 +21,70 @@ public class CsvWritingService {
     @Value("${csv.output-file.path}")
     private String filePath ;
 
+    @Value("${csv.output-file.writer:fast}")
+    private TripWriterType writerType = TripWriterType.FAST;
+
+    // Threads formatting rows for the fast writer, 0 = available processors
+    @Value("${csv.output-file.parallelism:0}")
+    private int parallelism;
+
+    @Autowired(required = false)
+    private ProcessingMetrics metrics = ProcessingMetrics.DISABLED;
+
     public CsvWritingService(String filePath) {
         this.filePath = filePath;
     }
 
+    public CsvWritingService(String filePath, TripWriterType writerType) {
+        this.filePath = filePath;
+        this.writerType = writerType;
+    }
+
     public void writeTripsToCsv(List<TripModel> trips) throws IOException {
-        log.info("Writing trips to CSV file: {}", filePath);
-
-        try (CSVWriter writer = (CSVWriter) new CSVWriterBuilder(new FileWriter(filePath))
-                .withQuoteChar(CSVWriter.NO_QUOTE_CHARACTER)
-                .build()) {
-            // Write header
-            writer.writeNext(new String[]{"Started", "Finished", "DurationSecs", "FromStopId", "ToStopId", "ChargeAmount", "CompanyId", "BusID", "PAN", "Status"});
-
-            // Write data
-            for (TripModel trip : trips) {
-                writer.writeNext(new String[]{
-                        trip.getStarted() != null ? trip.getStarted().toString() : "UNKNOWN",
-                        trip.getFinished() != null ? trip.getFinished().toString() : "UNKNOWN",
-                        String.valueOf(trip.getDurationSecs()),
-                        trip.getFromStopId(),
-                        trip.getToStopId(),
-                        (trip.getChargeAmount() != null) ? "$" + trip.getChargeAmount() : "NOT_FOUND",
-                        trip.getCompanyId(),
-                        trip.getBusId(),
-                        trip.getPan(),
-                        String.valueOf(trip.getStatus())
-                });
-            }
+        log.info("Writing trips to CSV file: {} ({} writer)", filePath, writerType);
+
+        long startNanos = System.nanoTime();
+        try (TripWriter writer = newTripWriter()) {
+            writer.writeAll(trips);
         }
+        metrics.recordStage(ProcessingMetrics.Stage.WRITE, startNanos);
+    }
+
+    public void writeTripsToCsv(TripBuffer trips) throws IOException {
+        log.info("Writing trips to CSV file: {} ({} writer)", filePath, writerType);
+
+        long startNanos = System.nanoTime();
+        try (TripWriter writer = newTripWriter()) {
+            writer.writeAll(trips);
+        }
+        metrics.recordStage(ProcessingMetrics.Stage.WRITE, startNanos);
+    }
+
+    /**
+     * Opens the output file for row-by-row writing; the header is written straight away.
+     */
+    public TripWriter openTripWriter() throws IOException {
+        log.info("Opening trips CSV file for streaming: {} ({} writer)", filePath, writerType);
+        return newTripWriter();
+    }
+
+    /**
+     * Opens another file than the configured one with the configured writer; the header is written straight away.
+     */
+    public TripWriter openTripWriter(Path path) throws IOException {
+        log.info("Opening trips CSV file: {} ({} writer)", path, writerType);
+        return newTripWriter(path.toString());
+    }
+
+    private TripWriter newTripWriter() throws IOException {
+        return newTripWriter(filePath);
+    }
+
+    private TripWriter newTripWriter(String filePath) throws IOException {
+        TripWriter writer = switch (writerType) {
+            case OPENCSV -> new TripCsvWriter(filePath);
+            case FAST -> new FastTripCsvWriter(filePath, parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        };
+        return metrics.isEnabled() ? new MeteredTripWriter(writer, Path.of(filePath), metrics) : writer;
     }
 }
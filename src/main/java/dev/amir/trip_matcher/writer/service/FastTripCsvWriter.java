@@ -0,0 +1,172 @@
+package dev.amir.trip_matcher.writer.service;
+
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the same bytes as {@link TripCsvWriter} without going through opencsv and a Writer: rows are formatted
+ * into a reused byte buffer that is written to a {@link FileChannel} once it holds {@link #FLUSH_SIZE} bytes.
+ * <p>
+ * {@link #writeAll(List)} and {@link #writeAll(TripBuffer)} can also format blocks of {@link #DEFAULT_BLOCK_SIZE} trips on a dedicated fork-join
+ * pool; blocks are written in order, so the file is the same as a sequential write, and at most
+ * {@code 2 * parallelism} formatted blocks are held at once.
+ */
+@Slf4j
+public class FastTripCsvWriter implements TripWriter {
+
+    static final int FLUSH_SIZE = 1 << 20;
+    static final int DEFAULT_BLOCK_SIZE = 16_384;
+
+    private final FileChannel channel;
+    private final TripRowFormatter formatter = new TripRowFormatter(FLUSH_SIZE + 4096);
+    private final int parallelism;
+    private final int blockSize;
+    private long rowCount;
+
+    FastTripCsvWriter(String filePath, int parallelism) throws IOException {
+        this(filePath, parallelism, DEFAULT_BLOCK_SIZE);
+    }
+
+    FastTripCsvWriter(String filePath, int parallelism, int blockSize) throws IOException {
+        this.channel = FileChannel.open(Path.of(filePath), CREATE, TRUNCATE_EXISTING, WRITE);
+        this.parallelism = parallelism;
+        this.blockSize = blockSize;
+        formatter.appendHeader();
+    }
+
+
+    @Override
+    public void write(TripModel trip) {
+        formatter.append(trip);
+        rowWritten();
+    }
+
+
+    @Override
+    public void write(TripBuffer trips, int row) {
+        formatter.append(trips, row);
+        rowWritten();
+    }
+
+
+    private void rowWritten() {
+        rowCount++;
+        if (formatter.size() >= FLUSH_SIZE) {
+            try {
+                formatter.writeTo(channel);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+
+    @Override
+    public void writeAll(List<TripModel> trips) throws IOException {
+        if (parallelism <= 1 || trips.size() <= blockSize) {
+            TripWriter.super.writeAll(trips);
+            return;
+        }
+        writeBlocks(trips.size(), (blockFormatter, row) -> blockFormatter.append(trips.get(row)));
+    }
+
+
+    @Override
+    public void writeAll(TripBuffer trips) throws IOException {
+        if (parallelism <= 1 || trips.size() <= blockSize) {
+            TripWriter.super.writeAll(trips);
+            return;
+        }
+        writeBlocks(trips.size(), (blockFormatter, row) -> blockFormatter.append(trips, row));
+    }
+
+
+    private void writeBlocks(int tripCount, RowAppender rows) throws IOException {
+        long startTime = System.nanoTime();
+        // Rows already formatted go first
+        formatter.writeTo(channel);
+
+        int blockCount = (tripCount + blockSize - 1) / blockSize;
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+            for (int next = 0; next < blockCount || !inFlight.isEmpty(); ) {
+                while (next < blockCount && inFlight.size() < 2 * parallelism) {
+                    int from = next * blockSize;
+                    int to = Math.min(tripCount, from + blockSize);
+                    next++;
+                    inFlight.add(pool.submit(() -> format(rows, from, to)));
+                }
+                TripRowFormatter.writeFully(channel, ByteBuffer.wrap(join(inFlight.poll())));
+            }
+        }
+        rowCount += tripCount;
+
+        log.info("Wrote {} trips in {} blocks on {} threads in {} ms", tripCount, blockCount, parallelism,
+                (System.nanoTime() - startTime) / 1_000_000);
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        formatter.writeTo(channel);
+    }
+
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            formatter.writeTo(channel);
+        }
+    }
+
+
+    private static byte[] format(RowAppender rows, int from, int to) {
+        TripRowFormatter blockFormatter = new TripRowFormatter((to - from) * 128);
+        for (int row = from; row < to; row++) {
+            rows.append(blockFormatter, row);
+        }
+        return blockFormatter.toByteArray();
+    }
+
+
+    @FunctionalInterface
+    private interface RowAppender {
+        void append(TripRowFormatter formatter, int row);
+    }
+
+
+    private static byte[] join(Future<byte[]> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing trips", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to format trip block", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package dev.amir.trip_matcher.writer.service;
+
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reports the rows and bytes of a trips file to the metrics once it is closed.
+ */
+class MeteredTripWriter implements TripWriter {
+
+    private final TripWriter writer;
+    private final Path path;
+    private final ProcessingMetrics metrics;
+
+    MeteredTripWriter(TripWriter writer, Path path, ProcessingMetrics metrics) {
+        this.writer = writer;
+        this.path = path;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(TripModel trip) {
+        writer.write(trip);
+    }
+
+    @Override
+    public void writeAll(List<TripModel> trips) throws IOException {
+        writer.writeAll(trips);
+    }
+
+    @Override
+    public void write(TripBuffer trips, int row) {
+        writer.write(trips, row);
+    }
+
+    @Override
+    public void writeAll(TripBuffer trips) throws IOException {
+        writer.writeAll(trips);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public long getRowCount() {
+        return writer.getRowCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        metrics.recordWritten(writer.getRowCount(), Files.size(path));
+    }
+}
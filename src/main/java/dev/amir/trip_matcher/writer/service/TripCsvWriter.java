@@ -0,0 +1,59 @@
+package dev.amir.trip_matcher.writer.service;
+
+import com.opencsv.CSVWriter;
+import com.opencsv.CSVWriterBuilder;
+import dev.amir.trip_matcher.writer.model.TripModel;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes trips to a CSV file one row at a time with opencsv, so callers can flush trips as soon as they are produced.
+ */
+public class TripCsvWriter implements TripWriter {
+
+    static final String[] HEADER = {"Started", "Finished", "DurationSecs", "FromStopId", "ToStopId", "ChargeAmount", "CompanyId", "BusID", "PAN", "Status"};
+
+    private final CSVWriter writer;
+    private long rowCount;
+
+    TripCsvWriter(String filePath) throws IOException {
+        this.writer = (CSVWriter) new CSVWriterBuilder(new BufferedWriter(new FileWriter(filePath)))
+                .withQuoteChar(CSVWriter.NO_QUOTE_CHARACTER)
+                .build();
+        writer.writeNext(HEADER);
+    }
+
+    @Override
+    public void write(TripModel trip) {
+        writer.writeNext(new String[]{
+                trip.getStarted() != null ? trip.getStarted().toString() : "UNKNOWN",
+                trip.getFinished() != null ? trip.getFinished().toString() : "UNKNOWN",
+                String.valueOf(trip.getDurationSecs()),
+                trip.getFromStopId(),
+                trip.getToStopId(),
+                (trip.getChargeAmount() != null) ? "$" + trip.getChargeAmount() : "NOT_FOUND",
+                trip.getCompanyId(),
+                trip.getBusId(),
+                trip.getPan(),
+                String.valueOf(trip.getStatus())
+        });
+        rowCount++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
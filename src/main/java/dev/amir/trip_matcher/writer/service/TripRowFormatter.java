@@ -0,0 +1,343 @@
+package dev.amir.trip_matcher.writer.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Formats trips.csv rows straight into a growable byte array, producing exactly the bytes {@link TripCsvWriter}
+ * writes: LocalDateTime.toString() timestamps (UNKNOWN when missing), "$" + chargeAmount (NOT_FOUND when missing),
+ * nothing for a null identifier, UTF-8 text and opencsv's escaping for fields written without quotes.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ */
+class TripRowFormatter {
+
+    private static final byte SEPARATOR = ',';
+    private static final byte LINE_END = '\n';
+    // opencsv's escape character, written before '"', ',', '\n' and '\0' when quotes are disabled
+    private static final byte ESCAPE = '"';
+    private static final byte[] UNKNOWN = bytes("UNKNOWN");
+    private static final byte[] NOT_FOUND = bytes("NOT_FOUND");
+    private static final byte[] NULL = bytes("null");
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    private byte[] bytes;
+    private int size;
+
+    TripRowFormatter(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+
+    void appendHeader() {
+        for (int i = 0; i < TripCsvWriter.HEADER.length; i++) {
+            if (i > 0) {
+                append(SEPARATOR);
+            }
+            appendField(TripCsvWriter.HEADER[i]);
+        }
+        append(LINE_END);
+    }
+
+
+    void append(TripModel trip) {
+        appendDateTime(trip.getStartedEpochSecond());
+        append(SEPARATOR);
+        appendDateTime(trip.getFinishedEpochSecond());
+        append(SEPARATOR);
+        appendLong(trip.getDurationSecs());
+        append(SEPARATOR);
+        appendField(trip.getFromStopId());
+        append(SEPARATOR);
+        appendField(trip.getToStopId());
+        append(SEPARATOR);
+        appendChargeAmount(trip.getChargeAmount());
+        append(SEPARATOR);
+        appendField(trip.getCompanyId());
+        append(SEPARATOR);
+        appendField(trip.getBusId());
+        append(SEPARATOR);
+        appendField(trip.getPan());
+        append(SEPARATOR);
+        if (trip.getStatus() != null) {
+            appendField(trip.getStatus().name());
+        } else {
+            append(NULL);
+        }
+        append(LINE_END);
+    }
+
+
+    /**
+     * Formats one row of a trip buffer into the same bytes as the {@link TripModel} it materializes to.
+     */
+    void append(TripBuffer trips, int row) {
+        appendDateTime(trips.getStartedEpochSecond(row));
+        append(SEPARATOR);
+        appendDateTime(trips.getFinishedEpochSecond(row));
+        append(SEPARATOR);
+        appendLong(trips.getDurationSecs(row));
+        append(SEPARATOR);
+        appendField(IdDictionary.STOPS.decode(trips.getFromStopCode(row)));
+        append(SEPARATOR);
+        appendField(IdDictionary.STOPS.decode(trips.getToStopCode(row)));
+        append(SEPARATOR);
+        appendChargeAmount(trips.getChargeUnscaled(row), trips.getChargeScale(row));
+        append(SEPARATOR);
+        appendField(IdDictionary.COMPANIES.decode(trips.getCompanyCode(row)));
+        append(SEPARATOR);
+        appendField(IdDictionary.BUSES.decode(trips.getBusCode(row)));
+        append(SEPARATOR);
+        appendField(IdDictionary.PANS.decode(trips.getPanCode(row)));
+        append(SEPARATOR);
+        if (trips.getStatus(row) != null) {
+            appendField(trips.getStatus(row).name());
+        } else {
+            append(NULL);
+        }
+        append(LINE_END);
+    }
+
+
+    int size() {
+        return size;
+    }
+
+
+    void reset() {
+        size = 0;
+    }
+
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+
+    void writeTo(FileChannel channel) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(bytes, 0, size));
+        size = 0;
+    }
+
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    private void appendChargeAmount(String chargeAmount) {
+        if (chargeAmount == null) {
+            append(NOT_FOUND);
+            return;
+        }
+        // "$" + chargeAmount is one field: the '$' never needs escaping, the amount is escaped like any other text
+        append((byte) '$');
+        appendText(chargeAmount);
+    }
+
+
+    // Same text as "$" + BigDecimal.valueOf(unscaled, scale).toString(), without creating the BigDecimal
+    private void appendChargeAmount(long unscaled, int scale) {
+        if (unscaled == TripBuffer.NO_CHARGE) {
+            append(NOT_FOUND);
+            return;
+        }
+        long magnitude = Math.abs(unscaled);
+        int digits = digitCount(magnitude);
+        // BigDecimal switches to scientific notation for negative scales and very small adjusted exponents
+        if (scale < 0 || digits - 1 - scale < -6) {
+            append((byte) '$');
+            append(bytes(BigDecimal.valueOf(unscaled, scale).toString()));
+            return;
+        }
+
+        ensureCapacity(24 + scale);
+        bytes[size++] = '$';
+        if (unscaled < 0) {
+            bytes[size++] = '-';
+        }
+        if (digits <= scale) {
+            bytes[size++] = '0';
+            bytes[size++] = '.';
+            for (int i = digits; i < scale; i++) {
+                bytes[size++] = '0';
+            }
+        }
+        int end = size + digits + (digits > scale && scale > 0 ? 1 : 0);
+        int point = digits > scale && scale > 0 ? end - scale - 1 : -1;
+        for (int i = end - 1; i >= size; i--) {
+            if (i == point) {
+                bytes[i] = '.';
+                continue;
+            }
+            bytes[i] = (byte) ('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        size = end;
+    }
+
+
+    private void appendField(String value) {
+        if (value != null) {
+            appendText(value);
+        }
+    }
+
+
+    private void appendText(String value) {
+        int length = value.length();
+        // Worst case: every character is escaped
+        ensureCapacity(2 * length);
+        int start = size;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                size = start;
+                appendEncoded(value);
+                return;
+            }
+            if (isEscaped(c)) {
+                bytes[size++] = ESCAPE;
+            }
+            bytes[size++] = (byte) c;
+        }
+    }
+
+
+    // Rare: text with non-ASCII characters goes through the UTF-8 encoder
+    private void appendEncoded(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isEscaped(c)) {
+                escaped.append((char) ESCAPE);
+            }
+            escaped.append(c);
+        }
+        append(escaped.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private static boolean isEscaped(char c) {
+        return c == '"' || c == ',' || c == '\n' || c == '\0';
+    }
+
+
+    // Same text as LocalDateTime.toString() for whole seconds: uuuu-MM-dd'T'HH:mm, then :ss unless seconds are zero
+    private void appendDateTime(long epochSecond) {
+        if (epochSecond == TripModel.NO_TIME) {
+            append(UNKNOWN);
+            return;
+        }
+        long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(epochSecond, SECONDS_PER_DAY);
+
+        // Civil date from days, with years starting in March so that the leap day is the last day of the year
+        long dayOfCycle = epochDay + 719_468;
+        long era = Math.floorDiv(dayOfCycle, 146_097);
+        int dayOfEra = (int) (dayOfCycle - era * 146_097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+        int month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            append(bytes(LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).toString()));
+            return;
+        }
+
+        ensureCapacity(19);
+        appendDigits((int) year, 4);
+        bytes[size++] = '-';
+        appendDigits(month, 2);
+        bytes[size++] = '-';
+        appendDigits(day, 2);
+        bytes[size++] = 'T';
+        appendDigits(secondOfDay / 3600, 2);
+        bytes[size++] = ':';
+        appendDigits(secondOfDay / 60 % 60, 2);
+
+        int second = secondOfDay % 60;
+        if (second > 0) {
+            bytes[size++] = ':';
+            appendDigits(second, 2);
+        }
+    }
+
+
+    private void appendDigits(int value, int width) {
+        for (int i = size + width - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += width;
+    }
+
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append(bytes(Long.toString(value)));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int end = size + digitCount(value);
+        for (int i = end - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size = end;
+    }
+
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+
+    private void append(byte value) {
+        ensureCapacity(1);
+        bytes[size++] = value;
+    }
+
+
+    private void append(byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, bytes, size, value.length);
+        size += value.length;
+    }
+
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,47 @@
+package dev.amir.trip_matcher.writer.service;
+
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for trips.csv rows. Rows are written in the order they are given, after the header.
+ */
+public interface TripWriter extends Closeable {
+
+    /**
+     * @throws java.io.UncheckedIOException when the row cannot be written, so the writer can be used as a sink
+     */
+    void write(TripModel trip);
+
+    default void writeAll(List<TripModel> trips) throws IOException {
+        for (TripModel trip : trips) {
+            write(trip);
+        }
+    }
+
+    /**
+     * Writes one row of a trip buffer, the same row as {@code write(trips.get(row))}.
+     *
+     * @throws java.io.UncheckedIOException when the row cannot be written
+     */
+    default void write(TripBuffer trips, int row) {
+        write(trips.get(row));
+    }
+
+    default void writeAll(TripBuffer trips) throws IOException {
+        for (int row = 0; row < trips.size(); row++) {
+            write(trips, row);
+        }
+    }
+
+    /**
+     * Writes the rows buffered so far to the file.
+     */
+    void flush() throws IOException;
+
+    long getRowCount();
+}
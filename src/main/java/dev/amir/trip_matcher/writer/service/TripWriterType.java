@@ -0,0 +1,8 @@
+package dev.amir.trip_matcher.writer.service;
+
+public enum TripWriterType {
+    // opencsv CSVWriter over a buffered FileWriter
+    OPENCSV,
+    // Rows formatted straight into bytes and written through a FileChannel, optionally in parallel blocks
+    FAST
+}
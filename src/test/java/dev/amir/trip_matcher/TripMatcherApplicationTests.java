@@ -1,8 +1,43 @@
 package dev.amir.trip_matcher;
 
-import org.springframework.boot.test.context.SpringBootTest;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
-@SpringBootTest
 class TripMatcherApplicationTests {
 
+    private static final Path INPUT_TAPS_CSV_FILE_PATH = Path.of("src/test/resources/data/taps-integrationTest.csv");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("The application starts without the components it builds itself, then matches the input; the startup time is gated by CdsStartupIT")
+    void run_ShouldStartWithoutUnusedBeansAndWriteTrips() throws IOException {
+        //given
+        Path output = tempDir.resolve("trips.csv");
+        SpringApplication application = new SpringApplication(TripMatcherApplication.class);
+
+        //when
+        try (ConfigurableApplicationContext context = application.run(
+                "--csv.input-file.path=" + INPUT_TAPS_CSV_FILE_PATH, "--csv.output-file.path=" + output)) {
+
+            //then
+            assertEquals(0, context.getBeanNamesForType(TapProcessor.class).length);
+            assertEquals(0, context.getBeanNamesForType(TripFareManager.class).length);
+            assertEquals(0, context.getBeanNamesForType(BackToBackTapRuleEngine.class).length);
+        }
+        assertEquals(Files.readAllLines(Path.of("src/test/resources/data/trips-integrationTest.csv")), Files.readAllLines(output));
+    }
 }
@@ -0,0 +1,139 @@
+package dev.amir.trip_matcher.datastore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FareFileWatcherTest {
+
+    private static final String HEADER = "SourceStop, DestinationStop, Price\n";
+
+    @TempDir
+    Path tempDir;
+
+    private Path faresFile;
+    private TripFareManager tripFareManager;
+
+    @BeforeEach
+    public void setUp() {
+        faresFile = tempDir.resolve("fares.csv");
+        tripFareManager = new TripFareManager();
+    }
+
+    @Test
+    void loadDatastore_ShouldMatchDefaultFares() throws IOException {
+        //given
+        TripFareManager defaultFares = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(defaultFares);
+
+        //when
+        CsvFareLoader.loadDatastore(Path.of("src/main/resources/data/fares.csv"), tripFareManager);
+
+        //then
+        for (String source : new String[]{"Stop1", "Stop2", "Stop3"}) {
+            for (String destination : new String[]{"Stop1", "Stop2", "Stop3", "UNKNOWN"}) {
+                assertEquals(defaultFares.getPrice(source, destination), tripFareManager.getPrice(source, destination));
+            }
+        }
+    }
+
+    @Test
+    void loadDatastore_MalformedFile_ShouldThrow() throws IOException {
+        //given
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, three\n");
+
+        //when //then
+        assertThrows(IOException.class, () -> CsvFareLoader.loadDatastore(faresFile, tripFareManager));
+    }
+
+    @Test
+    void reload_ShouldPublishNewSnapshotAndKeepOldOneIntact() throws IOException {
+        //given
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, 3.25\n");
+        FareTable before = CsvFareLoader.loadDatastore(faresFile, tripFareManager);
+        int stop1 = IdDictionary.STOPS.encode("Stop1");
+        int stop2 = IdDictionary.STOPS.encode("Stop2");
+
+        //when
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, 4.00\nStop2, Stop1, 4.00\n");
+        boolean reloaded = new FareFileWatcher(faresFile, tripFareManager).reload();
+
+        //then
+        FareTable after = tripFareManager.getFareTable();
+        assertTrue(reloaded);
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertEquals(new BigDecimal("3.25"), before.getPrice(stop1, stop2));
+        assertNull(before.getPrice(stop2, stop1));
+        assertEquals(new BigDecimal("4.00"), after.getPrice(stop1, stop2));
+        assertEquals(new BigDecimal("4.00"), after.getPrice(stop2, stop1));
+    }
+
+    @Test
+    void reload_MalformedFile_ShouldKeepPreviousSnapshot() throws IOException {
+        //given
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, 3.25\n");
+        FareTable before = CsvFareLoader.loadDatastore(faresFile, tripFareManager);
+        FareFileWatcher watcher = new FareFileWatcher(faresFile, tripFareManager);
+
+        //when
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2\n");
+        boolean reloaded = watcher.reload();
+
+        //then
+        assertFalse(reloaded);
+        assertEquals(1, watcher.getFailedReloadCount());
+        assertSame(before, tripFareManager.getFareTable());
+    }
+
+    @Test
+    void reload_FareTooLargeForTheTable_ShouldCountOnlyAFailureAndKeepPreviousSnapshot() throws IOException {
+        //given
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, 3.25\n");
+        FareTable before = CsvFareLoader.loadDatastore(faresFile, tripFareManager);
+        FareFileWatcher watcher = new FareFileWatcher(faresFile, tripFareManager);
+
+        //when
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, 1E+30\n");
+        boolean reloaded = watcher.reload();
+
+        //then
+        assertFalse(reloaded);
+        assertEquals(0, watcher.getReloadCount());
+        assertEquals(1, watcher.getFailedReloadCount());
+        assertSame(before, tripFareManager.getFareTable());
+        assertEquals(new BigDecimal("3.25"), tripFareManager.getPrice("Stop1", "Stop2"));
+    }
+
+    @Test
+    void start_FileChanged_ShouldReloadInBackground() throws Exception {
+        //given
+        Files.writeString(faresFile, HEADER + "Stop1, Stop2, 3.25\n");
+        long version = CsvFareLoader.loadDatastore(faresFile, tripFareManager).getVersion();
+
+        try (FareFileWatcher watcher = new FareFileWatcher(faresFile, tripFareManager).start()) {
+            //when
+            Files.writeString(faresFile, HEADER + "Stop1, Stop2, 4.00\n");
+
+            //then
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (watcher.getReloadCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(watcher.getReloadCount() >= 1);
+            assertTrue(tripFareManager.getFareTable().getVersion() > version);
+            assertEquals(new BigDecimal("4.00"), tripFareManager.getPrice("Stop1", "Stop2"));
+        }
+    }
+}
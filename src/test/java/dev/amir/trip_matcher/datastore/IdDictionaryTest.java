@@ -0,0 +1,58 @@
+package dev.amir.trip_matcher.datastore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class IdDictionaryTest {
+
+    @Test
+    void encode_SameValue_ShouldReturnSameCodeAndCanonicalString() {
+        IdDictionary dictionary = new IdDictionary();
+
+        int code = dictionary.encode(new String("Stop1"));
+
+        assertEquals(code, dictionary.encode(new String("Stop1")));
+        assertSame(dictionary.decode(code), dictionary.decode(dictionary.encode("Stop1")));
+        assertEquals(IdDictionary.NOT_FOUND, dictionary.find("Stop2"));
+    }
+
+    @Test
+    void encode_ConcurrentCallers_ShouldAssignDenseCodes() {
+        IdDictionary dictionary = new IdDictionary();
+        Set<Integer> codes = ConcurrentHashMap.newKeySet();
+
+        IntStream.range(0, 10_000).parallel().forEach(i -> codes.add(dictionary.encode("PAN" + (i % 1000))));
+
+        assertEquals(1000, dictionary.size());
+        assertEquals(1000, codes.size());
+        IntStream.range(0, 1000).forEach(code -> assertEquals(code, dictionary.encode(dictionary.decode(code))));
+    }
+
+    @Test
+    void retainOnly_ShouldEvictUnreferencedValuesAndReuseTheirCodes() {
+        IdDictionary dictionary = new IdDictionary();
+        int pinned = dictionary.pin("UNKNOWN");
+        int kept = dictionary.encode("PAN1");
+        int evicted = dictionary.encode("PAN2");
+        BitSet live = new BitSet();
+        live.set(kept);
+
+        assertEquals(1, dictionary.retainOnly(live));
+
+        assertEquals(2, dictionary.size());
+        assertEquals(1, dictionary.evictions());
+        assertEquals("UNKNOWN", dictionary.decode(pinned));
+        assertEquals("PAN1", dictionary.decode(kept));
+        assertNull(dictionary.decode(evicted));
+        assertEquals(IdDictionary.NOT_FOUND, dictionary.find("PAN2"));
+        assertEquals(evicted, dictionary.encode("PAN3"));
+    }
+}
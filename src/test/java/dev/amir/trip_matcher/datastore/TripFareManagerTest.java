@@ -5,9 +5,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TripFareManagerTest {
 
@@ -77,4 +81,42 @@ class TripFareManagerTest {
         BigDecimal price = tripFareManager.getPrice("Stop1", "StopX");
         assertNull(price);
     }
-}
\ No newline at end of file
+
+
+    @Test
+    void testGetPrice_RuleAddedAfterLookup_IsVisible() {
+        tripFareManager.addPriceRule("Stop1", "Stop2", new BigDecimal("2.50"));
+        assertEquals(new BigDecimal("2.50"), tripFareManager.getPrice("Stop1", "Stop2"));
+
+        tripFareManager.addPriceRule("Stop1", "Stop2", new BigDecimal("2.75"));
+        assertEquals(new BigDecimal("2.75"), tripFareManager.getPrice("Stop1", "Stop2"));
+    }
+
+
+    @Test
+    void testFareTable_SparseAndDenseLayouts_ReturnSameFares() {
+        //given
+        int stop1 = IdDictionary.STOPS.encode("Stop1");
+        int stop2 = IdDictionary.STOPS.encode("Stop2");
+        int unknown = IdDictionary.STOPS.encode("UNKNOWN");
+        Map<Route, BigDecimal> priceRules = Map.of(
+                new Route(stop1, stop2), new BigDecimal("3.25"),
+                new Route(stop1, stop1), new BigDecimal("0.0"),
+                new Route(stop1, unknown), new BigDecimal("7.30"));
+
+        //when
+        FareTable dense = new FareTable(priceRules, unknown, IdDictionary.STOPS.size(), 1);
+        FareTable sparse = new FareTable(priceRules, unknown, 4096, 1);
+
+        //then
+        assertTrue(dense.isDense());
+        assertFalse(sparse.isDense());
+        for (FareTable fareTable : List.of(dense, sparse)) {
+            assertEquals(new BigDecimal("3.25"), fareTable.getPrice(stop1, stop2));
+            assertEquals("0.0", fareTable.getPriceText(stop1, stop1));
+            assertEquals(730, fareTable.getPriceInCents(stop1, unknown));
+            assertNull(fareTable.getPrice(stop2, stop1));
+            assertEquals(FareTable.NO_FARE, fareTable.getPriceInCents(stop2, unknown));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dev.amir.trip_matcher.integrationTest;
+
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+
+/**
+ * Startup gate of the cds build: starts the packaged jar with its AppCDS archive in a JVM of its own, as a scheduled
+ * job would, and reads the time from JVM start to processing from the exported metrics. Run by failsafe with
+ * {@code mvn -Pcds verify}; raise the budget with -Dstartup.budget-millis=... on a slow machine.
+ */
+@EnabledIfSystemProperty(named = "cds.jar", matches = ".+")
+class CdsStartupIT {
+
+    private static final Duration STARTUP_BUDGET = Duration.ofMillis(Long.getLong("startup.budget-millis", 3000));
+    private static final Duration RUN_TIMEOUT = Duration.ofMinutes(1);
+    private static final String INPUT_TAPS_CSV_FILE_PATH = "src/test/resources/data/taps-integrationTest.csv";
+    private static final Path EXPECTED_TRIPS_CSV_FILE_PATH = Path.of("src/test/resources/data/trips-integrationTest.csv");
+    private static final String STARTUP_GAUGE = "trip_matcher_startup_seconds ";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("The packaged jar started with its AppCDS archive is ready to process within the startup budget, then matches the input")
+    void run_WithCdsArchive_ShouldStartWithinBudgetAndWriteTrips() throws IOException, InterruptedException {
+        //given
+        Path output = tempDir.resolve("trips.csv");
+        Path metrics = tempDir.resolve("trip-matcher.prom");
+        Path log = tempDir.resolve("trip-matcher.log");
+        ProcessBuilder builder = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                // Fails the start rather than silently running without the archive
+                "-Xshare:on",
+                "-XX:SharedArchiveFile=" + System.getProperty("cds.archive"),
+                "-Dspring.aot.enabled=true",
+                "-jar", System.getProperty("cds.jar"),
+                "--csv.input-file.path=" + INPUT_TAPS_CSV_FILE_PATH,
+                "--csv.output-file.path=" + output,
+                "--metrics.output-file.path=" + metrics)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile());
+
+        //when
+        Process process = builder.start();
+        if (!process.waitFor(RUN_TIMEOUT.toSeconds(), TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            fail("Still running after " + RUN_TIMEOUT + ":\n" + Files.readString(log));
+        }
+
+        //then
+        assertEquals(0, process.exitValue(), Files.readString(log));
+        Duration startup = Files.readAllLines(metrics).stream()
+                .filter(line -> line.startsWith(STARTUP_GAUGE))
+                .map(line -> Duration.ofMillis(Math.round(Double.parseDouble(line.substring(STARTUP_GAUGE.length())) * 1000)))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + STARTUP_GAUGE.trim() + " in " + metrics));
+        assertTrue(startup.compareTo(STARTUP_BUDGET) <= 0,
+                "Ready to process " + startup.toMillis() + " ms after the JVM started, over the budget of " + STARTUP_BUDGET.toMillis() + " ms");
+        assertEquals(Files.readAllLines(EXPECTED_TRIPS_CSV_FILE_PATH), Files.readAllLines(output));
+    }
+}
@@ -8,24 +8,31 @@ import dev.amir.trip_matcher.writer.model.TripModel;
 import dev.amir.trip_matcher.writer.service.CsvWritingService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static dev.amir.trip_matcher.datastore.DefaultTripFareLoader.loadDatastore;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 
 /**
  * This test case is an integration test that tests the interaction between the CsvReadingService
  * and TapProcessor classes. The test case reads a CSV file containing tap data, processes the data
- * using the TapProcessor class, and asserts the output.
+ * using the TapProcessor class, and asserts the output against the expected trips file.
  */
 class IntegrationTest {
 
     private static final String INPUT_TAPS_CSV_FILE_PATH = "src/test/resources/data/taps-integrationTest.csv";
     private static final String OUTOUT_TRIPS_CSV_FILE_PATH = "src/test/resources/data/trips-integrationTest.csv";
 
+    @TempDir
+    Path tempDir;
+
     private CsvReadingService csvReadingService;
     private TripFareManager tripFareManager;
     private CsvWritingService csvWritingService;
@@ -34,7 +41,7 @@ class IntegrationTest {
     void setUp() {
         csvReadingService = new CsvReadingService(INPUT_TAPS_CSV_FILE_PATH);
 
-        csvWritingService = new CsvWritingService(OUTOUT_TRIPS_CSV_FILE_PATH);
+        csvWritingService = new CsvWritingService(tempDir.resolve("trips.csv").toString());
 
         tripFareManager = new TripFareManager();
         loadDatastore(tripFareManager);
@@ -48,5 +55,6 @@ class IntegrationTest {
         List<TripModel> trips = tapProcessor.tripMaker(taps);
 
         assertDoesNotThrow(() -> csvWritingService.writeTripsToCsv(trips));
+        assertEquals(Files.readAllLines(Path.of(OUTOUT_TRIPS_CSV_FILE_PATH)), Files.readAllLines(tempDir.resolve("trips.csv")));
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package dev.amir.trip_matcher.metrics;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessingMetricsTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T01:01:01");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("A batch reports its group sizes, the rules fired and the trips priced without a fare")
+    void tripMaker_WithMetrics_ShouldCountGroupsRulesAndFareMisses() {
+        //given
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        List<TapModel> taps = List.of(
+                new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(2, START.plusMinutes(5), "OFF", "Stop2", "Company1", "Bus1", "PAN1"),
+                new TapModel(3, START, "ON", "Stop1", "Company1", "Bus1", "PAN2"),
+                new TapModel(4, START.plusMinutes(5), "OFF", "Stop1", "Company1", "Bus1", "PAN2"),
+                new TapModel(5, START, "ON", "Stop9", "Company1", "Bus1", "PAN3"),
+                new TapModel(6, START.plusMinutes(5), "OFF", "Stop8", "Company1", "Bus1", "PAN3"));
+
+        //when
+        new TapProcessor(tripFareManager, TapTraceSampler.DISABLED, 1, metrics).tripMaker(taps);
+        String scrape = metrics.scrape();
+
+        //then
+        assertTrue(scrape.contains("trip_matcher_rules_fired_total{rule=\"ON_OFF\"} 2"), scrape);
+        assertTrue(scrape.contains("trip_matcher_rules_fired_total{rule=\"ON_OFF_SAME_STOP\"} 1"), scrape);
+        assertTrue(scrape.contains("trip_matcher_rules_fired_total{rule=\"GROUP_HEAD\"} 3"), scrape);
+        assertTrue(scrape.contains("trip_matcher_fare_lookup_misses_total 1"), scrape);
+        assertTrue(scrape.contains("trip_matcher_group_size_count 3"), scrape);
+        assertTrue(scrape.contains("trip_matcher_group_size_sum 6"), scrape);
+        assertTrue(scrape.contains("trip_matcher_stage_seconds_count{stage=\"match\"} 1"), scrape);
+    }
+
+
+    @Test
+    @Description("Bound values are read when the metrics are dumped, and the dump replaces the previous one")
+    void writePrometheus_ShouldDumpBoundValues() throws IOException {
+        //given
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        long[] spillBytes = {0};
+        metrics.bindCounter("external.spill.bytes", "Bytes spilled", spillBytes, bytes -> bytes[0]);
+        Path file = tempDir.resolve("metrics/trip-matcher.prom");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "stale");
+
+        //when
+        spillBytes[0] = 4096;
+        metrics.writePrometheus(file);
+
+        //then
+        String dump = Files.readString(file);
+        assertTrue(dump.contains("trip_matcher_external_spill_bytes_total 4096"), dump);
+        assertEquals("", ProcessingMetrics.DISABLED.scrape());
+    }
+}
@@ -0,0 +1,178 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventTimeTapProcessorTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T08:00:00");
+    private static final Duration ALLOWED_LATENESS = Duration.ofMinutes(5);
+    private static final Duration IDLE_TIMEOUT = Duration.ofSeconds(2);
+
+    private TripFareManager tripFareManager;
+    private List<TripModel> trips;
+
+    @BeforeEach
+    void setUp() {
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        trips = new ArrayList<>();
+    }
+
+
+    @Test
+    @Description("Taps shuffled within the allowed lateness produce the same trips as the batch processor")
+    void accept_WhenTapsArriveOutOfOrderWithinLateness_ShouldProduceSameTripsAsBatch() {
+        //given
+        List<TapModel> taps = new ArrayList<>();
+        Random random = new Random(42);
+        String[] stops = {"Stop1", "Stop2", "Stop3"};
+        for (int i = 0; i < 600; i++) {
+            taps.add(new TapModel(i, START.plusSeconds(i * 7L), random.nextBoolean() ? "ON" : "OFF",
+                    stops[random.nextInt(3)], "Company1", "Bus" + random.nextInt(3), "PAN" + random.nextInt(20)));
+        }
+        List<TapModel> arrivals = shuffleWithin(taps, 30, random);
+        EventTimeTapProcessor processor = newProcessor(1_000_000);
+
+        //when
+        arrivals.forEach(tap -> processor.accept(tap, trips::add));
+        processor.finish(trips::add);
+
+        //then
+        List<TripModel> batchTrips = new TapProcessor(tripFareManager).tripMaker(new ArrayList<>(taps));
+        assertEquals(0, processor.getLateTapCount());
+        assertEquals(batchTrips.size(), trips.size());
+        assertEquals(new HashSet<>(batchTrips), new HashSet<>(trips));
+    }
+
+
+    @Test
+    @Description("A trip is emitted as soon as the watermark passes its tap off; a tap behind the watermark is dropped")
+    void accept_WhenWatermarkPassesTapOff_ShouldEmitTripAndDropLaterLateTaps() {
+        //given
+        EventTimeTapProcessor processor = newProcessor(1_000_000);
+        processor.accept(new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips::add);
+        processor.accept(new TapModel(2, START.plusMinutes(10), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), trips::add);
+        assertTrue(trips.isEmpty());
+
+        //when
+        processor.accept(new TapModel(3, START.plusMinutes(15), "ON", "Stop1", "Company1", "Bus2", "PAN2"), trips::add);
+        processor.accept(new TapModel(4, START.plusMinutes(1), "ON", "Stop3", "Company1", "Bus3", "PAN3"), trips::add);
+
+        //then
+        assertEquals(1, trips.size());
+        assertEquals(TripStatus.COMPLETED, trips.get(0).getStatus());
+        assertEquals("3.25", trips.get(0).getChargeAmount());
+        assertEquals(1, processor.getLateTapCount());
+        assertEquals(1, processor.bufferedTapCount());
+    }
+
+
+    @Test
+    @Description("Idle streams release the reorder buffer; a full buffer releases its oldest taps early")
+    void tick_WhenStreamIsIdle_ShouldReleaseBufferedTaps() {
+        //given
+        EventTimeTapProcessor processor = newProcessor(2);
+        processor.accept(new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1"), 0, trips::add);
+        processor.accept(new TapModel(2, START.plusMinutes(1), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), 0, trips::add);
+        processor.accept(new TapModel(3, START.plusMinutes(2), "ON", "Stop1", "Company1", "Bus2", "PAN2"), 0, trips::add);
+        processor.accept(new TapModel(4, START.plusMinutes(3), "OFF", "Stop3", "Company1", "Bus2", "PAN2"), 0, trips::add);
+        assertEquals(2, processor.getForcedReleaseCount());
+        assertEquals(1, trips.size());
+
+        //when
+        processor.tick(IDLE_TIMEOUT.toNanos() - 1, trips::add);
+        int tripsBeforeIdleTimeout = trips.size();
+        processor.tick(IDLE_TIMEOUT.toNanos(), trips::add);
+
+        //then
+        assertEquals(1, tripsBeforeIdleTimeout);
+        assertEquals(2, trips.size());
+        assertEquals(0, processor.bufferedTapCount());
+    }
+
+
+    @Test
+    @Description("Taps released by an idle tick only move their own group on: a tap off uploaded late, within the lateness, still closes its trip")
+    void tick_WhenTapOffArrivesAfterIdleRelease_ShouldCompleteTheTrip() {
+        //given
+        EventTimeTapProcessor processor = newProcessor(1_000_000);
+        processor.accept(new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1"), 0, trips::add);
+        processor.accept(new TapModel(2, START.plusMinutes(4), "ON", "Stop1", "Company1", "Bus2", "PAN2"), 0, trips::add);
+        processor.tick(IDLE_TIMEOUT.toNanos(), trips::add);
+        assertEquals(0, processor.bufferedTapCount());
+
+        //when
+        processor.accept(new TapModel(3, START.plusMinutes(2), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), IDLE_TIMEOUT.toNanos() + 1, trips::add);
+        processor.accept(new TapModel(4, START.plusMinutes(3), "OFF", "Stop2", "Company1", "Bus2", "PAN2"), IDLE_TIMEOUT.toNanos() + 1, trips::add);
+        processor.finish(trips::add);
+
+        //then
+        assertEquals(1, processor.getLateTapCount());
+        assertEquals(2, trips.size());
+        TripModel pan1Trip = trips.stream().filter(trip -> "PAN1".equals(trip.getPan())).findFirst().orElseThrow();
+        assertEquals(TripStatus.COMPLETED, pan1Trip.getStatus());
+        assertEquals("3.25", pan1Trip.getChargeAmount());
+        TripModel pan2Trip = trips.stream().filter(trip -> "PAN2".equals(trip.getPan())).findFirst().orElseThrow();
+        assertEquals(TripStatus.INCOMPLETE, pan2Trip.getStatus());
+    }
+
+
+    @Test
+    @Description("A trip with no tap off for the inactivity timeout is closed before the stream ends, as the same trip")
+    void accept_WhenTripIsInactiveForTheTimeout_ShouldCloseItAsIncomplete() {
+        //given
+        EventTimeTapProcessor processor = new EventTimeTapProcessor(new StreamingTapProcessor(tripFareManager), ALLOWED_LATENESS,
+                IDLE_TIMEOUT, 1_000_000, Duration.ofHours(1));
+        List<TapModel> taps = new ArrayList<>();
+        taps.add(new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1"));
+        for (int i = 0; i < 30; i++) {
+            taps.add(new TapModel(2 + 2 * i, START.plusMinutes(5L * i), "ON", "Stop1", "Company1", "Bus2", "PAN2"));
+            taps.add(new TapModel(3 + 2 * i, START.plusMinutes(5L * i + 2), "OFF", "Stop2", "Company1", "Bus2", "PAN2"));
+        }
+
+        //when
+        taps.forEach(tap -> processor.accept(tap, 0, trips::add));
+        List<TripModel> tripsBeforeFinish = new ArrayList<>(trips);
+        processor.finish(trips::add);
+
+        //then
+        assertEquals(1, processor.getExpiredTripCount());
+        assertTrue(tripsBeforeFinish.stream().anyMatch(trip -> "PAN1".equals(trip.getPan()) && trip.getStatus() == TripStatus.INCOMPLETE));
+        List<TripModel> batchTrips = new TapProcessor(tripFareManager).tripMaker(new ArrayList<>(taps));
+        assertEquals(new HashSet<>(batchTrips), new HashSet<>(trips));
+        assertEquals(batchTrips.size(), trips.size());
+    }
+
+
+    private EventTimeTapProcessor newProcessor(int maxBufferedTaps) {
+        return new EventTimeTapProcessor(new StreamingTapProcessor(tripFareManager), ALLOWED_LATENESS, IDLE_TIMEOUT, maxBufferedTaps);
+    }
+
+
+    // Each tap is delayed by a random number of positions, at most maxDelay (7s apart: well within the lateness)
+    private static List<TapModel> shuffleWithin(List<TapModel> taps, int maxDelay, Random random) {
+        List<TapModel> arrivals = new ArrayList<>(taps);
+        for (int i = 0; i + maxDelay < arrivals.size(); i += maxDelay) {
+            Collections.shuffle(arrivals.subList(i, i + maxDelay), random);
+        }
+        return arrivals;
+    }
+}
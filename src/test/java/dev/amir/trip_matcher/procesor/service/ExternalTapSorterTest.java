@@ -0,0 +1,147 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExternalTapSorterTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T06:00:00");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("Taps spilled to several runs are merged back in group and time order, keeping the input order of ties")
+    void finish_WhenTapsAreSpilled_ShouldMergeRunsInSortedOrder() throws IOException {
+        //given
+        List<TapModel> taps = generateTaps(1_000);
+        List<TapModel> merged = new ArrayList<>();
+
+        //when
+        try (ExternalTapSorter sorter = new ExternalTapSorter(tempDir, 100L * ExternalTapSorter.ESTIMATED_TAP_BYTES)) {
+            taps.forEach(sorter::accept);
+            long count = sorter.finish(tap -> merged.add(tap.copy()));
+
+            //then
+            assertEquals(1_000, count);
+            assertEquals(10, sorter.getRunCount());
+            assertTrue(sorter.getSpillBytes() > 0);
+        }
+        assertEquals(sorted(taps), merged);
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+
+    @Test
+    @Description("Merged taps fed to the sorted processor give the same trips as the in-memory batch")
+    void finish_IntoSortedProcessor_ShouldMatchBatchTrips() throws IOException {
+        //given
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        List<TapModel> taps = generateTaps(2_000);
+        SortedTapProcessor sortedTapProcessor = new SortedTapProcessor(tripFareManager);
+        List<TripModel> trips = new ArrayList<>();
+
+        //when
+        try (ExternalTapSorter sorter = new ExternalTapSorter(tempDir, 300L * ExternalTapSorter.ESTIMATED_TAP_BYTES)) {
+            taps.forEach(sorter::accept);
+            sorter.finish(tap -> sortedTapProcessor.accept(tap, trips::add));
+            sortedTapProcessor.finish(trips::add);
+        }
+
+        //then
+        List<TripModel> batchTrips = new ArrayList<>(new TapProcessor(tripFareManager).tripMaker(taps));
+        batchTrips.sort(Comparator.comparing(TripModel::getCompanyId).thenComparing(TripModel::getBusId).thenComparing(TripModel::getPan));
+        assertEquals(batchTrips, trips);
+    }
+
+
+    @Test
+    void finish_WhenTapsFitInMemory_ShouldNotSpill() throws IOException {
+        //given
+        List<TapModel> taps = generateTaps(50);
+        List<TapModel> merged = new ArrayList<>();
+
+        //when
+        try (ExternalTapSorter sorter = new ExternalTapSorter(tempDir, 100L * ExternalTapSorter.ESTIMATED_TAP_BYTES)) {
+            taps.forEach(sorter::accept);
+            sorter.finish(merged::add);
+
+            //then
+            assertEquals(0, sorter.getRunCount());
+        }
+        assertEquals(sorted(taps), merged);
+    }
+
+
+    @Test
+    @Description("With PAN eviction the dictionary only keeps the PANs being merged, and merged taps still carry the right PANs")
+    void finish_WithPanEviction_ShouldKeepOnlyMergedPans() throws IOException {
+        //given
+        int panCount = 150_000;
+        List<String> pans = new ArrayList<>();
+
+        //when
+        try (ExternalTapSorter sorter = new ExternalTapSorter(tempDir, 20_000L * ExternalTapSorter.ESTIMATED_TAP_BYTES)) {
+            sorter.evictPans();
+            // PANs in reverse order, so that every run is reordered
+            for (int id = 0; id < panCount; id++) {
+                sorter.accept(new TapModel(id, START, "ON", "Stop1", "Company1", "Bus1", pan(panCount - 1 - id)));
+            }
+            sorter.finish(tap -> pans.add(tap.getPan()));
+        }
+
+        //then
+        assertTrue(IdDictionary.PANS.size() < 100_000, "PANs kept: " + IdDictionary.PANS.size());
+        assertEquals(IntStream.range(0, panCount).mapToObj(ExternalTapSorterTest::pan).toList(), pans);
+    }
+
+
+    private static String pan(int index) {
+        return String.format("EVICTED-PAN%06d", index);
+    }
+
+
+    private static List<TapModel> sorted(List<TapModel> taps) {
+        return taps.stream()
+                .sorted(Comparator.comparing(TapModel::getCompanyId)
+                        .thenComparing(TapModel::getBusId)
+                        .thenComparing(TapModel::getPan)
+                        .thenComparingLong(TapModel::getEpochSecond))
+                .toList();
+    }
+
+
+    private static List<TapModel> generateTaps(int count) {
+        Random random = new Random(11);
+        List<TapModel> taps = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            // Few distinct seconds so that many taps of a group tie on time
+            taps.add(new TapModel(id, START.plusSeconds(random.nextInt(600)), random.nextBoolean() ? "ON" : "OFF",
+                    "Stop" + (1 + random.nextInt(3)), "Company" + (1 + random.nextInt(2)), "Bus" + (1 + random.nextInt(3)),
+                    "PAN" + random.nextInt(40)));
+        }
+        return taps;
+    }
+}
@@ -0,0 +1,151 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenTripCheckpointTest {
+
+    private static final LocalDateTime HOUR_10 = LocalDateTime.parse("2024-01-01T10:00:00");
+    private static final Duration INACTIVITY_TIMEOUT = Duration.ofHours(3);
+
+    @TempDir
+    Path tempDir;
+
+    private TripFareManager tripFareManager;
+    private Path checkpoint;
+
+    @BeforeEach
+    void setUp() {
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        checkpoint = tempDir.resolve("open-trips.checkpoint");
+    }
+
+
+    @Test
+    @Description("A trip tapping on in one hourly file and off in the next is completed, not charged the maximum fare")
+    void run_WhenTripCrossesFileBoundary_ShouldCompleteItInNextRun() throws IOException {
+        //given
+        List<TapModel> firstHour = List.of(
+                new TapModel(1, HOUR_10.plusMinutes(10), "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(2, HOUR_10.plusMinutes(20), "OFF", "Stop2", "Company1", "Bus1", "PAN1"),
+                new TapModel(3, HOUR_10.plusMinutes(55), "ON", "Stop1", "Company1", "Bus2", "PAN2"));
+        List<TapModel> secondHour = List.of(
+                new TapModel(4, HOUR_10.plusMinutes(65), "OFF", "Stop2", "Company1", "Bus2", "PAN2"));
+
+        //when
+        List<TripModel> firstTrips = run(firstHour);
+        List<TripModel> secondTrips = run(secondHour);
+
+        //then
+        assertEquals(1, firstTrips.size());
+        assertEquals(1, secondTrips.size());
+        TripModel crossingTrip = secondTrips.get(0);
+        assertEquals(TripStatus.COMPLETED, crossingTrip.getStatus());
+        assertEquals("PAN2", crossingTrip.getPan());
+        assertEquals("3.25", crossingTrip.getChargeAmount());
+        assertEquals(600, crossingTrip.getDurationSecs());
+        assertTrue(OpenTripCheckpoint.read(checkpoint).openTaps().isEmpty());
+    }
+
+
+    @Test
+    @Description("Open trips are carried over until the inactivity timeout, then closed as INCOMPLETE")
+    void run_WhenTripIsInactiveLongerThanTimeout_ShouldCloseItAsIncomplete() throws IOException {
+        //given
+        List<TapModel> firstHour = List.of(
+                new TapModel(1, HOUR_10.plusMinutes(30), "ON", "Stop3", "Company1", "Bus1", "PAN1"));
+        List<TapModel> laterHour = List.of(
+                new TapModel(2, HOUR_10.plusHours(3).plusMinutes(29), "ON", "Stop1", "Company1", "Bus2", "PAN2"));
+        List<TapModel> evenLaterHour = List.of(
+                new TapModel(3, HOUR_10.plusHours(3).plusMinutes(31), "ON", "Stop2", "Company1", "Bus3", "PAN3"));
+
+        //when
+        List<TripModel> firstTrips = run(firstHour);
+        List<TripModel> laterTrips = run(laterHour);
+        List<TripModel> evenLaterTrips = run(evenLaterHour);
+
+        //then
+        assertTrue(firstTrips.isEmpty());
+        assertTrue(laterTrips.isEmpty());
+        assertEquals(1, evenLaterTrips.size());
+        assertEquals(TripStatus.INCOMPLETE, evenLaterTrips.get(0).getStatus());
+        assertEquals("PAN1", evenLaterTrips.get(0).getPan());
+        assertEquals("7.30", evenLaterTrips.get(0).getChargeAmount());
+
+        OpenTripCheckpoint carriedOver = OpenTripCheckpoint.read(checkpoint);
+        assertEquals(2, carriedOver.openTaps().size());
+        assertEquals(HOUR_10.plusHours(3).plusMinutes(31), carriedOver.latestTapTime());
+    }
+
+
+    @Test
+    @Description("A trip inactive longer than the timeout is INCOMPLETE whether its tap off is in the same file or a later one")
+    void run_WhenInputIsSplitDifferently_ShouldMakeTheSameTrips() throws IOException {
+        //given
+        List<TapModel> taps = List.of(
+                new TapModel(1, HOUR_10.plusMinutes(10), "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(2, HOUR_10.plusMinutes(20), "OFF", "Stop2", "Company1", "Bus1", "PAN1"),
+                new TapModel(3, HOUR_10.plusMinutes(30), "ON", "Stop3", "Company1", "Bus1", "PAN3"),
+                new TapModel(4, HOUR_10.plusMinutes(55), "ON", "Stop1", "Company1", "Bus2", "PAN2"),
+                new TapModel(5, HOUR_10.plusMinutes(65), "OFF", "Stop2", "Company1", "Bus2", "PAN2"),
+                new TapModel(6, HOUR_10.plusHours(3).plusMinutes(45), "ON", "Stop1", "Company1", "Bus3", "PAN4"),
+                new TapModel(7, HOUR_10.plusHours(4), "OFF", "Stop2", "Company1", "Bus1", "PAN3"),
+                new TapModel(8, HOUR_10.plusHours(4).plusMinutes(5), "OFF", "Stop2", "Company1", "Bus3", "PAN4"));
+
+        //when
+        checkpoint = tempDir.resolve("one-file.checkpoint");
+        List<TripModel> oneFileTrips = run(taps);
+        // Cut between the ON and OFF of PAN3, after a tap of another group more than the timeout later
+        checkpoint = tempDir.resolve("three-files.checkpoint");
+        List<TripModel> threeFileTrips = new ArrayList<>(run(taps.subList(0, 4)));
+        threeFileTrips.addAll(run(taps.subList(4, 6)));
+        threeFileTrips.addAll(run(taps.subList(6, 8)));
+
+        //then
+        assertEquals(oneFileTrips, threeFileTrips);
+        assertEquals(List.of("PAN1", "PAN2", "PAN3", "PAN4"), oneFileTrips.stream().map(TripModel::getPan).toList());
+        assertEquals(TripStatus.INCOMPLETE, oneFileTrips.get(2).getStatus());
+        assertEquals("7.30", oneFileTrips.get(2).getChargeAmount());
+    }
+
+
+    @Test
+    void read_WhenNoCheckpointExists_ShouldReturnEmpty() throws IOException {
+        assertSame(OpenTripCheckpoint.EMPTY, OpenTripCheckpoint.read(tempDir.resolve("missing.checkpoint")));
+    }
+
+
+    // Same steps as TripMatcherApplication in incremental mode
+    private List<TripModel> run(List<TapModel> taps) throws IOException {
+        StreamingTapProcessor tapProcessor = new StreamingTapProcessor(tripFareManager);
+        tapProcessor.expireInactive(INACTIVITY_TIMEOUT);
+        OpenTripCheckpoint previousRun = OpenTripCheckpoint.read(checkpoint);
+        tapProcessor.restore(previousRun.openTaps(), previousRun.latestTapTime());
+
+        List<TripModel> trips = new ArrayList<>();
+        taps.forEach(tap -> tapProcessor.accept(tap, trips::add));
+        tapProcessor.expire(tapProcessor.getLatestTapTime().minus(INACTIVITY_TIMEOUT), trips::add);
+
+        OpenTripCheckpoint.write(checkpoint, tapProcessor.getLatestTapTime(), tapProcessor.openTaps());
+        return trips;
+    }
+}
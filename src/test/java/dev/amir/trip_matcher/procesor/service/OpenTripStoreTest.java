@@ -0,0 +1,98 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenTripStoreTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T08:00:00");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("Random puts and removes leave the same open trips as a HashMap, across growth and shifted clusters")
+    void putAndRemove_ShouldMatchHashMap() {
+        //given
+        OpenTripStore store = new OpenTripStore(1, null);
+        Map<String, TapModel> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        //when
+        for (int i = 0; i < 50_000; i++) {
+            TapModel tap = new TapModel(i, START.plusSeconds(i), "ON", "Stop" + random.nextInt(10), "Company" + random.nextInt(3),
+                    "Bus" + random.nextInt(10), "PAN" + random.nextInt(2_000));
+            int slot = store.find(tap.getCompanyCode(), tap.getBusCode(), tap.getPanCode());
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key(tap)) != null, slot != OpenTripStore.NOT_FOUND);
+                if (slot != OpenTripStore.NOT_FOUND) {
+                    store.remove(slot);
+                }
+            } else {
+                expected.put(key(tap), tap);
+                store.put(tap);
+            }
+        }
+
+        //then
+        assertEquals(expected.size(), store.size());
+        assertEquals(expected, byKey(store.toTaps()));
+        TapModel missing = new TapModel(0, START, "ON", "Stop1", "Company9", "Bus1", "PAN1");
+        assertEquals(OpenTripStore.NOT_FOUND, store.find(missing.getCompanyCode(), missing.getBusCode(), missing.getPanCode()));
+    }
+
+
+    @Test
+    @Description("Expiry hands over and removes exactly the open trips older than the cutoff, from a mapped table")
+    void removeOlderThan_WhenMappedFromAFile_ShouldRemoveOnlyOlderTrips() throws Exception {
+        //given
+        OpenTripStore store = new OpenTripStore(10_000, tempDir);
+        for (int i = 0; i < 10_000; i++) {
+            store.put(new TapModel(i, START.plusSeconds(i), "ON", "Stop1", "Company1", "Bus" + i % 7, "PAN" + i));
+        }
+        List<TapModel> expired = new ArrayList<>();
+
+        //when
+        int removed = store.removeOlderThan(START.plusSeconds(4_000).toEpochSecond(ZoneOffset.UTC),
+                tap -> expired.add(new TapModel(tap.getId(), tap.getDateTimeUTC(), tap.getTapType(), tap.getStopId(),
+                        tap.getCompanyId(), tap.getBusId(), tap.getPan())));
+
+        //then
+        assertEquals(4_000, removed);
+        assertEquals(4_000, expired.size());
+        assertTrue(expired.stream().allMatch(tap -> tap.getId() < 4_000));
+        assertEquals(6_000, store.size());
+        assertTrue(store.toTaps().stream().allMatch(tap -> tap.getId() >= 4_000));
+        assertNotEquals(0, store.offHeapBytes());
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+
+    private static String key(TapModel tap) {
+        return tap.getCompanyId() + "/" + tap.getBusId() + "/" + tap.getPan();
+    }
+
+
+    private static Map<String, TapModel> byKey(List<TapModel> taps) {
+        return taps.stream().collect(Collectors.toMap(OpenTripStoreTest::key, tap -> tap));
+    }
+}
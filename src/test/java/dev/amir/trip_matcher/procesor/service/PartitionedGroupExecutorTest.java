@@ -0,0 +1,62 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PartitionedGroupExecutorTest {
+
+    @Test
+    @Description("Trips are returned in the same order whatever the number of workers, including a single skewed PAN")
+    void tripMaker_WithDifferentWorkerCounts_ShouldReturnSameTripsInSameOrder() {
+        //given
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        List<TapModel> taps = generateTaps(5_000);
+
+        //when
+        List<TripModel> singleWorker = new TapProcessor(tripFareManager, TapTraceSampler.DISABLED, 1).tripMaker(taps);
+        List<TripModel> fourWorkers = new TapProcessor(tripFareManager, TapTraceSampler.DISABLED, 4).tripMaker(taps);
+        List<TripModel> sevenWorkers = new TapProcessor(tripFareManager, TapTraceSampler.DISABLED, 7).tripMaker(taps);
+
+        //then
+        assertEquals(singleWorker, fourWorkers);
+        assertEquals(singleWorker, sevenWorkers);
+    }
+
+
+    @Test
+    void constructor_WithoutWorkers_ShouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedGroupExecutor(0));
+    }
+
+
+    private static List<TapModel> generateTaps(int count) {
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.parse("2024-01-01T06:00:00");
+        List<TapModel> taps = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            // A third of the taps belong to one busy PAN so that its partition is much larger than the others
+            String pan = id % 3 == 0 ? "PAN0" : "PAN" + random.nextInt(500);
+            taps.add(new TapModel(id, start.plusSeconds(random.nextInt(86_400)),
+                    random.nextBoolean() ? "ON" : "OFF",
+                    "Stop" + (1 + random.nextInt(3)),
+                    "Company" + (1 + random.nextInt(2)),
+                    "Bus" + (1 + random.nextInt(3)),
+                    pan));
+        }
+        return taps;
+    }
+}
@@ -0,0 +1,148 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.service.CsvReadingService;
+import dev.amir.trip_matcher.reader.service.TapReaderType;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.service.CsvWritingService;
+import dev.amir.trip_matcher.writer.service.TripWriterType;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PipelinedTapProcessorTest {
+
+    private static final String HEADER = "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n";
+
+    @TempDir
+    Path tempDir;
+
+    private TripFareManager tripFareManager;
+    private CsvWritingService csvWritingService;
+
+    @BeforeEach
+    void setUp() {
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        csvWritingService = new CsvWritingService(tempDir.resolve("unused.csv").toString(), TripWriterType.FAST);
+    }
+
+
+    @Test
+    @Description("Taps of one group split over several files are matched together, and each company gets its own trips file")
+    void run_WithSeveralFilesAndCompanies_ShouldWriteTheBatchTripsOfEachCompany() throws IOException {
+        //given
+        Path morning = write("taps-01.csv", """
+                1, 22-01-2023 08:00:00, ON, Stop1, Company1, Bus37, PAN1
+                2, 22-01-2023 08:01:00, ON, Stop2, Company2, Bus11, PAN2
+                3, 22-01-2023 08:02:00, ON, Stop1, Company1, Bus37, PAN3
+                """);
+        Path evening = write("taps-02.csv", """
+                4, 22-01-2023 08:05:00, OFF, Stop2, Company1, Bus37, PAN1
+                5, 22-01-2023 08:06:00, OFF, Stop2, Company2, Bus11, PAN2
+                6, 22-01-2023 18:00:00, ON, Stop3, Company2, Bus11, PAN2
+                """);
+        PipelineProperties properties = new PipelineProperties();
+        // Tiny chunks and queues so that readers and matching block on each other
+        properties.setChunkSize(1);
+        properties.setQueueCapacity(1);
+        properties.setWriteQueueCapacity(1);
+        properties.setWriters(1);
+
+        //when
+        PipelinedTapProcessor.Summary summary = pipeline(properties, true).run(List.of(morning, evening), tempDir.resolve("trips.csv"));
+
+        //then
+        Path company1 = tempDir.resolve("trips-Company1.csv");
+        Path company2 = tempDir.resolve("trips-Company2.csv");
+        assertEquals(6, summary.tapCount());
+        assertEquals(4, summary.tripCount());
+        assertEquals(List.of(company1, company2), summary.outputFiles());
+        assertEquals(batchTrips(List.of(morning, evening), "Company1"), Files.readString(company1));
+        assertEquals(batchTrips(List.of(morning, evening), "Company2"), Files.readString(company2));
+    }
+
+
+    @Test
+    @Description("A missing input file fails the whole run instead of leaving the other stages waiting")
+    void run_WhenAFileCannotBeRead_ShouldFail() throws IOException {
+        //given
+        Path taps = write("taps.csv", "1, 22-01-2023 08:00:00, ON, Stop1, Company1, Bus37, PAN1\n");
+        PipelineProperties properties = new PipelineProperties();
+        properties.setReaders(1);
+
+        //when //then
+        assertThrows(IOException.class, () -> pipeline(properties, false)
+                .run(List.of(taps, tempDir.resolve("missing.csv")), tempDir.resolve("trips.csv")));
+    }
+
+
+    @Test
+    @Description("Directories and glob patterns expand to their tap files in name order, each file read once")
+    void expandInputFiles_WithDirectoriesAndGlobs_ShouldListEachFileOnce() throws IOException {
+        //given
+        Path depot1 = Files.createDirectories(tempDir.resolve("depot1"));
+        Path depot2 = Files.createDirectories(tempDir.resolve("depot2"));
+        Path depot1Morning = Files.writeString(depot1.resolve("taps-08.csv"), HEADER);
+        Path depot1Evening = Files.writeString(depot1.resolve("taps-18.csv"), HEADER);
+        Files.writeString(depot1.resolve("notes.txt"), "not taps");
+        Path depot2Morning = Files.writeString(depot2.resolve("taps-08.csv"), HEADER);
+        Path missing = tempDir.resolve("missing.csv");
+
+        //when
+        List<Path> files = PipelinedTapProcessor.expandInputFiles(List.of(
+                depot1, tempDir.resolve("depot*").resolve("taps-08.csv"), tempDir.resolve("**").resolve("nothing-*.csv"), missing));
+
+        //then
+        assertEquals(List.of(depot1Morning, depot1Evening, depot2Morning, missing), files);
+    }
+
+
+    @Test
+    void companyOutputFile_ShouldAppendTheCompanyToTheFileName() {
+        assertEquals(Path.of("data", "trips-Company1.csv"), PipelinedTapProcessor.companyOutputFile(Path.of("data", "trips.csv"), "Company1"));
+        assertEquals(Path.of("trips-A_B"), PipelinedTapProcessor.companyOutputFile(Path.of("trips"), "A/B"));
+    }
+
+
+    private PipelinedTapProcessor pipeline(PipelineProperties properties, boolean virtualThreads) {
+        return new PipelinedTapProcessor(tripFareManager, TapTraceSampler.DISABLED,
+                new CsvReadingService(tempDir.toString(), TapReaderType.FAST), csvWritingService, properties, virtualThreads);
+    }
+
+
+    private String batchTrips(List<Path> files, String companyId) throws IOException {
+        List<TapModel> taps = new ArrayList<>();
+        CsvReadingService csvReadingService = new CsvReadingService(tempDir.toString(), TapReaderType.FAST);
+        for (Path file : files) {
+            csvReadingService.readTapsCsv(file, tap -> {
+                if (tap.getCompanyId().equals(companyId)) {
+                    taps.add(tap);
+                }
+            });
+        }
+        List<TripModel> trips = new TapProcessor(tripFareManager, TapTraceSampler.DISABLED, 1).tripMaker(taps);
+
+        Path expected = tempDir.resolve("expected-" + companyId + ".csv");
+        new CsvWritingService(expected.toString(), TripWriterType.FAST).writeTripsToCsv(trips);
+        return Files.readString(expected);
+    }
+
+
+    private Path write(String fileName, String rows) throws IOException {
+        return Files.writeString(tempDir.resolve(fileName), HEADER + rows);
+    }
+}
@@ -0,0 +1,68 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.service.CsvReadingService;
+import dev.amir.trip_matcher.reader.service.TapReaderType;
+import dev.amir.trip_matcher.ruleengine.service.TapTraceSampler;
+import dev.amir.trip_matcher.writer.service.CsvWritingService;
+import dev.amir.trip_matcher.writer.service.TripWriterType;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RunManifestTest {
+
+    private static final String HEADER = "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("The manifest of a run lists the taps read from each input file and the trips written to each company file")
+    void succeeded_ShouldRecordEveryInputAndOutputFile() throws IOException {
+        //given
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        Files.writeString(tempDir.resolve("taps-08.csv"), HEADER + """
+                1, 22-01-2023 08:00:00, ON, Stop1, Company1, Bus37, PAN1
+                2, 22-01-2023 08:01:00, ON, Stop2, Company2, Bus11, PAN2
+                """);
+        Files.writeString(tempDir.resolve("taps-09.csv"), HEADER + """
+                3, 22-01-2023 09:05:00, OFF, Stop2, Company1, Bus37, PAN1
+                """);
+        List<Path> inputFiles = PipelinedTapProcessor.expandInputFiles(List.of(tempDir.resolve("taps-*.csv")));
+        PipelinedTapProcessor pipeline = new PipelinedTapProcessor(tripFareManager, TapTraceSampler.DISABLED,
+                new CsvReadingService(tempDir.toString(), TapReaderType.FAST),
+                new CsvWritingService(tempDir.resolve("unused.csv").toString(), TripWriterType.FAST), new PipelineProperties(), true);
+        Instant startedAt = Instant.parse("2024-01-22T10:00:00Z");
+        Path manifestFile = tempDir.resolve("out/trips-manifest.json");
+
+        //when
+        PipelinedTapProcessor.Summary summary = pipeline.run(inputFiles, tempDir.resolve("out/trips.csv"));
+        RunManifest.succeeded(summary, startedAt, startedAt.plusSeconds(3), 1).write(manifestFile);
+        RunManifest manifest = RunManifest.read(manifestFile);
+
+        //then
+        assertEquals(RunManifest.Status.SUCCEEDED, manifest.status());
+        assertEquals(3_000, manifest.durationMillis());
+        assertEquals(3, manifest.tapCount());
+        assertEquals(2, manifest.tripCount());
+        assertEquals(List.of(2L, 1L), manifest.inputs().stream().map(RunManifest.FileEntry::rows).toList());
+        assertEquals(tempDir.resolve("taps-08.csv").toString(), manifest.inputs().get(0).path());
+        assertEquals(List.of(tempDir.resolve("out/trips-Company1.csv").toString(), tempDir.resolve("out/trips-Company2.csv").toString()),
+                manifest.outputs().stream().map(RunManifest.FileEntry::path).toList());
+        assertEquals(List.of(1L, 1L), manifest.outputs().stream().map(RunManifest.FileEntry::rows).toList());
+        assertEquals(Files.size(tempDir.resolve("out/trips-Company1.csv")), manifest.outputs().get(0).bytes());
+        assertNull(manifest.error());
+    }
+}
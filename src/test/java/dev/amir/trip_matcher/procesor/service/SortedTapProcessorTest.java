@@ -0,0 +1,104 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.parser.ColumnarTapFile;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SortedTapProcessorTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T06:00:00");
+
+    @TempDir
+    Path tempDir;
+
+    private TripFareManager tripFareManager;
+
+    @BeforeEach
+    void setUp() {
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+    }
+
+
+    @Test
+    @Description("A columnar file read with reused taps gives the same trips as the batch processor")
+    void accept_WithColumnarFile_ShouldMatchBatchTrips() throws IOException {
+        //given
+        Random random = new Random(7);
+        List<TapModel> taps = new ArrayList<>();
+        for (int id = 1; id <= 2_000; id++) {
+            taps.add(new TapModel(id, START.plusSeconds(random.nextInt(86_400)), random.nextBoolean() ? "ON" : "OFF",
+                    "Stop" + (1 + random.nextInt(3)), "Company" + (1 + random.nextInt(2)), "Bus" + (1 + random.nextInt(3)),
+                    "PAN" + random.nextInt(100)));
+        }
+        Path file = tempDir.resolve("taps.tmc");
+        ColumnarTapFile.write(file, taps);
+        SortedTapProcessor sortedTapProcessor = new SortedTapProcessor(tripFareManager);
+
+        //when
+        List<TripModel> trips = new ArrayList<>();
+        ColumnarTapFile.open(file).forEach(tap -> sortedTapProcessor.accept(tap, trips::add));
+        sortedTapProcessor.finish(trips::add);
+
+        //then
+        Comparator<TripModel> byGroup = Comparator.comparing(TripModel::getCompanyId)
+                .thenComparing(TripModel::getBusId)
+                .thenComparing(TripModel::getPan);
+        List<TripModel> batchTrips = new ArrayList<>(new TapProcessor(tripFareManager).tripMaker(taps));
+        batchTrips.sort(byGroup);
+        assertEquals(batchTrips, trips);
+    }
+
+
+    @Test
+    @Description("Input that breaks the order fails instead of splitting a group in two")
+    void accept_WhenTapsAreNotSorted_ShouldFail() {
+        //given
+        SortedTapProcessor sortedTapProcessor = new SortedTapProcessor(tripFareManager);
+        List<TripModel> trips = new ArrayList<>();
+        sortedTapProcessor.accept(new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN2"), trips::add);
+
+        //when //then
+        assertThrows(SortedTapProcessor.UnsortedInputException.class, () ->
+                sortedTapProcessor.accept(new TapModel(2, START.plusMinutes(1), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), trips::add));
+        assertThrows(SortedTapProcessor.UnsortedInputException.class, () ->
+                sortedTapProcessor.accept(new TapModel(3, START.minusMinutes(1), "OFF", "Stop2", "Company1", "Bus1", "PAN2"), trips::add));
+    }
+
+
+    @Test
+    @Description("The order check parses the whole file and stops at the first tap out of order")
+    void verifyOrder_ShouldFailOnlyOnUnsortedFile() throws IOException {
+        //given
+        String header = "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n";
+        Path sorted = Files.writeString(tempDir.resolve("sorted.csv"), header
+                + "1, 01-01-2024 01:01:01, ON, Stop1, Company1, Bus1, PAN1\n"
+                + "2, 01-01-2024 01:05:01, OFF, Stop2, Company1, Bus1, PAN1\n"
+                + "3, 01-01-2024 01:02:01, ON, Stop1, Company1, Bus1, PAN2\n");
+        Path unsorted = Files.writeString(tempDir.resolve("unsorted.csv"), header
+                + "1, 01-01-2024 01:01:01, ON, Stop1, Company1, Bus1, PAN2\n"
+                + "2, 01-01-2024 01:05:01, OFF, Stop2, Company1, Bus1, PAN1\n");
+
+        //when //then
+        SortedTapProcessor.verifyOrder(sorted);
+        assertThrows(SortedTapProcessor.UnsortedInputException.class, () -> SortedTapProcessor.verifyOrder(unsorted));
+    }
+}
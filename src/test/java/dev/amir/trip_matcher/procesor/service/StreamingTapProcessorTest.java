@@ -0,0 +1,136 @@
+package dev.amir.trip_matcher.procesor.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.datastore.Route;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingTapProcessorTest {
+
+    private TripFareManager tripFareManager;
+    private StreamingTapProcessor streamingTapProcessor;
+
+    @BeforeEach
+    void setUp() {
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        streamingTapProcessor = new StreamingTapProcessor(tripFareManager);
+    }
+
+
+    @Test
+    @Description("Streaming and batch processing should produce the same trips for time ordered taps")
+    void accept_WhenTapsAreTimeOrdered_ShouldProduceSameTripsAsBatch() {
+        //given
+        LocalDateTime start = LocalDateTime.parse("2024-01-01T01:01:01");
+        List<TapModel> taps = List.of(
+                new TapModel(1, start, "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(2, start.plusSeconds(1), "OFF", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(3, start.plusSeconds(2), "ON", "Stop2", "Company1", "Bus2", "PAN2"),
+                new TapModel(4, start.plusSeconds(3), "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(5, start.plusSeconds(4), "OFF", "Stop3", "Company1", "Bus1", "PAN1"),
+                new TapModel(6, start.plusSeconds(5), "OFF", "Stop3", "Company1", "Bus1", "PAN1"),
+                new TapModel(7, start.plusSeconds(6), "ON", "Stop3", "Company1", "Bus2", "PAN2"),
+                new TapModel(8, start.plusSeconds(7), "ON", "Stop2", "Company1", "Bus1", "PAN1")
+        );
+
+        //when
+        List<TripModel> streamedTrips = new ArrayList<>();
+        taps.forEach(tap -> streamingTapProcessor.accept(tap, streamedTrips::add));
+        streamingTapProcessor.finish(streamedTrips::add);
+
+        //then
+        List<TripModel> batchTrips = new TapProcessor(tripFareManager).tripMaker(new ArrayList<>(taps));
+        assertEquals(batchTrips.size(), streamedTrips.size());
+        assertEquals(new HashSet<>(batchTrips), new HashSet<>(streamedTrips));
+    }
+
+
+    @Test
+    @Description("Fares reloaded while the stream runs price the trips that close afterwards")
+    void accept_WhenFaresAreReloadedMidStream_ShouldPriceLaterTripsWithTheNewFares() {
+        //given
+        LocalDateTime start = LocalDateTime.parse("2024-01-01T01:01:01");
+        List<TripModel> trips = new ArrayList<>();
+        streamingTapProcessor.accept(new TapModel(1, start, "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips::add);
+        streamingTapProcessor.accept(new TapModel(2, start.plusMinutes(5), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), trips::add);
+        streamingTapProcessor.accept(new TapModel(3, start.plusMinutes(10), "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips::add);
+
+        //when
+        tripFareManager.replacePriceRules(Map.of(
+                new Route(IdDictionary.STOPS.encode("Stop1"), IdDictionary.STOPS.encode("Stop2")), new BigDecimal("4.00")));
+        streamingTapProcessor.accept(new TapModel(4, start.plusMinutes(15), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), trips::add);
+
+        //then
+        assertEquals(2, trips.size());
+        assertEquals("3.25", trips.get(0).getChargeAmount());
+        assertEquals("4.00", trips.get(1).getChargeAmount());
+    }
+
+
+    @Test
+    @Description("Only taps that can still open a trip should be kept in memory")
+    void accept_WhenTripCloses_ShouldReleaseGroupState() {
+        //given
+        LocalDateTime start = LocalDateTime.parse("2024-01-01T01:01:01");
+        List<TripModel> trips = new ArrayList<>();
+
+        //when
+        streamingTapProcessor.accept(new TapModel(1, start, "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips::add);
+        streamingTapProcessor.accept(new TapModel(2, start, "ON", "Stop1", "Company1", "Bus1", "PAN2"), trips::add);
+        streamingTapProcessor.accept(new TapModel(3, start.plusSeconds(60), "OFF", "Stop2", "Company1", "Bus1", "PAN1"), trips::add);
+
+        //then
+        assertEquals(1, streamingTapProcessor.openTripCount());
+        assertEquals(1, trips.size());
+        assertEquals(TripStatus.COMPLETED, trips.get(0).getStatus());
+
+        streamingTapProcessor.finish(trips::add);
+        assertEquals(0, streamingTapProcessor.openTripCount());
+        assertEquals(2, trips.size());
+        assertEquals(TripStatus.INCOMPLETE, trips.get(1).getStatus());
+        assertTrue(trips.stream().allMatch(trip -> "Company1".equals(trip.getCompanyId())));
+    }
+
+
+    @Test
+    @Description("With PAN eviction the dictionary keeps the PANs of the open trips only, and trips still carry the right PANs")
+    void accept_WithPanEviction_ShouldKeepOnlyOpenTripPans() {
+        //given
+        LocalDateTime start = LocalDateTime.parse("2024-01-01T01:01:01");
+        streamingTapProcessor.evictClosedPans(List.of());
+        List<TripModel> trips = new ArrayList<>();
+        streamingTapProcessor.accept(new TapModel(0, start, "ON", "Stop1", "Company1", "Bus1", "OPEN-PAN"), trips::add);
+
+        //when
+        for (int id = 1; id <= 150_000; id += 2) {
+            String pan = "EVICTED-PAN" + id;
+            streamingTapProcessor.accept(new TapModel(id, start, "ON", "Stop1", "Company1", "Bus1", pan), trips::add);
+            streamingTapProcessor.accept(new TapModel(id + 1, start.plusMinutes(5), "OFF", "Stop2", "Company1", "Bus1", pan), trips::add);
+        }
+        streamingTapProcessor.finish(trips::add);
+
+        //then
+        assertTrue(IdDictionary.PANS.size() < 100_000, "PANs kept: " + IdDictionary.PANS.size());
+        assertEquals(75_001, trips.size());
+        assertEquals("EVICTED-PAN149999", trips.get(74_999).getPan());
+        assertEquals("OPEN-PAN", trips.get(75_000).getPan());
+        assertEquals(TripStatus.INCOMPLETE, trips.get(75_000).getStatus());
+    }
+}
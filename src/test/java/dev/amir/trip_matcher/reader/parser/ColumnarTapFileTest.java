@@ -0,0 +1,150 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnarTapFileTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2023-01-22T13:00:00");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void write_ThenOpen_ShouldReturnTheTapsSortedByGroupAndTime() throws IOException {
+        // given
+        List<TapModel> taps = List.of(
+                new TapModel(1, START.plusMinutes(5), "OFF", "Stop2", "Company2", "Bus37", "PAN1"),
+                new TapModel(2, START, "ON", "Stop1", "Company1", "Bus37", "PAN2"),
+                new TapModel(3, START, "ON", "Stop1", "Company2", "Bus37", "PAN1"),
+                new TapModel(4, START.plusMinutes(1), "ON", "Stop3", "Company1", "Bus11", "PAN2"),
+                new TapModel(5, START.plusMinutes(1), "SCAN", "Stop3", "Company1", "Bus11", "PAN2"));
+        Path file = tempDir.resolve("taps.tmc");
+
+        // when
+        ColumnarTapFile.write(file, taps);
+        ColumnarTapFile columnar = ColumnarTapFile.open(file);
+
+        // then
+        assertEquals(5, columnar.size());
+        List<TapModel> expected = List.of(taps.get(3), taps.get(4), taps.get(1), taps.get(2), taps.get(0));
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.get(row), columnar.get(row));
+        }
+    }
+
+    @Test
+    void write_WithManyDistinctValues_ShouldRoundTrip() throws IOException {
+        // given: more than 256 PANs and 65536 ids widen the columns
+        List<TapModel> taps = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            taps.add(new TapModel(i, START.plusSeconds(i), i % 2 == 0 ? "ON" : "OFF",
+                    "Stop" + i % 3, "Company1", "Bus" + i % 70_000, "PAN" + i % 300));
+        }
+        Path file = tempDir.resolve("taps.tmc");
+
+        // when
+        ColumnarTapFile.write(file, taps);
+        List<TapModel> read = new ArrayList<>();
+        ColumnarTapFile.open(file).forEach(tap -> read.add(tap.copy()));
+
+        // then
+        assertEquals(taps.size(), read.size());
+        assertEquals(taps.stream().sorted(Comparator.comparing(TapModel::getBusId).thenComparing(TapModel::getPan)).toList(), read);
+    }
+
+    @Test
+    void forEach_ShouldKeepThePreviousTapValidWhileTheNextOneIsRead() throws IOException {
+        // given
+        Path file = tempDir.resolve("taps.tmc");
+        ColumnarTapFile.write(file, List.of(
+                new TapModel(1, START, "ON", "Stop1", "Company1", "Bus37", "PAN1"),
+                new TapModel(2, START.plusMinutes(1), "OFF", "Stop2", "Company1", "Bus37", "PAN1"),
+                new TapModel(3, START.plusMinutes(2), "ON", "Stop2", "Company1", "Bus37", "PAN1")));
+        List<TapModel> seen = new ArrayList<>();
+        List<Integer> previousIds = new ArrayList<>();
+
+        // when
+        ColumnarTapFile.open(file).forEach(tap -> {
+            if (!seen.isEmpty()) {
+                previousIds.add(seen.get(seen.size() - 1).getId());
+            }
+            seen.add(tap);
+        });
+
+        // then
+        assertEquals(List.of(1, 2), previousIds);
+        assertNotSame(seen.get(0), seen.get(1));
+        assertSame(seen.get(0), seen.get(2));
+    }
+
+    @Test
+    void read_AfterPanEviction_ShouldMapTheEvictedPansAgain() throws IOException {
+        // given
+        Path file = tempDir.resolve("taps.tmc");
+        List<TapModel> taps = List.of(
+                new TapModel(1, START, "ON", "Stop1", "Company1", "Bus37", "ColumnarEvictedPAN1"),
+                new TapModel(2, START, "ON", "Stop1", "Company1", "Bus37", "ColumnarEvictedPAN2"));
+        ColumnarTapFile.write(file, taps);
+        ColumnarTapFile eager = ColumnarTapFile.open(file);
+        ColumnarTapFile lazy = ColumnarTapFile.open(file, true);
+        assertEquals(taps.get(0), lazy.get(0));
+
+        // when
+        IdDictionary.PANS.retainOnly(new BitSet());
+
+        // then: the expected taps refer to the evicted codes, their PANs are compared as strings
+        for (ColumnarTapFile columnar : List.of(eager, lazy)) {
+            assertEquals(List.of("ColumnarEvictedPAN1", "ColumnarEvictedPAN2"), List.of(columnar.get(0).getPan(), columnar.get(1).getPan()));
+            assertEquals(2, columnar.get(1).getId());
+        }
+    }
+
+    @Test
+    void open_WhenFileIsNotColumnarOrTruncated_ShouldFail() throws IOException {
+        // given
+        Path csv = Files.writeString(tempDir.resolve("taps.csv"), "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n");
+        Path truncated = tempDir.resolve("taps.tmc");
+        ColumnarTapFile.write(truncated, List.of(new TapModel(1, START, "ON", "Stop1", "Company1", "Bus37", "PAN1")));
+        byte[] bytes = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+
+        // when //then
+        assertThrows(IOException.class, () -> ColumnarTapFile.open(csv));
+        assertThrows(IOException.class, () -> ColumnarTapFile.open(truncated));
+    }
+
+    @Test
+    void isUpToDate_ShouldCompareWithTheSourceModificationTime() throws IOException {
+        // given
+        Path csv = Files.writeString(tempDir.resolve("taps.csv"), "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n");
+        Path columnar = tempDir.resolve("taps.tmc");
+
+        // when //then
+        assertFalse(ColumnarTapFile.isUpToDate(columnar, csv));
+        ColumnarTapFile.write(columnar, List.of());
+        assertTrue(ColumnarTapFile.isUpToDate(columnar, csv));
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(Files.getLastModifiedTime(columnar).toMillis() + 1000));
+        assertFalse(ColumnarTapFile.isUpToDate(columnar, csv));
+    }
+}
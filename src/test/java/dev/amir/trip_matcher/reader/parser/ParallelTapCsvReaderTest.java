@@ -0,0 +1,52 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelTapCsvReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void read_WhenFileSpansManyChunks_ShouldMatchSequentialParser() throws IOException {
+        // given
+        StringBuilder csv = new StringBuilder("ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n");
+        for (int i = 1; i <= 1000; i++) {
+            csv.append(i).append(", 01-01-2024 01:").append(String.format("%02d:%02d", i / 60 % 60, i % 60))
+                    .append(i % 2 == 0 ? ", OFF, Stop" : ", ON, Stop").append(i % 3 + 1)
+                    .append(", Company1, Bus").append(i % 7).append(", PAN").append(i % 50).append('\n');
+        }
+        Path tapsCsv = tempDir.resolve("taps.csv");
+        Files.writeString(tapsCsv, csv);
+
+        List<TapModel> expectedTapModels = new ArrayList<>();
+        new TapCsvParser().parseFile(tapsCsv, expectedTapModels::add);
+
+        // when
+        List<TapModel> actualTapModels = new ParallelTapCsvReader(4, 997).read(tapsCsv);
+
+        // then
+        assertEquals(1000, actualTapModels.size());
+        assertEquals(expectedTapModels, actualTapModels);
+    }
+
+    @Test
+    void read_WhenFileHasOnlyHeader_ShouldReturnNoTaps() throws IOException {
+        // given
+        Path tapsCsv = tempDir.resolve("taps.csv");
+        Files.writeString(tapsCsv, "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n");
+
+        // when & then
+        assertEquals(List.of(), new ParallelTapCsvReader(2, 16).read(tapsCsv));
+    }
+}
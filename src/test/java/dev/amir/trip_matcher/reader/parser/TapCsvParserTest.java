@@ -0,0 +1,68 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.service.CsvReadingService;
+import dev.amir.trip_matcher.reader.service.TapReaderType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TapCsvParserTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "src/test/resources/data/taps-readerTest.csv",
+            "src/test/resources/data/taps-integrationTest.csv",
+            "src/main/resources/data/taps.csv"})
+    void parseFile_ShouldMatchOpenCsvReader(String filePath) throws IOException {
+        // given
+        List<TapModel> expectedTapModels = new CsvReadingService(filePath, TapReaderType.OPENCSV).readTapsCsv();
+        // when
+        List<TapModel> actualTapModels = new CsvReadingService(filePath, TapReaderType.FAST).readTapsCsv();
+        // then
+        assertEquals(expectedTapModels, actualTapModels);
+    }
+
+    @Test
+    void parseFile_WhenCrLfAndBlankLines_ShouldSkipThem() throws IOException {
+        // given
+        Path tapsCsv = tempDir.resolve("taps.csv");
+        Files.writeString(tapsCsv, "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\r\n"
+                                   + "1,\t22-01-2024 13:05:09 ,  ON ,Stop1, Company1, Bus1, PAN1\r\n"
+                                   + "\r\n"
+                                   + "2, 22-01-2024 13:15:00, OFF, Stop2, Company1, Bus1, PAN1");
+        List<TapModel> actualTapModels = new ArrayList<>();
+        // when
+        long count = new TapCsvParser().parseFile(tapsCsv, actualTapModels::add);
+        // then
+        assertEquals(2, count);
+        assertEquals(List.of(
+                new TapModel(1, LocalDateTime.of(2024, 1, 22, 13, 5, 9), "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(2, LocalDateTime.of(2024, 1, 22, 13, 15, 0), "OFF", "Stop2", "Company1", "Bus1", "PAN1")
+        ), actualTapModels);
+    }
+
+    @Test
+    void parseFile_WhenRowIsMalformed_ShouldFail() throws IOException {
+        // given
+        Path tapsCsv = tempDir.resolve("taps.csv");
+        Files.writeString(tapsCsv, "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n"
+                                   + "1, 2024-01-22 13:05:09, ON, Stop1, Company1, Bus1, PAN1\n");
+        // when & then
+        assertThrows(IOException.class, () -> new TapCsvParser().parseFile(tapsCsv, tap -> { }));
+    }
+}
@@ -0,0 +1,73 @@
+package dev.amir.trip_matcher.reader.parser;
+
+import dev.amir.trip_matcher.reader.model.TapModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TapFileTailerTest {
+
+    private static final String HEADER = "ID, DateTimeUTC, TapType, StopId, CompanyId, BusID, PAN\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void poll_WhenRowsAreAppended_ShouldReadOnlyCompleteNewRows() throws IOException {
+        // given
+        Path tapsCsv = tempDir.resolve("taps.csv");
+        Files.writeString(tapsCsv, HEADER.substring(0, 10));
+        List<TapModel> taps = new ArrayList<>();
+
+        try (TapFileTailer tailer = new TapFileTailer(tapsCsv)) {
+            // when
+            long headerOnly = tailer.poll(taps::add);
+            append(tapsCsv, HEADER.substring(10) + "1, 22-01-2023 13:00:00, ON, Stop1, Company1, Bus37, PAN1\n2, 22-01");
+            long firstRow = tailer.poll(taps::add);
+            append(tapsCsv, "-2023 13:05:00, OFF, Stop2, Company1, Bus37, PAN1\n");
+            long secondRow = tailer.poll(taps::add);
+            long nothingNew = tailer.poll(taps::add);
+
+            // then
+            assertEquals(0, headerOnly);
+            assertEquals(1, firstRow);
+            assertEquals(1, secondRow);
+            assertEquals(0, nothingNew);
+            assertEquals(List.of(1, 2), taps.stream().map(TapModel::getId).toList());
+            assertEquals("Stop2", taps.get(1).getStopId());
+        }
+    }
+
+    @Test
+    void poll_WhenFileIsTruncated_ShouldStartAgainAfterHeader() throws IOException {
+        // given
+        Path tapsCsv = tempDir.resolve("taps.csv");
+        Files.writeString(tapsCsv, HEADER + "1, 22-01-2023 13:00:00, ON, Stop1, Company1, Bus37, PAN1\n");
+        List<TapModel> taps = new ArrayList<>();
+
+        try (TapFileTailer tailer = new TapFileTailer(tapsCsv)) {
+            tailer.poll(taps::add);
+
+            // when
+            Files.writeString(tapsCsv, HEADER);
+            tailer.poll(taps::add);
+            append(tapsCsv, "7, 22-01-2023 14:00:00, ON, Stop3, Company1, Bus37, PAN1\n");
+            tailer.poll(taps::add);
+
+            // then
+            assertEquals(List.of(1, 7), taps.stream().map(TapModel::getId).toList());
+        }
+    }
+
+    private static void append(Path path, String text) throws IOException {
+        Files.writeString(path, text, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,70 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_HEAD_TAP;
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_TAIL_TAP;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackToBackTapRuleEngineTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T01:01:01");
+
+    private BackToBackTapRuleEngine ruleEngine;
+    private List<TripModel> trips;
+
+    @BeforeEach
+    void setUp() {
+        TripFareManager tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        ruleEngine = new BackToBackTapRuleEngine(tripFareManager);
+        trips = new ArrayList<>();
+    }
+
+
+    @Test
+    @Description("Overlapping ON -> ON rules fire once each, in declaration order")
+    void processBackToBackTaps_WhenImmediateTapOn_ShouldAddOneIncompleteTrip() {
+        //given
+        TapModel previousTap = new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1");
+        TapModel currentTap = new TapModel(2, START.plusSeconds(1), "ON", "Stop1", "Company1", "Bus1", "PAN1");
+
+        //when
+        ruleEngine.processBackToBackTaps(previousTap, currentTap, trips);
+
+        //then
+        assertEquals(1, trips.size());
+        assertEquals(TripStatus.INCOMPLETE, trips.get(0).getStatus());
+        assertEquals("7.30", trips.get(0).getChargeAmount());
+    }
+
+
+    @Test
+    @Description("Group boundaries and unrecognised tap types never produce trips on their own")
+    void processBackToBackTaps_WhenNoTripCanClose_ShouldAddNothing() {
+        //given
+        TapModel offTap = new TapModel(1, START, "OFF", "Stop1", "Company1", "Bus1", "PAN1");
+        TapModel unrecognisedTap = new TapModel(2, START, "TAP", "Stop1", "Company1", "Bus1", "PAN1");
+
+        //when
+        ruleEngine.processBackToBackTaps(GROUP_HEAD_TAP, offTap, trips);
+        ruleEngine.processBackToBackTaps(offTap, GROUP_TAIL_TAP, trips);
+        ruleEngine.processBackToBackTaps(offTap, unrecognisedTap, trips);
+        ruleEngine.processBackToBackTaps(unrecognisedTap, GROUP_TAIL_TAP, trips);
+
+        //then
+        assertTrue(trips.isEmpty());
+    }
+}
@@ -0,0 +1,198 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.metrics.ProcessingMetrics;
+import dev.amir.trip_matcher.procesor.service.TapProcessor;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.reader.model.TapType;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompanyRuleSetsTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T01:01:01");
+
+    private TripFareManager tripFareManager;
+    private RuleSetProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+        properties = new RuleSetProperties();
+    }
+
+
+    @Test
+    @Description("A company with its own rule set is matched with it, every other company with the defaults")
+    void match_WithCompanyRuleSet_ShouldApplyItToThatCompanyOnly() {
+        //given
+        properties.getCompanies().put("Company2", definition(List.of("GROUP_HEAD", "ON_GROUP_TAIL", "ON_OFF", "ON_ON", "OFF_ON", "OFF_OFF")));
+        CompanyRuleSets ruleSets = CompanyRuleSets.compile(properties, List.of());
+        List<TapModel> taps = List.of(
+                new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(2, START.plusMinutes(5), "OFF", "Stop1", "Company1", "Bus1", "PAN1"),
+                new TapModel(3, START, "ON", "Stop1", "Company2", "Bus1", "PAN1"),
+                new TapModel(4, START.plusMinutes(5), "OFF", "Stop1", "Company2", "Bus1", "PAN1"));
+
+        //when
+        List<TripModel> trips = new TapProcessor(tripFareManager, ruleSets, TapTraceSampler.DISABLED, 1, ProcessingMetrics.DISABLED)
+                .tripMaker(taps);
+
+        //then
+        assertEquals(1, trips.size());
+        assertEquals("Company1", trips.get(0).getCompanyId());
+        assertEquals(TripStatus.CANCELLED, trips.get(0).getStatus());
+    }
+
+
+    @Test
+    @Description("A plugged-in rule is available to the rule sets that list it, after the built-in rules of the same tap types")
+    void compile_WithPluggedInRule_ShouldDispatchItForItsTapTypes() {
+        //given
+        List<String> rules = new ArrayList<>(BuiltInTapRules.NAMES);
+        rules.add("OFF_WITHOUT_ON");
+        properties.getCompanies().put("Company3", definition(rules));
+        BackToBackTapRuleEngine ruleEngine = new BackToBackTapRuleEngine(tripFareManager.getFareTable(),
+                CompanyRuleSets.compile(properties, List.of(new OffWithoutOnProvider())), TapTraceSampler.DISABLED, ProcessingMetrics.DISABLED);
+        TapModel company1Off = new TapModel(1, START, "OFF", "Stop2", "Company1", "Bus1", "PAN1");
+        TapModel company3Off = new TapModel(2, START, "OFF", "Stop2", "Company3", "Bus1", "PAN1");
+        TripBuffer trips = new TripBuffer();
+
+        //when
+        ruleEngine.processBackToBackTaps(ruleEngine.ruleSetFor(company1Off), BackToBackTapRuleEngine.GROUP_HEAD_TAP, company1Off, trips);
+        ruleEngine.processBackToBackTaps(ruleEngine.ruleSetFor(company3Off), BackToBackTapRuleEngine.GROUP_HEAD_TAP, company3Off, trips);
+
+        //then
+        assertEquals(1, trips.size());
+        assertEquals("Company3", trips.get(0).getCompanyId());
+        assertEquals(TripStatus.INCOMPLETE, trips.get(0).getStatus());
+        assertEquals("Company3", ruleEngine.ruleSetFor(company3Off).getName());
+        assertEquals(CompanyRuleSets.DEFAULTS, ruleEngine.ruleSetFor(company1Off).getName());
+    }
+
+
+    @Test
+    @Description("Rule parameters are set per company: a wider double tap window makes a later second tap on a double tap")
+    void processBackToBackTaps_WithCompanyDoubleTapWindow_ShouldCountImmediateDoubleTaps() {
+        //given
+        RuleSetProperties.Definition company2 = new RuleSetProperties.Definition();
+        company2.setDoubleTapWindow(Duration.ofMinutes(1));
+        properties.getCompanies().put("Company2", company2);
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        BackToBackTapRuleEngine ruleEngine = new BackToBackTapRuleEngine(tripFareManager.getFareTable(),
+                CompanyRuleSets.compile(properties, List.of()), TapTraceSampler.DISABLED, metrics);
+        TripBuffer trips = new TripBuffer();
+
+        //when
+        for (String company : List.of("Company1", "Company2")) {
+            TapModel firstOn = new TapModel(1, START, "ON", "Stop1", company, "Bus1", "PAN1");
+            TapModel secondOn = new TapModel(2, START.plusSeconds(30), "ON", "Stop1", company, "Bus1", "PAN1");
+            ruleEngine.processBackToBackTaps(firstOn, secondOn, trips);
+        }
+
+        //then
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("trip_matcher_rules_fired_total{rule=\"IMMEDIATE_DOUBLE_TAPS\"} 1"), scrape);
+        assertTrue(scrape.contains("trip_matcher_rules_fired_total{rule=\"ON_ON\"} 2"), scrape);
+    }
+
+
+    @Test
+    @Description("Plug-in rule parameters are set per company and read by the provider when compiling each rule set")
+    void compile_WithPluggedInRuleParameters_ShouldConfigureTheRuleOfEachCompany() {
+        //given
+        List<String> rules = new ArrayList<>(BuiltInTapRules.NAMES);
+        rules.add("OFF_WITHOUT_ON");
+        properties.getDefaults().setRules(rules);
+        RuleSetProperties.Definition company3 = definition(rules);
+        company3.getParameters().put(OffWithoutOnProvider.STATUS, "CANCELLED");
+        properties.getCompanies().put("Company3", company3);
+        BackToBackTapRuleEngine ruleEngine = new BackToBackTapRuleEngine(tripFareManager.getFareTable(),
+                CompanyRuleSets.compile(properties, List.of(new OffWithoutOnProvider())), TapTraceSampler.DISABLED, ProcessingMetrics.DISABLED);
+        TripBuffer trips = new TripBuffer();
+
+        //when
+        for (String company : List.of("Company1", "Company3")) {
+            TapModel off = new TapModel(1, START, "OFF", "Stop2", company, "Bus1", "PAN1");
+            ruleEngine.processBackToBackTaps(ruleEngine.ruleSetFor(off), BackToBackTapRuleEngine.GROUP_HEAD_TAP, off, trips);
+        }
+
+        //then
+        assertEquals(2, trips.size());
+        assertEquals(TripStatus.INCOMPLETE, trips.get(0).getStatus());
+        assertEquals(TripStatus.CANCELLED, trips.get(1).getStatus());
+    }
+
+
+    @Test
+    @Description("An unknown rule name fails the compilation instead of leaving the company without it")
+    void compile_WithUnknownRule_ShouldThrow() {
+        //given
+        properties.getCompanies().put("Company2", definition(List.of("GROUP_HEAD", "ON_OF")));
+
+        //when
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> CompanyRuleSets.compile(properties, List.of()));
+
+        //then
+        assertTrue(exception.getMessage().contains("ON_OF"), exception.getMessage());
+        assertTrue(exception.getMessage().contains("Company2"), exception.getMessage());
+    }
+
+
+    private static RuleSetProperties.Definition definition(List<String> rules) {
+        RuleSetProperties.Definition definition = new RuleSetProperties.Definition();
+        definition.setRules(rules);
+        return definition;
+    }
+
+
+    /**
+     * Charges a tap off with no tap on before it as a trip from its stop, incomplete unless the rule set's
+     * {@value #STATUS} parameter says otherwise.
+     */
+    private static class OffWithoutOnProvider implements TapRule.Provider {
+
+        static final String STATUS = "off-without-on-status";
+
+        @Override
+        public String name() {
+            return "OFF_WITHOUT_ON";
+        }
+
+        @Override
+        public TapRule create(RuleSetProperties.Definition definition) {
+            TripStatus status = TripStatus.valueOf(definition.getParameters().getOrDefault(STATUS, TripStatus.INCOMPLETE.name()));
+            return new TapRule() {
+                @Override
+                public String name() {
+                    return "OFF_WITHOUT_ON";
+                }
+
+                @Override
+                public boolean appliesTo(TapType previous, TapType current) {
+                    return (previous == TapType.GROUP_HEAD || previous == TapType.OFF) && current == TapType.OFF;
+                }
+
+                @Override
+                public void apply(TapModel previousTap, TapModel currentTap, TripPricer pricer, TripBuffer trips) {
+                    pricer.addTrip(trips, currentTap, currentTap.getEpochSecond(), 0, currentTap.getStopCode(), status);
+                }
+            };
+        }
+    }
+}
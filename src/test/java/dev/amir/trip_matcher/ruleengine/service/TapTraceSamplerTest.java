@@ -0,0 +1,180 @@
+package dev.amir.trip_matcher.ruleengine.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import dev.amir.trip_matcher.datastore.DefaultTripFareLoader;
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.datastore.TripFareManager;
+import dev.amir.trip_matcher.reader.model.TapModel;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_HEAD_TAP;
+import static dev.amir.trip_matcher.ruleengine.service.BackToBackTapRuleEngine.GROUP_TAIL_TAP;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TapTraceSamplerTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2024-01-01T01:01:01");
+
+    private final Logger traceLogger = (Logger) LoggerFactory.getLogger(TapTraceSampler.LOGGER_NAME);
+    private final ListAppender<ILoggingEvent> events = new ListAppender<>();
+    private Level traceLevel;
+    private TripFareManager tripFareManager;
+
+    @BeforeEach
+    void setUp() {
+        traceLevel = traceLogger.getLevel();
+        traceLogger.setLevel(Level.INFO);
+        events.start();
+        traceLogger.addAppender(events);
+        tripFareManager = new TripFareManager();
+        DefaultTripFareLoader.loadDatastore(tripFareManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        traceLogger.detachAppender(events);
+        traceLogger.setLevel(traceLevel);
+    }
+
+
+    @Test
+    @Description("Without a sample rate or PANs the sampler is off and nothing is traced")
+    void isSampled_WhenNotConfigured_ShouldBeDisabled() {
+        //given
+        TapModel tap = new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1");
+
+        //when
+        TapTraceSampler traceSampler = new TapTraceSampler(0, List.of(" "));
+
+        //then
+        assertFalse(traceSampler.isEnabled());
+        assertFalse(traceSampler.isSampled(GROUP_HEAD_TAP, tap));
+        assertFalse(TapTraceSampler.DISABLED.isEnabled());
+    }
+
+
+    @Test
+    @Description("Selected PANs are traced; the GROUP_TAIL sentinel is attributed to the group of the other tap")
+    void processBackToBackTaps_WhenPanIsTraced_ShouldLogOneEventPerRule() {
+        //given
+        TapTraceSampler traceSampler = new TapTraceSampler(0, List.of("PAN1"));
+        BackToBackTapRuleEngine ruleEngine = new BackToBackTapRuleEngine(tripFareManager.getFareTable(), traceSampler);
+        TapModel on = new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1");
+        TapModel off = new TapModel(2, START.plusMinutes(5), "OFF", "Stop2", "Company1", "Bus1", "PAN1");
+        TapModel otherPan = new TapModel(3, START, "ON", "Stop1", "Company1", "Bus1", "PAN2");
+        List<TripModel> trips = new ArrayList<>();
+
+        //when
+        ruleEngine.processBackToBackTaps(GROUP_HEAD_TAP, on, trips);
+        ruleEngine.processBackToBackTaps(on, off, trips);
+        ruleEngine.processBackToBackTaps(GROUP_HEAD_TAP, otherPan, trips);
+        ruleEngine.processBackToBackTaps(otherPan, GROUP_TAIL_TAP, trips);
+
+        //then
+        assertEquals(2, trips.size());
+        assertEquals(2, events.list.size());
+        assertEquals("GROUP_HEAD", fields(events.list.get(0)).get("rule"));
+
+        Map<String, Object> completed = fields(events.list.get(1));
+        assertEquals("tap.rule", events.list.get(1).getMessage());
+        assertEquals("ON_OFF", completed.get("rule"));
+        assertEquals("PAN1", completed.get("pan"));
+        assertEquals("Stop2", completed.get("currentStopId"));
+        assertEquals("COMPLETED", String.valueOf(completed.get("tripStatus")));
+        assertEquals("3.25", completed.get("chargeAmount"));
+    }
+
+
+    @Test
+    @Description("A second ON at the same stop is an immediate double tap only within 10 seconds of the first")
+    void processBackToBackTaps_WhenTappedOnTwice_ShouldMatchImmediateDoubleTapsWithinTheWindow() {
+        //given
+        TapTraceSampler traceSampler = new TapTraceSampler(0, List.of("PAN1"));
+        BackToBackTapRuleEngine ruleEngine = new BackToBackTapRuleEngine(tripFareManager.getFareTable(), traceSampler);
+        TapModel on = new TapModel(1, START, "ON", "Stop1", "Company1", "Bus1", "PAN1");
+        List<TripModel> trips = new ArrayList<>();
+
+        //when
+        ruleEngine.processBackToBackTaps(on, new TapModel(2, START.plusSeconds(9), "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips);
+        ruleEngine.processBackToBackTaps(on, new TapModel(3, START.plusSeconds(10), "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips);
+        ruleEngine.processBackToBackTaps(on, new TapModel(4, START.plusHours(1), "ON", "Stop1", "Company1", "Bus1", "PAN1"), trips);
+
+        //then
+        assertEquals(List.of("ON_ON", "IMMEDIATE_DOUBLE_TAPS", "ON_ON", "ON_ON"),
+                events.list.stream().map(event -> fields(event).get("rule")).toList());
+    }
+
+
+    @Test
+    @Description("Sampling is decided per group, so every pair of a sampled group is traced")
+    void isSampled_WhenSamplingGroups_ShouldBeStablePerGroup() {
+        //given
+        TapTraceSampler traceSampler = new TapTraceSampler(4, List.of());
+        int sampled = 0;
+
+        //when //then
+        for (int i = 0; i < 400; i++) {
+            TapModel on = new TapModel(i, START, "ON", "Stop1", "Company1", "Bus1", "PAN" + i);
+            TapModel off = new TapModel(i, START.plusMinutes(5), "OFF", "Stop2", "Company1", "Bus1", "PAN" + i);
+            boolean groupSampled = traceSampler.isSampled(GROUP_HEAD_TAP, on);
+            assertEquals(groupSampled, traceSampler.isSampled(on, off));
+            assertEquals(groupSampled, traceSampler.isSampled(off, GROUP_TAIL_TAP));
+            sampled += groupSampled ? 1 : 0;
+        }
+        assertTrue(sampled > 50 && sampled < 150, "sampled " + sampled + " groups out of 400");
+    }
+
+
+    @Test
+    @Description("A group stays sampled when its PAN code is evicted and the PAN encoded again between its taps")
+    void isSampled_WhenPansAreEvictedBetweenTaps_ShouldBeStablePerGroup() {
+        //given
+        TapTraceSampler traceSampler = new TapTraceSampler(4, List.of());
+        List<TapModel> onTaps = new ArrayList<>();
+        List<Boolean> groupsSampled = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            TapModel on = new TapModel(i, START, "ON", "Stop1", "Company1", "Bus1", "EvictedPAN" + i);
+            onTaps.add(on);
+            groupsSampled.add(traceSampler.isSampled(GROUP_HEAD_TAP, on));
+        }
+
+        //when
+        IdDictionary.PANS.retainOnly(new BitSet());
+        // Freed codes are reused last evicted first, so encoding again in the same order hands the PANs other codes
+        List<TapModel> offTaps = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            offTaps.add(new TapModel(i, START.plusMinutes(5), "OFF", "Stop2", "Company1", "Bus1", "EvictedPAN" + i));
+        }
+
+        //then
+        assertTrue(groupsSampled.contains(true) && groupsSampled.contains(false));
+        assertNotEquals(onTaps.get(0).getPanCode(), offTaps.get(0).getPanCode());
+        for (int i = 0; i < 400; i++) {
+            assertEquals(groupsSampled.get(i), traceSampler.isSampled(onTaps.get(i), offTaps.get(i)), "EvictedPAN" + i);
+            assertEquals(groupsSampled.get(i), traceSampler.isSampled(offTaps.get(i), GROUP_TAIL_TAP), "EvictedPAN" + i);
+        }
+    }
+
+
+    private static Map<String, Object> fields(ILoggingEvent event) {
+        return event.getKeyValuePairs().stream().collect(Collectors.toMap(pair -> pair.key, pair -> pair.value == null ? "null" : pair.value));
+    }
+}
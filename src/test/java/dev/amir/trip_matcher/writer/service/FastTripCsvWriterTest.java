@@ -0,0 +1,111 @@
+package dev.amir.trip_matcher.writer.service;
+
+import dev.amir.trip_matcher.datastore.IdDictionary;
+import dev.amir.trip_matcher.writer.model.TripBuffer;
+import dev.amir.trip_matcher.writer.model.TripModel;
+import dev.amir.trip_matcher.writer.model.TripStatus;
+import jdk.jfr.Description;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FastTripCsvWriterTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 1, 1, 1);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Description("Every field edge case opencsv handles is written with the same bytes")
+    void write_ShouldMatchOpenCsvWriter() throws IOException {
+        //given
+        List<TripModel> trips = List.of(
+                new TripModel(START, START.plusMinutes(5), 300, "Stop1", "Stop2", "3.25", "Company1", "Bus37", "5500005555555559", TripStatus.COMPLETED),
+                new TripModel(START, null, 0, "Stop1", "UNKNOWN", "7.30", "Company1", "Bus37", "PAN1", TripStatus.INCOMPLETE),
+                new TripModel(null, null, 0, "Stop1", "Stop1", null, "Company1", "Bus37", "PAN1", TripStatus.CANCELLED),
+                new TripModel(LocalDateTime.of(2024, 1, 1, 0, 0, 0), LocalDateTime.of(2024, 1, 1, 0, 1, 0, 5_000_000), -42, "Stop \"1\"", "Stop,2", "0.0", "Com\npany", "Bus\r1", "PAN\u00001", null),
+                new TripModel(LocalDateTime.of(999, 12, 31, 23, 59, 59, 123_456_000), LocalDateTime.of(10_000, 1, 1, 0, 0, 0, 1), Long.MIN_VALUE, null, "Stöp", "€1", "Cömpany,1", "🚌", "", TripStatus.COMPLETED));
+
+        //when
+        byte[] expected = write(TripWriterType.OPENCSV, trips);
+        byte[] actual = write(TripWriterType.FAST, trips);
+
+        //then
+        assertEquals(new String(expected), new String(actual));
+        assertArrayEquals(expected, actual);
+    }
+
+
+    @Test
+    @Description("Blocks formatted in parallel are written in input order, after rows written one by one")
+    void writeAll_WhenFormattingInParallel_ShouldMatchSequentialWrite() throws IOException {
+        //given
+        List<TripModel> trips = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            trips.add(new TripModel(START.plusSeconds(i), START.plusSeconds(2L * i), i, "Stop" + i % 3, "Stop" + i % 5,
+                    i % 7 == 0 ? null : "3.25", "Company1", "Bus" + i % 11, "PAN" + i, TripStatus.values()[i % 3]));
+        }
+        byte[] expected = write(TripWriterType.OPENCSV, trips);
+        Path tripsCsv = tempDir.resolve("trips-parallel.csv");
+
+        //when
+        try (FastTripCsvWriter writer = new FastTripCsvWriter(tripsCsv.toString(), 4, 1_000)) {
+            writer.write(trips.get(0));
+            writer.writeAll(trips.subList(1, trips.size()));
+            assertEquals(trips.size(), writer.getRowCount());
+        }
+
+        //then
+        assertArrayEquals(expected, Files.readAllBytes(tripsCsv));
+    }
+
+
+    @Test
+    @Description("Rows written straight from a trip buffer have the same bytes as the trips they materialize to")
+    void writeAll_FromTripBuffer_ShouldMatchOpenCsvWriter() throws IOException {
+        //given
+        long start = START.toEpochSecond(ZoneOffset.UTC);
+        long[][] charges = {{325, 2}, {730, 2}, {0, 1}, {5, 0}, {-125, 2}, {42, 7}, {1, 8}, {7, -2}, {TripBuffer.NO_CHARGE, 0}};
+        TripBuffer trips = new TripBuffer();
+        for (int i = 0; i < 3_000; i++) {
+            long[] charge = charges[i % charges.length];
+            trips.add(start + i, i % 4 == 0 ? TripModel.NO_TIME : start + 2L * i, i, IdDictionary.STOPS.encode("Stop" + i % 3),
+                    IdDictionary.STOPS.encode("Stop,\"" + i % 5), charge[0], (int) charge[1], IdDictionary.COMPANIES.encode("Company1"),
+                    IdDictionary.BUSES.encode("Bus" + i % 11), IdDictionary.PANS.encode("PAN" + i),
+                    i % 10 == 0 ? null : TripStatus.values()[i % 3]);
+        }
+        Path opencsv = tempDir.resolve("trips-opencsv.csv");
+        new CsvWritingService(opencsv.toString(), TripWriterType.OPENCSV).writeTripsToCsv(trips.toTripModels());
+        byte[] expected = Files.readAllBytes(opencsv);
+        Path sequential = tempDir.resolve("trips-sequential.csv");
+        Path parallel = tempDir.resolve("trips-parallel.csv");
+
+        //when
+        new CsvWritingService(sequential.toString(), TripWriterType.FAST).writeTripsToCsv(trips);
+        try (FastTripCsvWriter writer = new FastTripCsvWriter(parallel.toString(), 4, 1_000)) {
+            writer.writeAll(trips);
+        }
+
+        //then
+        assertEquals(new String(expected), new String(Files.readAllBytes(sequential)));
+        assertArrayEquals(expected, Files.readAllBytes(parallel));
+    }
+
+
+    private byte[] write(TripWriterType writerType, List<TripModel> trips) throws IOException {
+        Path tripsCsv = tempDir.resolve("trips-" + writerType + ".csv");
+        new CsvWritingService(tripsCsv.toString(), writerType).writeTripsToCsv(trips);
+        return Files.readAllBytes(tripsCsv);
+    }
+}